@@ -0,0 +1,16 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Entry point of benchmarks.jar: the JMH command line, writing results as JSON to
+// jmh-result.json unless another result format or file is given.
+//   java -jar benchmarks/target/benchmarks.jar [jmh options] [benchmark regex]
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        List<String> jmhArgs = new ArrayList<>(List.of(args));
+        if (!jmhArgs.contains("-rf")) jmhArgs.addAll(0, List.of("-rf", "json"));
+        if (!jmhArgs.contains("-rff")) jmhArgs.addAll(0, List.of("-rff", "jmh-result.json"));
+        org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[0]));
+    }
+}
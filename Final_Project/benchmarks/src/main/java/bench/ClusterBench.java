@@ -0,0 +1,48 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Codebook training on the 2×2 red blocks of one image: the original KMeans (20 passes) and
+// FastKMeans capped at the same 20 passes. Each call is a whole training run, timed singly.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClusterBench {
+
+    private static final int DIM = 4;
+    private static final int PASSES = 20;
+    private static final long SEED = 42;
+
+    @Param({"256", "512"})
+    public int imageSize;
+
+    @Param({"64", "256"})
+    public int codebookSize;
+
+    private List<?> blocks;
+    private float[] flat;
+
+    @Setup
+    public void setup() throws Throwable {
+        Object red = Project.EXTRACT_COMPONENT.invoke(Fixtures.image(imageSize), 'R');
+        blocks = (List<?>) Project.GET_BLOCKS.invoke(red);
+        flat = (float[]) Project.FLATTEN.invoke(blocks);
+    }
+
+    @Benchmark
+    public Object kMeans() throws Throwable {
+        return Project.KMEANS_CLUSTER.invoke(blocks, codebookSize);
+    }
+
+    @Benchmark
+    public Object fastKMeans() throws Throwable {
+        return Project.FAST_KMEANS_CLUSTER.invoke(flat, DIM, codebookSize, PASSES, new Random(SEED));
+    }
+}
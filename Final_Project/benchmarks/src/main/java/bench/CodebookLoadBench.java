@@ -0,0 +1,48 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Loading a codebook: the text format, the binary .cb format, and the cached getCodebook
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodebookLoadBench {
+
+    // yCB.txt has 256 entries, uCB.txt 64
+    @Param({"yCB.txt", "uCB.txt"})
+    public String codebook;
+
+    private String textPath, binaryPath;
+
+    @Setup
+    public void setup() throws Throwable {
+        textPath = Fixtures.file("codebooks/" + codebook).getPath();
+        List<?> cb = (List<?>) Project.LOAD_CODEBOOK.invoke(textPath);
+        File binary = File.createTempFile("bench", ".cb");
+        binary.deleteOnExit();
+        binaryPath = binary.getPath();
+        Project.SAVE_BINARY_CODEBOOK.invoke(cb, binaryPath, 0); // CodebookIO.ELEMENT_FLOAT32
+    }
+
+    @Benchmark
+    public Object loadCodebook() throws Throwable {
+        return Project.LOAD_CODEBOOK.invoke(textPath);
+    }
+
+    @Benchmark
+    public Object loadBinaryCodebook() throws Throwable {
+        return Project.LOAD_BINARY_CODEBOOK.invoke(binaryPath);
+    }
+
+    @Benchmark
+    public Object getCodebook() throws Throwable {
+        return Project.GET_CODEBOOK.invoke(textPath);
+    }
+}
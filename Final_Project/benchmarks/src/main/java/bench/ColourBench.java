@@ -0,0 +1,50 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+// Colour conversion and chroma resampling of the YUV pipeline, per image
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColourBench {
+
+    @Param({"256", "512", "1024"})
+    public int imageSize;
+
+    private BufferedImage image;
+    private Object[] yuv;
+    private Object halfU;
+
+    @Setup
+    public void setup() throws Throwable {
+        image = Fixtures.image(imageSize);
+        yuv = (Object[]) Project.RGB_TO_YUV.invoke(image);
+        halfU = Project.SUB_SAMPLE.invoke(yuv[1]);
+    }
+
+    @Benchmark
+    public Object rgbToYuv() throws Throwable {
+        return Project.RGB_TO_YUV.invoke(image);
+    }
+
+    @Benchmark
+    public Object yuvToRgb() throws Throwable {
+        return Project.YUV_TO_RGB.invoke(yuv[0], yuv[1], yuv[2]);
+    }
+
+    @Benchmark
+    public Object subSample() throws Throwable {
+        return Project.SUB_SAMPLE.invoke(yuv[1]);
+    }
+
+    @Benchmark
+    public Object upsample() throws Throwable {
+        return Project.UPSAMPLE.invoke(halfU);
+    }
+}
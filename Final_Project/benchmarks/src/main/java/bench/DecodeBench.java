@@ -0,0 +1,41 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// YUV decode from index planes to an RGB image: the fused one-pass decoder against the staged
+// planes / upsample / convert path, from thumbnail to full-page sizes
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBench {
+
+    @Param({"64", "256", "1024"})
+    public int imageSize;
+
+    private List<double[]> yCB, uCB, vCB;
+    private Object idx;
+
+    @Setup
+    public void setup() throws Throwable {
+        yCB = Fixtures.codebook("yCB.txt", 256);
+        uCB = Fixtures.codebook("uCB.txt", 64);
+        vCB = Fixtures.codebook("vCB.txt", 64);
+        idx = Project.YUV_COMPRESS.invoke(Fixtures.image(imageSize), yCB, uCB, vCB);
+    }
+
+    @Benchmark
+    public Object fused() throws Throwable {
+        return Project.YUV_DECOMPRESS.invoke(idx, yCB, uCB, vCB);
+    }
+
+    @Benchmark
+    public Object staged() throws Throwable {
+        return Project.YUV_DECOMPRESS_STAGED.invoke(idx, yCB, uCB, vCB);
+    }
+}
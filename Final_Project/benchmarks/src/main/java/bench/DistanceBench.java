@@ -0,0 +1,78 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Nearest-codeword search per 2×2 block: CodebookIndex's pruned scalar search, the
+// exhaustive scalar DistanceKernel and the Vector API one (this fork enables the module)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@OperationsPerInvocation(DistanceBench.BLOCKS)
+public class DistanceBench {
+
+    static final int BLOCKS = 4096;
+
+    // uCB.txt has 64 entries, yCB.txt 256
+    @Param({"uCB.txt", "yCB.txt"})
+    public String codebook;
+
+    private Object index, scalar, vector;
+    private float[] scalarScratch, vectorScratch;
+    private double[][] blocks;
+    private float[] flat;
+
+    @Setup
+    public void setup() throws Throwable {
+        if (!(boolean) Project.KERNEL_VECTORIZED.invoke()) throw new IllegalStateException("Vector API not in use");
+        List<double[]> cb = Fixtures.codebook(codebook, codebook.equals("uCB.txt") ? 64 : 256);
+        double[] words = new double[cb.size() * 4];
+        for (int j = 0; j < cb.size(); j++) System.arraycopy(cb.get(j), 0, words, j * 4, 4);
+        index = Project.NEW_CODEBOOK_INDEX.invoke(cb);
+        scalar = Project.SCALAR_KERNEL.invoke(words, cb.size(), 4);
+        vector = Project.VECTOR_KERNEL.invoke(words, cb.size(), 4);
+        scalarScratch = (float[]) Project.KERNEL_SCRATCH.invoke(scalar);
+        vectorScratch = (float[]) Project.KERNEL_SCRATCH.invoke(vector);
+
+        // the first BLOCKS 2×2 blocks of the fixture's matching plane, x-major like the encoder
+        Object plane = ((Object[]) Project.RGB_TO_YUV.invoke(Fixtures.image(512)))[codebook.equals("uCB.txt") ? 1 : 0];
+        blocks = new double[BLOCKS][4];
+        flat = new float[BLOCKS * 4];
+        for (int b = 0; b < BLOCKS; b++) {
+            int bx = b % 256, by = b / 256;
+            for (int i = 0, v = 0; i < 2; i++) {
+                for (int j = 0; j < 2; j++, v++) {
+                    int s = (int) Project.PLANE_GET.invoke(plane, bx * 2 + i, by * 2 + j);
+                    blocks[b][v] = s;
+                    flat[b * 4 + v] = s;
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public int index() throws Throwable {
+        int sum = 0;
+        for (double[] block : blocks) sum += (int) Project.INDEX_NEAREST.invoke(index, block);
+        return sum;
+    }
+
+    @Benchmark
+    public int scalarKernel() throws Throwable {
+        int sum = 0;
+        for (int b = 0; b < BLOCKS; b++) sum += (int) Project.KERNEL_NEAREST.invoke(scalar, flat, b * 4, scalarScratch);
+        return sum;
+    }
+
+    @Benchmark
+    public int vectorKernel() throws Throwable {
+        int sum = 0;
+        for (int b = 0; b < BLOCKS; b++) sum += (int) Project.KERNEL_NEAREST.invoke(vector, flat, b * 4, vectorScratch);
+        return sum;
+    }
+}
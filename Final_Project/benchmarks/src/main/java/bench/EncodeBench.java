@@ -0,0 +1,54 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Latency of the YUV encoder on one large image as its bands of block rows are spread over more
+// threads; parallelism 1 is the serial encoder. compressStaged builds the Y, U and V planes
+// first, compress converts, sub-samples and searches in one pass (FusedYUVEncoder)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBench {
+
+    @Param({"1024", "2048"})
+    public int imageSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private List<double[]> yCB, uCB, vCB;
+    private BufferedImage image;
+    private Object block, encoder;
+
+    @Setup
+    public void setup() throws Throwable {
+        yCB = Fixtures.codebook("yCB.txt", 256);
+        uCB = Fixtures.codebook("uCB.txt", 64);
+        vCB = Fixtures.codebook("vCB.txt", 64);
+        image = Fixtures.image(imageSize);
+        block = Project.NEW_BLOCK_GEOMETRY.invoke(2, 2);
+        encoder = Project.NEW_PARALLEL_ENCODER.invoke(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws Throwable {
+        Project.ENCODER_CLOSE.invoke(encoder);
+    }
+
+    @Benchmark
+    public Object compress() throws Throwable {
+        return Project.YUV_COMPRESS_PARALLEL.invoke(image, block, yCB, uCB, vCB, encoder);
+    }
+
+    @Benchmark
+    public Object compressStaged() throws Throwable {
+        return Project.YUV_COMPRESS_STAGED.invoke(image, block, yCB, uCB, vCB, encoder);
+    }
+}
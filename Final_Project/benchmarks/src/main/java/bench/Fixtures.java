@@ -0,0 +1,49 @@
+package bench;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+// Inputs shared by the benchmarks, read from the project's test/ and codebooks/ folders.
+// The folder is -Dvq.root, else the working directory or its parent.
+final class Fixtures {
+
+    // largest of the test images, rescaled to each benchmarked size
+    static final String IMAGE = "test/Nature/nature1.jpg";
+
+    private Fixtures() {
+    }
+
+    static File file(String path) {
+        String root = System.getProperty("vq.root");
+        if (root != null) return new File(root, path);
+        File here = new File(path);
+        return here.exists() ? here : new File("..", path);
+    }
+
+    // The fixture image scaled to size×size, in the 3-byte BGR layout ImageIO gives for JPEG
+    static BufferedImage image(int size) throws IOException {
+        BufferedImage src = ImageIO.read(file(IMAGE));
+        if (src == null) throw new IOException("Cannot read " + IMAGE);
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(src, 0, 0, size, size, null);
+        g.dispose();
+        return img;
+    }
+
+    // The first entries of a trained codebook from codebooks/
+    @SuppressWarnings("unchecked")
+    static List<double[]> codebook(String name, int entries) throws Throwable {
+        List<double[]> cb = (List<double[]>) Project.LOAD_CODEBOOK.invoke(file("codebooks/" + name).getPath());
+        if (entries > cb.size()) {
+            throw new IllegalArgumentException(name + " has only " + cb.size() + " entries, not " + entries);
+        }
+        return List.copyOf(cb.subList(0, entries));
+    }
+}
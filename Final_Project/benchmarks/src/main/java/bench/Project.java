@@ -0,0 +1,130 @@
+package bench;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Random;
+
+// The project classes live in the default package, which a named package cannot import, and
+// JMH refuses benchmark classes in the default package. So the benchmarks call the project
+// through these handles, resolved once; static final handles are constants to the JIT and
+// inline like a direct call.
+final class Project {
+
+    static final Class<?> PLANE = type("Plane");
+    static final Class<?> PLANES = PLANE.arrayType();
+    static final MethodHandle PLANE_GET =
+            virtual(PLANE, "get", int.class, int.class, int.class);
+
+    static final MethodHandle KMEANS_CLUSTER =
+            find("KMeans", "cluster", List.class, List.class, int.class);
+    static final MethodHandle FAST_KMEANS_CLUSTER =
+            find("FastKMeans", "cluster", double[].class, float[].class, int.class, int.class, int.class, Random.class);
+    static final MethodHandle FLATTEN =
+            find("FastKMeans", "flatten", float[].class, List.class);
+
+    static final MethodHandle RGB_TO_YUV =
+            find("ImageUtilsYUV", "rgbToYuv", PLANES, BufferedImage.class);
+    static final MethodHandle YUV_TO_RGB =
+            find("ImageUtilsYUV", "yuvToRgb", BufferedImage.class, PLANE, PLANE, PLANE);
+    static final MethodHandle SUB_SAMPLE =
+            find("ImageUtilsYUV", "subSample", PLANE, PLANE);
+    static final MethodHandle UPSAMPLE =
+            find("ImageUtilsYUV", "upsample", PLANE, PLANE);
+    static final MethodHandle COMPRESS_CHANNEL =
+            find("ImageUtilsYUV", "compressChannel", PLANE, PLANE, List.class, int.class);
+    static final MethodHandle DECOMPRESS_CHANNEL =
+            find("ImageUtilsYUV", "decompressChannel", PLANE, PLANE, List.class, int.class);
+
+    static final MethodHandle YUV_COMPRESS =
+            find("YUVCompressor", "compress", PLANES, BufferedImage.class, List.class, List.class, List.class);
+    static final Class<?> BLOCK_GEOMETRY = type("BlockGeometry");
+    static final Class<?> PARALLEL_ENCODER = type("ParallelEncoder");
+    static final MethodHandle NEW_BLOCK_GEOMETRY =
+            constructor(BLOCK_GEOMETRY, int.class, int.class);
+    static final MethodHandle NEW_PARALLEL_ENCODER =
+            constructor(PARALLEL_ENCODER, int.class);
+    static final MethodHandle ENCODER_CLOSE =
+            virtual(PARALLEL_ENCODER, "close", void.class);
+    static final MethodHandle YUV_COMPRESS_PARALLEL =
+            find("YUVCompressor", "compress", PLANES, BufferedImage.class, BLOCK_GEOMETRY,
+                    List.class, List.class, List.class, PARALLEL_ENCODER);
+    static final MethodHandle YUV_COMPRESS_STAGED =
+            find("YUVCompressor", "compressStaged", PLANES, BufferedImage.class, BLOCK_GEOMETRY,
+                    List.class, List.class, List.class, PARALLEL_ENCODER);
+    static final MethodHandle YUV_DECOMPRESS =
+            find("YUVCompressor", "decompress", BufferedImage.class, PLANES, List.class, List.class, List.class);
+    static final MethodHandle YUV_DECOMPRESS_STAGED =
+            find("YUVCompressor", "decompressStaged", BufferedImage.class, PLANES, List.class, List.class, List.class);
+
+    static final MethodHandle EXTRACT_COMPONENT =
+            find("ImageUtilsQV", "extractComponent", PLANE, BufferedImage.class, char.class);
+    static final MethodHandle GET_BLOCKS =
+            find("ImageUtilsQV", "getBlocks", List.class, PLANE);
+    static final MethodHandle COMPRESS_COMPONENT =
+            find("ImageUtilsQV", "compressComponent", PLANE, PLANE, List.class);
+
+    static final Class<?> CODEBOOK_INDEX = type("CodebookIndex");
+    static final Class<?> DISTANCE_KERNEL = type("DistanceKernel");
+
+    static final MethodHandle NEW_CODEBOOK_INDEX =
+            constructor(CODEBOOK_INDEX, List.class);
+    static final MethodHandle INDEX_NEAREST =
+            virtual(CODEBOOK_INDEX, "nearest", int.class, double[].class);
+    static final MethodHandle VECTOR_KERNEL =
+            find("DistanceKernel", "of", DISTANCE_KERNEL, double[].class, int.class, int.class);
+    static final MethodHandle SCALAR_KERNEL =
+            find("DistanceKernel", "scalar", DISTANCE_KERNEL, double[].class, int.class, int.class);
+    static final MethodHandle KERNEL_VECTORIZED =
+            find("DistanceKernel", "vectorized", boolean.class);
+    static final MethodHandle KERNEL_SCRATCH =
+            virtual(DISTANCE_KERNEL, "scratch", float[].class);
+    static final MethodHandle KERNEL_NEAREST =
+            virtual(DISTANCE_KERNEL, "nearest", int.class, float[].class, int.class, float[].class);
+
+    static final MethodHandle LOAD_CODEBOOK =
+            find("CodebookIO", "loadCodebook", List.class, String.class);
+    static final MethodHandle LOAD_BINARY_CODEBOOK =
+            find("CodebookIO", "loadBinaryCodebook", List.class, String.class);
+    static final MethodHandle GET_CODEBOOK =
+            find("CodebookIO", "getCodebook", List.class, String.class);
+    static final MethodHandle SAVE_BINARY_CODEBOOK =
+            find("CodebookIO", "saveBinaryCodebook", void.class, List.class, String.class, int.class);
+
+    private Project() {
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle virtual(Class<?> owner, String name, Class<?> returns, Class<?>... params) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(owner, name, MethodType.methodType(returns, params));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... params) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(owner, MethodType.methodType(void.class, params));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle find(String owner, String name, Class<?> returns, Class<?>... params) {
+        try {
+            return MethodHandles.publicLookup().findStatic(type(owner), name, MethodType.methodType(returns, params));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
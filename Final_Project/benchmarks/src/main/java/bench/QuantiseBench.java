@@ -0,0 +1,54 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Codebook search and reconstruction, per image: the 2×2 Y path of the YUV pipeline and the
+// scalar red component of the RGB pipeline, with the first codebookSize trained entries
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantiseBench {
+
+    private static final int BLOCK_SIZE = 2;
+
+    @Param({"256", "512", "1024"})
+    public int imageSize;
+
+    @Param({"64", "256"})
+    public int codebookSize;
+
+    private List<double[]> yCB, redCB;
+    private Object y, yIdx, red;
+
+    @Setup
+    public void setup() throws Throwable {
+        BufferedImage image = Fixtures.image(imageSize);
+        yCB = Fixtures.codebook("yCB.txt", codebookSize);
+        redCB = Fixtures.codebook("redCB.txt", codebookSize);
+        y = ((Object[]) Project.RGB_TO_YUV.invoke(image))[0];
+        yIdx = Project.COMPRESS_CHANNEL.invoke(y, yCB, BLOCK_SIZE);
+        red = Project.EXTRACT_COMPONENT.invoke(image, 'R');
+    }
+
+    @Benchmark
+    public Object compressChannel() throws Throwable {
+        return Project.COMPRESS_CHANNEL.invoke(y, yCB, BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public Object decompressChannel() throws Throwable {
+        return Project.DECOMPRESS_CHANNEL.invoke(yIdx, yCB, BLOCK_SIZE);
+    }
+
+    @Benchmark
+    public Object compressComponent() throws Throwable {
+        return Project.COMPRESS_COMPONENT.invoke(red, redCB);
+    }
+}
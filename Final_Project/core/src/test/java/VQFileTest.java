@@ -0,0 +1,225 @@
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// .vq round trips for every IndexCoding, whole-image and striped, and corrupt bodies
+class VQFileTest {
+
+    private static final BlockGeometry BLOCK = BlockGeometry.DEFAULT;
+    private static final int[][] SIZES = {{1, 1}, {3, 5}, {37, 29}};
+
+    private static List<double[]> redCB, greenCB, blueCB, yCB, uCB, vCB;
+    private static EntropyModel model;
+
+    @TempDir
+    static Path dir;
+
+    @BeforeAll
+    static void codebooks() throws IOException {
+        Random rand = new Random(1);
+        redCB = codebook(rand, 16, 1);
+        greenCB = codebook(rand, 16, 1);
+        blueCB = codebook(rand, 16, 1);
+        yCB = codebook(rand, 32, BLOCK.dim());
+        uCB = codebook(rand, 8, BLOCK.dim());
+        vCB = codebook(rand, 8, BLOCK.dim());
+
+        // counts for HUFFMAN, skewed so the codes differ in length
+        Map<Character, List<double[]>> cbs = Map.of('R', redCB, 'G', greenCB, 'B', blueCB, 'Y', yCB, 'U', uCB, 'V', vCB);
+        for (Map.Entry<Character, List<double[]>> e : cbs.entrySet()) {
+            StringBuilder counts = new StringBuilder();
+            for (int i = 0; i < e.getValue().size(); i++) counts.append(i + 1).append(' ');
+            Files.writeString(dir.resolve(Character.toLowerCase(e.getKey()) + "CB" + EntropyModel.EXTENSION),
+                    String.format("# codebook %08x%n%s%n%s%n", VQFile.codebookId(e.getValue()), counts, counts));
+        }
+        model = EntropyModel.load(dir.toString(), cbs);
+    }
+
+    static Stream<Arguments> codingsAndSizes() {
+        List<Arguments> args = new ArrayList<>();
+        for (String coding : new String[]{"raw", "huffman", "rans"}) {
+            for (String dpcm : new String[]{"", "+dpcm"}) {
+                for (int[] size : SIZES) args.add(Arguments.of(IndexCoding.parse(coding + dpcm), size[0], size[1]));
+            }
+        }
+        return args.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("codingsAndSizes")
+    void rgbRoundTrip(IndexCoding coding, int width, int height) throws IOException {
+        BufferedImage img = image(width, height);
+        Plane[] idx = VQCompressor.compress(img, redCB, greenCB, blueCB);
+        for (boolean embed : new boolean[]{false, true}) {
+            byte[] vq = writeRGB(img, idx, embed, coding);
+            assertSamePixels(VQCompressor.decompress(idx, redCB, greenCB, blueCB), decode(vq));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("codingsAndSizes")
+    void yuvRoundTrip(IndexCoding coding, int width, int height) throws IOException {
+        BufferedImage img = image(width, height);
+        Plane[] idx = YUVCompressor.compress(img, BLOCK, yCB, uCB, vCB);
+        for (boolean embed : new boolean[]{false, true}) {
+            byte[] vq = writeYUV(img, idx, embed, coding);
+            assertSamePixels(YUVCompressor.decompress(idx, BLOCK, width, height, yCB, uCB, vCB), decode(vq));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("codingsAndSizes")
+    void stripedRoundTrip(IndexCoding coding, int width, int height) throws IOException {
+        BufferedImage img = image(width, height);
+        BufferedImage expected = YUVCompressor.decompress(YUVCompressor.compress(img, BLOCK, yCB, uCB, vCB),
+                BLOCK, width, height, yCB, uCB, vCB);
+        File imgFile = dir.resolve("in_" + width + "x" + height + ".png").toFile();
+        ImageIO.write(img, "png", imgFile);
+        List<List<double[]>> cbs = List.of(yCB, uCB, vCB);
+
+        for (int stripRows : new int[]{4, 8, (height + 3) / 4 * 4}) {
+            File vqFile = dir.resolve("striped_" + coding + "_" + stripRows + VQFile.EXTENSION).toFile();
+            StreamingYUVCodec.encode(imgFile, vqFile, BLOCK, yCB, uCB, vCB, stripRows, false, coding, model);
+            assertSamePixels(expected, VQFile.decode(vqFile, cbs));
+
+            File pngFile = dir.resolve("striped.png").toFile();
+            StreamingYUVCodec.decode(vqFile, pngFile, cbs);
+            assertSamePixels(expected, ImageIO.read(pngFile));
+
+            int strips = (height + stripRows - 1) / stripRows;
+            for (int s = 0; s < strips; s++) {
+                BufferedImage strip = StreamingYUVCodec.decodeStrip(vqFile, s, cbs);
+                assertSamePixels(expected.getSubimage(0, s * stripRows, width, strip.getHeight()), strip);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("codingsAndSizes")
+    void truncatedBodiesThrow(IndexCoding coding, int width, int height) throws IOException {
+        BufferedImage img = image(width, height);
+        byte[] rgb = writeRGB(img, VQCompressor.compress(img, redCB, greenCB, blueCB), true, coding);
+        byte[] yuv = writeYUV(img, YUVCompressor.compress(img, BLOCK, yCB, uCB, vCB), true, coding);
+        for (byte[] vq : List.of(rgb, yuv)) {
+            for (int n = 0; n < vq.length; n++) {
+                byte[] cut = Arrays.copyOf(vq, n);
+                assertThrows(IOException.class, () -> decode(cut), coding + " cut to " + n + " of " + vq.length + " bytes");
+            }
+        }
+    }
+
+    // any byte changed either still decodes or fails with an IOException, never anything else
+    @ParameterizedTest
+    @MethodSource("codingsAndSizes")
+    void mutatedBodiesThrowOnlyIOExceptions(IndexCoding coding, int width, int height) throws IOException {
+        BufferedImage img = image(width, height);
+        byte[] rgb = writeRGB(img, VQCompressor.compress(img, redCB, greenCB, blueCB), false, coding);
+        byte[] yuv = writeYUV(img, YUVCompressor.compress(img, BLOCK, yCB, uCB, vCB), true, coding);
+        for (byte[] vq : List.of(rgb, yuv)) {
+            for (int i = 0; i < vq.length; i++) {
+                for (int v : new int[]{0, 0xFF, vq[i] ^ 0x01, vq[i] ^ 0x80}) {
+                    byte[] bad = vq.clone();
+                    bad[i] = (byte) v;
+                    try {
+                        decode(bad);
+                    } catch (IOException e) {
+                        // expected for most bytes
+                    } catch (RuntimeException | OutOfMemoryError e) {
+                        fail(coding + " with byte " + i + " set to " + (v & 0xFF) + ": " + e, e);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void headerFieldsAreChecked() throws IOException {
+        BufferedImage img = image(3, 5);
+        byte[] vq = writeRGB(img, VQCompressor.compress(img, redCB, greenCB, blueCB), true, IndexCoding.NONE);
+        // magic, version, mode, and the first channel's entries, dim and bits after the 18-byte header
+        for (int i : new int[]{0, 4, 5, 18, 20, 21}) {
+            byte[] bad = vq.clone();
+            bad[i] = (byte) (i == 18 ? 0 : 0x7F);
+            if (i == 18) bad[19] = 0;
+            assertThrows(IOException.class, () -> decode(bad), "byte " + i);
+        }
+    }
+
+    @Test
+    void emptyCodewordsAreNotWritten() {
+        BufferedImage img = image(3, 5);
+        Plane[] idx = VQCompressor.compress(img, redCB, greenCB, blueCB);
+        List<double[]> empty = List.of(new double[0]);
+        assertThrows(IllegalArgumentException.class, () -> VQFile.writeRGB(Channels.newChannel(new ByteArrayOutputStream()),
+                3, 5, idx, empty, greenCB, blueCB, true, IndexCoding.NONE, null));
+    }
+
+    private static byte[] writeRGB(BufferedImage img, Plane[] idx, boolean embed, IndexCoding coding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VQFile.writeRGB(Channels.newChannel(out), img.getWidth(), img.getHeight(), idx, redCB, greenCB, blueCB,
+                embed, coding, model);
+        return out.toByteArray();
+    }
+
+    private static byte[] writeYUV(BufferedImage img, Plane[] idx, boolean embed, IndexCoding coding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        VQFile.writeYUV(Channels.newChannel(out), img.getWidth(), img.getHeight(), BLOCK, idx, yCB, uCB, vCB,
+                embed, coding, model);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] vq) throws IOException {
+        return VQFile.decode(Channels.newChannel(new ByteArrayInputStream(vq)), "test",
+                List.of(redCB, greenCB, blueCB), List.of(yCB, uCB, vCB), 1 << 20);
+    }
+
+    private static List<double[]> codebook(Random rand, int entries, int dim) {
+        List<double[]> cb = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            double[] vec = new double[dim];
+            for (int d = 0; d < dim; d++) vec[d] = rand.nextInt(256);
+            cb.add(vec);
+        }
+        return cb;
+    }
+
+    private static BufferedImage image(int width, int height) {
+        Random rand = new Random(width * 31L + height);
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) img.setRGB(x, y, rand.nextInt(1 << 24));
+        }
+        return img;
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(expected.getRGB(x, y) & 0xFFFFFF, actual.getRGB(x, y) & 0xFFFFFF, "pixel " + x + "," + y);
+            }
+        }
+    }
+}
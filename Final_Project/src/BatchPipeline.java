@@ -0,0 +1,218 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Runs every image of a test folder through the RGB and YUV encoders concurrently.
+// Each image is decoded once and shared by both encoders. File reads and writes run on
+// virtual threads, the VQ work on a fixed pool sized for the CPU, and a semaphore caps
+// how many decoded images can be alive at once.
+// The codebook search within an image gets the cores the pool leaves over, one thread each
+// when there are at least as many images in flight as cores.
+// Both .vq files are written with the same IndexCoding, HUFFMAN codes taken from the
+// EntropyModel trained with the codebooks.
+// Given Y/U/V trees (TreeCodebook), the YUV encoder descends them instead of searching the
+// whole codebooks, which are then the trees' leaves.
+// An image that cannot be read, encoded or written comes back as a failed ImageResult; the
+// rest of the batch carries on.
+public class BatchPipeline {
+
+    private final List<double[]> redCB, greenCB, blueCB;
+    private final List<double[]> yCB, uCB, vCB;
+    private final BlockGeometry block;
+    private final IndexCoding coding;
+    private final EntropyModel model;
+    private final TreeCodebook yTree, uTree, vTree;
+    private final int cpuThreads;
+    private final int maxInFlight;
+
+    public BatchPipeline(List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                         List<double[]> yCB, List<double[]> uCB, List<double[]> vCB) {
+        this(redCB, greenCB, blueCB, yCB, uCB, vCB, BlockGeometry.DEFAULT, IndexCoding.NONE, null);
+    }
+
+    // block is the geometry the Y/U/V codebooks were trained on; model may be null, HUFFMAN
+    // then builds each image's codes from its own indices
+    public BatchPipeline(List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                         List<double[]> yCB, List<double[]> uCB, List<double[]> vCB, BlockGeometry block,
+                         IndexCoding coding, EntropyModel model) {
+        this(redCB, greenCB, blueCB, yCB, uCB, vCB, block, coding, model, Runtime.getRuntime().availableProcessors(),
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchPipeline(List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                         List<double[]> yCB, List<double[]> uCB, List<double[]> vCB, BlockGeometry block,
+                         IndexCoding coding, EntropyModel model, int cpuThreads, int maxInFlight) {
+        this(redCB, greenCB, blueCB, yCB, uCB, vCB, null, null, null, block, coding, model, cpuThreads, maxInFlight);
+    }
+
+    // YUV encoded with trees
+    public BatchPipeline(List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                         TreeCodebook yTree, TreeCodebook uTree, TreeCodebook vTree, BlockGeometry block,
+                         IndexCoding coding, EntropyModel model) {
+        this(redCB, greenCB, blueCB, yTree.codebook(), uTree.codebook(), vTree.codebook(), yTree, uTree, vTree,
+                block, coding, model, Runtime.getRuntime().availableProcessors(),
+                2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    private BatchPipeline(List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                          List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                          TreeCodebook yTree, TreeCodebook uTree, TreeCodebook vTree, BlockGeometry block,
+                          IndexCoding coding, EntropyModel model, int cpuThreads, int maxInFlight) {
+        this.redCB = redCB;
+        this.greenCB = greenCB;
+        this.blueCB = blueCB;
+        this.yCB = yCB;
+        this.uCB = uCB;
+        this.vCB = vCB;
+        this.yTree = yTree;
+        this.uTree = uTree;
+        this.vTree = vTree;
+        this.block = block;
+        this.coding = coding;
+        this.model = model;
+        this.cpuThreads = cpuThreads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    // Results come back in folder order, one per file
+    public List<ImageResult> run(File testDir) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        List<Future<ImageResult>> futures = new ArrayList<>();
+        List<String[]> names = new ArrayList<>();   // category and file name of each future
+
+        ExecutorService cpu = Executors.newFixedThreadPool(cpuThreads);
+        ParallelEncoder encoder = new ParallelEncoder(Math.max(1, Runtime.getRuntime().availableProcessors() / cpuThreads));
+        try (ExecutorService io = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (File category : listFiles(testDir)) {
+                if (!category.isDirectory()) continue;
+                for (File imgFile : listFiles(category)) {
+                    inFlight.acquire(); // back-pressure: wait until an earlier image is done
+                    names.add(new String[]{category.getName(), imgFile.getName()});
+                    futures.add(io.submit(() -> {
+                        try {
+                            return process(category.getName(), imgFile, cpu, encoder);
+                        } catch (Exception e) {
+                            return failed(category.getName(), imgFile.getName(), e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    }));
+                }
+            }
+        } finally {
+            cpu.shutdown();
+            encoder.close();
+        }
+
+        List<ImageResult> results = new ArrayList<>(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                results.add(failed(names.get(i)[0], names.get(i)[1], e.getCause()));
+            }
+        }
+        return results;
+    }
+
+    private ImageResult process(String category, File imgFile, ExecutorService cpu,
+                                ParallelEncoder encoder) throws Exception {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        String name = imgFile.getName();
+        long t0 = System.nanoTime();
+        BufferedImage img;
+        MetricsRegistry.Span read = metrics.timer("io.read").start().bytes(imgFile.length());
+        try {
+            img = ImageIO.read(imgFile);
+        } finally {
+            read.close();
+        }
+        long readNanos = System.nanoTime() - t0;
+        if (img == null) {
+            metrics.counter("images.failed").increment();
+            return ImageResult.failed(category, name, "cannot read image");
+        }
+
+        Encoded enc;
+        try {
+            enc = cpu.submit(() -> encode(img, encoder)).get();
+        } catch (ExecutionException e) {
+            return failed(category, name, e.getCause());
+        }
+
+        String base = name.replaceAll("\\.[^.]+$", "");
+        long rgbBytes, yuvBytes;
+        try (MetricsRegistry.Span s = metrics.timer("io.write_vq").start()) {
+            rgbBytes = VQFile.writeRGB(new File("output/vq", base + "_rgb" + VQFile.EXTENSION),
+                    img.getWidth(), img.getHeight(), enc.rgbIdx, redCB, greenCB, blueCB, false, coding, model);
+            yuvBytes = VQFile.writeYUV(new File("output/vq", base + "_yuv" + VQFile.EXTENSION),
+                    img.getWidth(), img.getHeight(), block, enc.yuvIdx, yCB, uCB, vCB, false, coding, model);
+            s.bytes(rgbBytes + yuvBytes);
+        }
+        writeImage(enc.rgbOut, "png", new File("output/decoded_rgb", base + ".png"));
+        writeImage(enc.yuvOut, "jpg", new File("output/yuv_decoded", base + ".jpg"));
+        metrics.counter("images").increment();
+
+        return new ImageResult(category, name, img.getWidth(), img.getHeight(), enc.rgbQuality, enc.yuvQuality,
+                rgbBytes, yuvBytes, readNanos, enc.rgbEncodeNanos, enc.rgbDecodeNanos,
+                enc.yuvEncodeNanos, enc.yuvDecodeNanos, null);
+    }
+
+    // CPU stage: both encoders and decoders on the shared decoded image, each decode measured
+    // against it as it goes (decode times include the measuring)
+    private Encoded encode(BufferedImage img, ParallelEncoder encoder) {
+        Encoded e = new Encoded();
+        long t0 = System.nanoTime();
+        e.rgbIdx = VQCompressor.compress(img, redCB, greenCB, blueCB, encoder);
+        long t1 = System.nanoTime();
+        QualityMeter rgbMeter = new QualityMeter(img);
+        e.rgbOut = VQCompressor.decompress(e.rgbIdx, redCB, greenCB, blueCB, rgbMeter);
+        long t2 = System.nanoTime();
+        e.rgbQuality = rgbMeter.quality();
+
+        long t3 = System.nanoTime();
+        e.yuvIdx = yTree != null
+                ? YUVCompressor.compress(img, block, yTree, uTree, vTree, encoder)
+                : YUVCompressor.compress(img, block, yCB, uCB, vCB, encoder);
+        long t4 = System.nanoTime();
+        QualityMeter yuvMeter = new QualityMeter(img);
+        e.yuvOut = YUVCompressor.decompress(e.yuvIdx, block, img.getWidth(), img.getHeight(), yCB, uCB, vCB, yuvMeter);
+        long t5 = System.nanoTime();
+        e.yuvQuality = yuvMeter.quality();
+
+        e.rgbEncodeNanos = t1 - t0;
+        e.rgbDecodeNanos = t2 - t1;
+        e.yuvEncodeNanos = t4 - t3;
+        e.yuvDecodeNanos = t5 - t4;
+        return e;
+    }
+
+    private static ImageResult failed(String category, String name, Throwable cause) {
+        MetricsRegistry.global().counter("images.failed").increment();
+        return ImageResult.failed(category, name, cause.toString());
+    }
+
+    private static void writeImage(BufferedImage img, String format, File outFile) throws Exception {
+        File dir = outFile.getParentFile();
+        if (!dir.exists()) dir.mkdirs();
+        try (MetricsRegistry.Span s = MetricsRegistry.global().timer("io.write_" + format).start()) {
+            ImageIO.write(img, format, outFile);
+            s.bytes(outFile.length());
+        }
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private static class Encoded {
+        Plane[] rgbIdx, yuvIdx;
+        BufferedImage rgbOut, yuvOut;
+        QualityMeter.Quality rgbQuality, yuvQuality;
+        long rgbEncodeNanos, rgbDecodeNanos, yuvEncodeNanos, yuvDecodeNanos;
+    }
+}
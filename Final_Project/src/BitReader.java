@@ -0,0 +1,125 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+
+// Counterpart of BitWriter: reads bit-packed values and little-endian header fields
+// from a channel, refilling one fixed-size buffer as it goes. seek() jumps to a byte offset,
+// backwards only on a SeekableByteChannel (a file), forwards on any channel.
+public class BitReader implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long acc;
+    private int accBits;
+    private long filled;    // bytes taken from the channel so far, counted from where it started
+
+    public BitReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    public int readBits(int bits) throws IOException {
+        while (accBits < bits) {
+            acc = (acc << 8) | (get() & 0xFF);
+            accBits += 8;
+        }
+        accBits -= bits;
+        return (int) ((acc >>> accBits) & ((1L << bits) - 1));
+    }
+
+    // drop the padding bits of the current byte
+    public void alignToByte() {
+        accBits = 0;
+    }
+
+    public int readByte() throws IOException {
+        alignToByte();
+        return get() & 0xFF;
+    }
+
+    public int readShort() throws IOException {
+        alignToByte();
+        ensure(2);
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    public int readInt() throws IOException {
+        alignToByte();
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        alignToByte();
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    public double readDouble() throws IOException {
+        alignToByte();
+        ensure(8);
+        return buffer.getDouble();
+    }
+
+    public void readBytes(byte[] bytes, int off, int len) throws IOException {
+        alignToByte();
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    // Offset of the next whole byte, from where the channel started
+    public long position() {
+        return filled - buffer.remaining();
+    }
+
+    // Continue reading at byte offset position, dropping any bits left of the current byte
+    public void seek(long position) throws IOException {
+        alignToByte();
+        long skip = position - position();
+        if (skip >= 0 && skip <= buffer.remaining()) {
+            buffer.position(buffer.position() + (int) skip);
+        } else if (channel instanceof SeekableByteChannel seekable) {
+            seekable.position(seekable.position() + position - filled);
+            filled = position;
+            buffer.clear().flip();
+        } else if (skip > 0) {
+            while (position() < position) {
+                ensure(1);
+                buffer.position(buffer.position() + (int) Math.min(buffer.remaining(), position - position()));
+            }
+        } else {
+            throw new IOException("Cannot seek back to byte " + position + " of a stream");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private byte get() throws IOException {
+        ensure(1);
+        return buffer.get();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) return;
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            int n = channel.read(buffer);
+            if (n < 0) throw new EOFException("Truncated .vq stream");
+            filled += n;
+        }
+        buffer.flip();
+    }
+}
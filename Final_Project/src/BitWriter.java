@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+// Writes bit-packed values (MSB first) and little-endian header fields to a channel
+// through one fixed-size buffer, so the output never has to be held in memory.
+public class BitWriter implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long acc;
+    private int accBits;
+    private long bytesWritten;
+
+    public BitWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    public void writeBits(int value, int bits) throws IOException {
+        acc = (acc << bits) | (value & ((1L << bits) - 1));
+        accBits += bits;
+        while (accBits >= 8) {
+            accBits -= 8;
+            put((byte) (acc >>> accBits));
+        }
+    }
+
+    // pad the current byte with zero bits
+    public void alignToByte() throws IOException {
+        if (accBits > 0) writeBits(0, 8 - accBits);
+    }
+
+    public void writeByte(int v) throws IOException {
+        alignToByte();
+        put((byte) v);
+    }
+
+    public void writeShort(int v) throws IOException {
+        alignToByte();
+        ensure(2);
+        buffer.putShort((short) v);
+        bytesWritten += 2;
+    }
+
+    public void writeInt(int v) throws IOException {
+        alignToByte();
+        ensure(4);
+        buffer.putInt(v);
+        bytesWritten += 4;
+    }
+
+    public void writeLong(long v) throws IOException {
+        alignToByte();
+        ensure(8);
+        buffer.putLong(v);
+        bytesWritten += 8;
+    }
+
+    public void writeDouble(double v) throws IOException {
+        alignToByte();
+        ensure(8);
+        buffer.putDouble(v);
+        bytesWritten += 8;
+    }
+
+    public void writeBytes(byte[] bytes, int off, int len) throws IOException {
+        alignToByte();
+        while (len > 0) {
+            ensure(1);
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(bytes, off, n);
+            off += n;
+            len -= n;
+            bytesWritten += n;
+        }
+    }
+
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        alignToByte();
+        flush();
+    }
+
+    private void put(byte b) throws IOException {
+        ensure(1);
+        buffer.put(b);
+        bytesWritten++;
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+}
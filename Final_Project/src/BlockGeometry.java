@@ -0,0 +1,63 @@
+// Size in pixels of the blocks a channel is cut into, one codebook vector per block.
+// Components are x-major: the sample at offset (i, j) inside the block is component
+// i * height + j, the order the 2×2 codebooks have always been trained in.
+// A plane whose size is not a multiple of the block gets its last column and row repeated
+// out to the next block edge, so every pixel is encoded; the decoder crops the padding off.
+public record BlockGeometry(int width, int height) {
+
+    public static final BlockGeometry DEFAULT = new BlockGeometry(2, 2);
+
+    // .vq and .cb headers store the sides and the codeword length in a byte each
+    private static final int MAX_DIM = 255;
+
+    public BlockGeometry {
+        if (width < 1 || height < 1 || width * height > MAX_DIM) {
+            throw new IllegalArgumentException("Invalid block size " + width + "x" + height);
+        }
+    }
+
+    public static BlockGeometry square(int size) {
+        return new BlockGeometry(size, size);
+    }
+
+    // "4x2" (width x height), or "4" for a square block
+    public static BlockGeometry parse(String spec) {
+        String[] parts = spec.trim().toLowerCase().split("[x×]");
+        try {
+            if (parts.length == 1) return square(Integer.parseInt(parts[0]));
+            if (parts.length == 2) return new BlockGeometry(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Block size must look like 4x4 or 4x2: " + spec);
+    }
+
+    // For codebooks saved without their geometry: square when dim is a perfect square
+    public static BlockGeometry forDim(int dim) {
+        int side = (int) Math.round(Math.sqrt(dim));
+        if (side * side != dim) {
+            throw new IllegalArgumentException("Cannot tell the block shape of " + dim + "-value codewords");
+        }
+        return square(side);
+    }
+
+    // values per block, the codeword length
+    public int dim() {
+        return width * height;
+    }
+
+    // blocks across a plane planeWidth samples wide, the last one padded
+    public int cols(int planeWidth) {
+        return (planeWidth + width - 1) / width;
+    }
+
+    // blocks down a plane planeHeight samples high, the last one padded
+    public int rows(int planeHeight) {
+        return (planeHeight + height - 1) / height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// What a codebook was trained on, per codeword: how many training blocks it absorbed and their
+// sum, the codeword being their mean. That is all CodebookTrainer.refine needs to fold new
+// blocks in as if they had been part of the training set, without revisiting the old ones.
+// Saved next to the codebook as <c>CB.stats, one line per codeword: the count, then the sums.
+// A codeword nothing was assigned to has a zero count and takes its value from the codebook.
+public final class CentroidStats {
+
+    public static final String EXTENSION = ".stats";
+
+    private final int dim;
+    private final double[] centroids;   // flat, k × dim
+    private final long[] counts;
+
+    public CentroidStats(double[] centroids, long[] counts, int dim) {
+        if (centroids.length != counts.length * dim) {
+            throw new IllegalArgumentException(counts.length + " counts for " + centroids.length / dim + " codewords");
+        }
+        this.dim = dim;
+        this.centroids = centroids;
+        this.counts = counts;
+    }
+
+    // Counts and sums of n blocks (flat, the codebook's dim values each) assigned to their
+    // nearest codeword; the codewords themselves are kept as they are
+    public static CentroidStats assign(List<double[]> codebook, float[] data, int n) {
+        int k = codebook.size(), dim = codebook.get(0).length;
+        double[] flat = new double[k * dim];
+        for (int j = 0; j < k; j++) System.arraycopy(codebook.get(j), 0, flat, j * dim, dim);
+        long[] counts = new long[k];
+        DistanceKernel kernel = DistanceKernel.of(flat, k, dim);
+        float[] scratch = kernel.scratch();
+        for (int i = 0; i < n; i++) counts[kernel.nearest(data, i * dim, scratch)]++;
+        return new CentroidStats(flat, counts, dim);
+    }
+
+    public int size() {
+        return counts.length;
+    }
+
+    public int dim() {
+        return dim;
+    }
+
+    // Flat codewords, codeword j at [j*dim .. j*dim+dim)
+    public double[] centroids() {
+        return centroids.clone();
+    }
+
+    public long[] counts() {
+        return counts.clone();
+    }
+
+    // blocks absorbed by every codeword together
+    public long total() {
+        long n = 0;
+        for (long c : counts) n += c;
+        return n;
+    }
+
+    public List<double[]> codebook() {
+        return FastKMeans.toList(centroids, dim);
+    }
+
+    // Written like the codebooks, to a temporary file that then replaces filename
+    public void save(String filename) throws IOException {
+        CodebookIO.writeText(filename, writer -> {
+            for (int j = 0; j < counts.length; j++) {
+                StringBuilder sb = new StringBuilder().append(counts[j]);
+                for (int d = 0; d < dim; d++) sb.append(' ').append(counts[j] * centroids[j * dim + d]);
+                writer.write(sb.toString());
+                writer.newLine();
+            }
+        });
+    }
+
+    // The statistics saved for codebook, which must have as many codewords of as many values
+    public static CentroidStats load(String filename, List<double[]> codebook) throws IOException {
+        int dim = codebook.get(0).length;
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (!line.isBlank()) lines.add(line.trim());
+            }
+        }
+        if (lines.size() != codebook.size()) {
+            throw new IOException(lines.size() + " codewords in " + filename + ", " + codebook.size() + " in its codebook");
+        }
+        double[] centroids = new double[codebook.size() * dim];
+        long[] counts = new long[codebook.size()];
+        for (int j = 0; j < counts.length; j++) {
+            String[] parts = lines.get(j).split("\\s+");
+            if (parts.length != dim + 1) throw new IOException("Expected a count and " + dim + " sums: " + filename);
+            counts[j] = Long.parseLong(parts[0]);
+            for (int d = 0; d < dim; d++) {
+                centroids[j * dim + d] = counts[j] > 0 ? Double.parseDouble(parts[d + 1]) / counts[j] : codebook.get(j)[d];
+            }
+        }
+        return new CentroidStats(centroids, counts, dim);
+    }
+
+    public static String fileName(String dir, char channel) {
+        return new File(dir, Character.toLowerCase(channel) + "CB" + EXTENSION).getPath();
+    }
+}
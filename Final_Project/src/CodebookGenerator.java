@@ -6,6 +6,17 @@ import java.util.List;
 
 public class CodebookGenerator {
     public static List<double[]> generate(String dir, char comp) throws Exception {
+        return generate(dir, comp, true);
+    }
+
+    // fastKMeans selects FastKMeans, otherwise the original KMeans.cluster is used
+    public static List<double[]> generate(String dir, char comp, boolean fastKMeans) throws Exception {
+        List<double[]> vecs = collectBlocks(dir, comp);
+        // Cluster into 256 code vectors
+        return fastKMeans ? FastKMeans.cluster(vecs, 256) : KMeans.cluster(vecs, 256);
+    }
+
+    public static List<double[]> collectBlocks(String dir, char comp) throws Exception {
         List<double[]> vecs = new ArrayList<>();
         for (File category : new File(dir).listFiles()) {
             if (!category.isDirectory()) continue;
@@ -19,6 +30,6 @@ public class CodebookGenerator {
                 vecs.addAll(ImageUtilsQV.getBlocks(ImageUtilsQV.extractComponent(bi, comp)));
             }
         }
-        return KMeans.cluster(vecs, 256); // Cluster into 256 code vectors
+        return vecs;
     }
 }
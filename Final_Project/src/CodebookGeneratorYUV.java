@@ -6,10 +6,30 @@ import javax.imageio.ImageIO;
 
 public class CodebookGeneratorYUV {
 
-    private static final int BLOCK_SIZE = 2;
+    public static List<double[]> generate(String trainingDir,char channel,int codebookSize) throws IOException {
+        return generate(trainingDir, channel, codebookSize, true);
+    }
 
+    // fastKMeans selects FastKMeans, otherwise the original KMeans.cluster is used
+    public static List<double[]> generate(String trainingDir, char channel, int codebookSize,
+                                          boolean fastKMeans) throws IOException {
+        return generate(trainingDir, channel, codebookSize, BlockGeometry.DEFAULT, fastKMeans);
+    }
 
-    public static List<double[]> generate(String trainingDir,char channel,int codebookSize) throws IOException {
+    public static List<double[]> generate(String trainingDir, char channel, int codebookSize,
+                                          BlockGeometry block, boolean fastKMeans) throws IOException {
+        List<double[]> allBlocks = collectBlocks(trainingDir, channel, block);
+        // get the codebook
+        return fastKMeans ? FastKMeans.cluster(allBlocks, codebookSize)
+                          : KMeans.cluster(allBlocks, codebookSize);
+    }
+
+    public static List<double[]> collectBlocks(String trainingDir, char channel) throws IOException {
+        return collectBlocks(trainingDir, channel, BlockGeometry.DEFAULT);
+    }
+
+    public static List<double[]> collectBlocks(String trainingDir, char channel, BlockGeometry block)
+            throws IOException {
 
         List<double[]> allBlocks = new ArrayList<>();
 
@@ -35,8 +55,8 @@ public class CodebookGeneratorYUV {
                     if (img == null) continue;
 
                     // Convert image to YUV
-                    int[][][] yuv = ImageUtilsYUV.rgbToYuv(img);
-                    int[][] channelData;
+                    Plane[] yuv = ImageUtilsYUV.rgbToYuv(img);
+                    Plane channelData;
                     switch (channel) {
                         case 'Y':
                             channelData = yuv[0];
@@ -51,25 +71,11 @@ public class CodebookGeneratorYUV {
                             throw new IllegalArgumentException("Unsupported channel: " + channel);
                     }
 
-                    // Extract 2×2 non-overlapping blocks from the channel
-                    int w = channelData.length - (channelData.length % BLOCK_SIZE);
-                    int h = channelData[0].length - (channelData[0].length % BLOCK_SIZE);
-                    for (int x = 0; x < w; x += BLOCK_SIZE) {
-                        for (int y = 0; y < h; y += BLOCK_SIZE) {
-                            double[] block = new double[BLOCK_SIZE * BLOCK_SIZE];
-                            int idx = 0;
-                            for (int i = 0; i < BLOCK_SIZE; i++) {
-                                for (int j = 0; j < BLOCK_SIZE; j++) {
-                                    block[idx++] = channelData[x + i][y + j];
-                                }
-                            }
-                            allBlocks.add(block);
-                        }
-                    }
+                    // Extract the non-overlapping blocks the encoder will quantise
+                    allBlocks.addAll(ImageUtilsYUV.getBlocks(channelData, block));
                 }
             }
         }
-        // get the codebook
-        return KMeans.cluster(allBlocks, codebookSize);
+        return allBlocks;
     }
 }
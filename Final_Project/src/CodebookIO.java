@@ -1,15 +1,67 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
 
 public class CodebookIO {
 
+    // Binary codebook (.cb), little-endian:
+    //   magic "VQCB", version, element type, block width and height (0 when not recorded), dim,
+    //   entries, CRC32 of the data, then entries × dim elements, float32, uint8 or float64
+    //   (float64 keeps the values exactly, so the codebook has the same VQFile id as its text file)
+    // Text codebooks may start with a "# block 4x4" line recording the block geometry.
+    // Tree codebooks (.tsvq, see TreeCodebook) share the header layout, with magic "VQTS" and
+    // the tree depth in place of the entry count, followed by every node in heap order, float32.
+    // All of them are written to a temporary file, forced to disk, that then replaces the old
+    // one, so neither a reader nor a crash mid-write or just after ever leaves half a codebook.
+    public static final String BINARY_EXTENSION = ".cb";
+    public static final int ELEMENT_FLOAT32 = 0;
+    public static final int ELEMENT_UINT8 = 1;
+    public static final int ELEMENT_FLOAT64 = 2;
+    public static final String TREE_EXTENSION = ".tsvq";
+
+    private static final int MAGIC = 0x42435156; // "VQCB"
+    private static final int TREE_MAGIC = 0x53545156; // "VQTS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final String BLOCK_LINE = "# block ";
+
+    private record Cached(long lastModified, List<double[]> codebook) {}
+
+    private static final Map<String, Cached> CACHE = new ConcurrentHashMap<>();
+
+    private static final Map<Character, String> TEXT_NAMES = Map.of('R', "redCB.txt", 'G', "greenCB.txt",
+            'B', "blueCB.txt", 'Y', "yCB.txt", 'U', "uCB.txt", 'V', "vCB.txt");
+
 
      //Save a list of codebook vectors to a text file.
      // Each vector is written on its own line, values separated by spaces.
 
     public static void saveCodebook(List<double[]> codebook, String filename) throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filename))) {
+        saveCodebook(codebook, filename, null);
+    }
+
+    // As above, recording the block geometry the codebook was trained on when it is given
+    public static void saveCodebook(List<double[]> codebook, String filename, BlockGeometry block) throws IOException {
+        checkGeometry(codebook, block, filename);
+        writeText(filename, writer -> {
+            if (block != null) {
+                writer.write(BLOCK_LINE + block);
+                writer.newLine();
+            }
             for (double[] vector : codebook) {
                 StringBuilder sb = new StringBuilder();
                 for (double value : vector) {
@@ -18,7 +70,7 @@ public class CodebookIO {
                 writer.write(sb.toString().trim());
                 writer.newLine();
             }
-        }
+        });
     }
 
 
@@ -30,6 +82,7 @@ public class CodebookIO {
             List<double[]> codebook = new ArrayList<>();
             String line;
             while ((line = reader.readLine()) != null) {
+                if (line.startsWith("#")) continue;
                 String[] values = line.trim().split("\\s+");
                 double[] vector = new double[values.length];
                 for (int i = 0; i < values.length; i++) {
@@ -42,18 +95,321 @@ public class CodebookIO {
     }
 
 
+    //Save a codebook in the binary format, UINT8 rounds every value and needs them all in 0..255
+    public static void saveBinaryCodebook(List<double[]> codebook, String filename, int elementType) throws IOException {
+        saveBinaryCodebook(codebook, filename, elementType, null);
+    }
+
+    public static void saveBinaryCodebook(List<double[]> codebook, String filename, int elementType,
+                                          BlockGeometry block) throws IOException {
+        checkGeometry(codebook, block, filename);
+        int dim = codebook.get(0).length;
+        int elementSize = elementSize(elementType);
+        if (elementSize < 0) throw new IllegalArgumentException("Unknown element type " + elementType + ": " + filename);
+        ByteBuffer data = ByteBuffer.allocate(codebook.size() * dim * elementSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (double[] vector : codebook) {
+            for (double value : vector) {
+                if (elementType == ELEMENT_FLOAT32) {
+                    data.putFloat((float) value);
+                } else if (elementType == ELEMENT_FLOAT64) {
+                    data.putDouble(value);
+                } else {
+                    long v = Math.round(value);
+                    if (v < 0 || v > 255) {
+                        throw new IllegalArgumentException("Value " + value + " does not fit in uint8: " + filename);
+                    }
+                    data.put((byte) v);
+                }
+            }
+        }
+        data.flip();
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).put((byte) VERSION).put((byte) elementType)
+                .put((byte) (block != null ? block.width() : 0)).put((byte) (block != null ? block.height() : 0))
+                .putInt(dim).putInt(codebook.size()).putInt((int) crc.getValue());
+        header.flip();
+
+        writeAtomically(filename, out -> write(out.getChannel(), header, data));
+    }
+
+    private static void write(FileChannel ch, ByteBuffer header, ByteBuffer data) throws IOException {
+        while (header.hasRemaining()) ch.write(header);
+        while (data.hasRemaining()) ch.write(data);
+    }
+
+    interface FileBody {
+        void write(FileOutputStream out) throws IOException;
+    }
+
+    interface TextBody {
+        void write(BufferedWriter writer) throws IOException;
+    }
+
+    // Writes filename through body into a temporary file beside it, forces that to disk and
+    // only then renames it over filename; on failure the temporary file is removed
+    static void writeAtomically(String filename, FileBody body) throws IOException {
+        File tmp = tempFile(filename);
+        try {
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                body.write(out);
+                out.getChannel().force(true);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+        replace(tmp, filename);
+    }
+
+    // The same for a text file, the lines flushed before they are forced to disk
+    static void writeText(String filename, TextBody body) throws IOException {
+        writeAtomically(filename, out -> {
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out));
+            body.write(writer);
+            writer.flush();
+        });
+    }
+
+    // A new, uniquely named file to write the next version of filename to before replace() puts
+    // it in place: same folder, so the rename never crosses file systems, and never the file
+    // of another writer saving filename at the same time
+    static File tempFile(String filename) throws IOException {
+        Path target = new File(filename).getAbsoluteFile().toPath();
+        Path tmp = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", ".tmp");
+        // created owner-only; the codebooks keep the permissions they had, rw-r--r-- when new
+        if (Files.getFileStore(tmp).supportsFileAttributeView(PosixFileAttributeView.class)) {
+            Files.setPosixFilePermissions(tmp, Files.exists(target) ? Files.getPosixFilePermissions(target)
+                    : PosixFilePermissions.fromString("rw-r--r--"));
+        }
+        return tmp.toFile();
+    }
+
+    // Atomically swaps the finished temporary file in for filename
+    static void replace(File tmp, String filename) throws IOException {
+        Path target = new File(filename).toPath();
+        try {
+            Files.move(tmp.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp.toPath());
+            throw e;
+        }
+    }
+
+
+    //Load a binary codebook through a memory-mapped buffer, checking the header and checksum
+    public static List<double[]> loadBinaryCodebook(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.remaining() < HEADER_SIZE || map.getInt() != MAGIC) {
+                throw new IOException("Not a binary codebook: " + filename);
+            }
+            int version = map.get();
+            if (version != VERSION) throw new IOException("Unsupported codebook version " + version + ": " + filename);
+            int elementType = map.get();
+            map.getShort(); // block geometry, see loadGeometry
+            int dim = map.getInt();
+            int entries = map.getInt();
+            int checksum = map.getInt();
+
+            int elementSize = elementSize(elementType);
+            if (elementSize < 0) throw new IOException("Unknown element type " + elementType + ": " + filename);
+            if (dim < 1 || entries < 1 || map.remaining() != (long) entries * dim * elementSize) {
+                throw new IOException("Codebook size does not match its header: " + filename);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(map.duplicate());
+            if ((int) crc.getValue() != checksum) throw new IOException("Codebook checksum mismatch: " + filename);
+
+            List<double[]> codebook = new ArrayList<>(entries);
+            for (int i = 0; i < entries; i++) {
+                double[] vector = new double[dim];
+                for (int d = 0; d < dim; d++) {
+                    vector[d] = switch (elementType) {
+                        case ELEMENT_FLOAT32 -> map.getFloat();
+                        case ELEMENT_FLOAT64 -> map.getDouble();
+                        default -> map.get() & 0xFF;
+                    };
+                }
+                codebook.add(vector);
+            }
+            return codebook;
+        }
+    }
+
+
+    //Save a tree codebook, node centroids as float32
+    public static void saveTreeCodebook(TreeCodebook tree, String filename, BlockGeometry block) throws IOException {
+        if (block != null && tree.dim() != block.dim()) {
+            throw new IllegalArgumentException(tree.dim() + "-value codewords for " + block + " blocks: " + filename);
+        }
+        double[] nodes = tree.nodes();
+        ByteBuffer data = ByteBuffer.allocate(nodes.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : nodes) data.putFloat((float) v);
+        data.flip();
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(TREE_MAGIC).put((byte) VERSION).put((byte) ELEMENT_FLOAT32)
+                .put((byte) (block != null ? block.width() : 0)).put((byte) (block != null ? block.height() : 0))
+                .putInt(tree.dim()).putInt(tree.depth()).putInt((int) crc.getValue());
+        header.flip();
+
+        writeAtomically(filename, out -> write(out.getChannel(), header, data));
+    }
+
+
+    //Load a tree codebook, checking the header and checksum
+    public static TreeCodebook loadTreeCodebook(String filename) throws IOException {
+        try (FileChannel ch = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.remaining() < HEADER_SIZE || map.getInt() != TREE_MAGIC) {
+                throw new IOException("Not a tree codebook: " + filename);
+            }
+            int version = map.get();
+            if (version != VERSION) throw new IOException("Unsupported codebook version " + version + ": " + filename);
+            if (map.get() != ELEMENT_FLOAT32) throw new IOException("Tree codebooks are float32: " + filename);
+            map.getShort(); // block geometry, see loadGeometry
+            int dim = map.getInt();
+            int depth = map.getInt();
+            int checksum = map.getInt();
+
+            if (depth < 1 || depth > TreeCodebook.MAX_DEPTH || map.remaining() != (long) ((2 << depth) - 1) * dim * 4) {
+                throw new IOException("Codebook size does not match its header: " + filename);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(map.duplicate());
+            if ((int) crc.getValue() != checksum) throw new IOException("Codebook checksum mismatch: " + filename);
+
+            double[] nodes = new double[((2 << depth) - 1) * dim];
+            for (int i = 0; i < nodes.length; i++) nodes[i] = map.getFloat();
+            return new TreeCodebook(nodes, depth, dim);
+        }
+    }
+
+
+    //Codebook shared across the process, reloaded only when the file's modification time changes.
+    //Files ending in .cb are read as binary, .tsvq as the leaves of a tree, anything else as text.
+    public static List<double[]> getCodebook(String filename) throws IOException {
+        File file = new File(filename);
+        String key = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        Cached cached = CACHE.get(key);
+        if (cached != null && cached.lastModified() == lastModified) return cached.codebook();
+
+        List<double[]> codebook = filename.endsWith(BINARY_EXTENSION) ? loadBinaryCodebook(filename)
+                : filename.endsWith(TREE_EXTENSION) ? loadTreeCodebook(filename).codebook() : loadCodebook(filename);
+        codebook = Collections.unmodifiableList(codebook);
+        CACHE.put(key, new Cached(lastModified, codebook));
+        return codebook;
+    }
+
+
+    //Codebook of channel c (R, G, B, Y, U or V) in dir: the binary <c>CB.cb when it is there and
+    //at least as new as the text file, which it then takes the place of, otherwise the text file
+    public static List<double[]> getCodebook(String dir, char channel) throws IOException {
+        File text = new File(textFileName(dir, channel));
+        File binary = new File(binaryFileName(dir, channel));
+        boolean useBinary = binary.isFile() && (!text.isFile() || binary.lastModified() >= text.lastModified());
+        return getCodebook((useBinary ? binary : text).getPath());
+    }
+
+    //The text file of channel c in dir, the one Main writes and getCodebook(dir, c) falls back on
+    public static String textFileName(String dir, char channel) {
+        return new File(dir, TEXT_NAMES.get(Character.toUpperCase(channel))).getPath();
+    }
+
+    //The binary file of channel c in dir
+    public static String binaryFileName(String dir, char channel) {
+        return new File(dir, Character.toLowerCase(channel) + "CB" + BINARY_EXTENSION).getPath();
+    }
+
+    //The tree file of channel c in dir, written by Main --tree
+    public static String treeFileName(String dir, char channel) {
+        return new File(dir, Character.toLowerCase(channel) + "CB" + TREE_EXTENSION).getPath();
+    }
+
+
+    //Block geometry a codebook file was saved with; codebooks saved without one are taken to be
+    //square, 2×2 for 4-value codewords
+    public static BlockGeometry loadGeometry(String filename) throws IOException {
+        if (filename.endsWith(BINARY_EXTENSION) || filename.endsWith(TREE_EXTENSION)) {
+            try (FileChannel ch = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                while (header.hasRemaining()) {
+                    if (ch.read(header) < 0) throw new IOException("Not a binary codebook: " + filename);
+                }
+                header.flip();
+                int magic = header.getInt();
+                if (magic != MAGIC && magic != TREE_MAGIC) throw new IOException("Not a binary codebook: " + filename);
+                header.position(6);
+                int width = header.get() & 0xFF, height = header.get() & 0xFF;
+                int dim = header.getInt();
+                return width != 0 ? new BlockGeometry(width, height) : BlockGeometry.forDim(dim);
+            }
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            String line = reader.readLine();
+            if (line == null) throw new IOException("Empty codebook: " + filename);
+            if (line.startsWith(BLOCK_LINE)) return BlockGeometry.parse(line.substring(BLOCK_LINE.length()));
+            return BlockGeometry.forDim(line.trim().split("\\s+").length);
+        }
+    }
+
+    private static void checkGeometry(List<double[]> codebook, BlockGeometry block, String filename) {
+        if (block != null && codebook.get(0).length != block.dim()) {
+            throw new IllegalArgumentException(codebook.get(0).length + "-value codewords for " + block
+                    + " blocks: " + filename);
+        }
+    }
+
+
     public static double calculateCompressionRatio(int width,
                                                    int height,
                                                    int blockSize,
                                                    int codebookSize) {
+        return calculateCompressionRatio(width, height, BlockGeometry.square(blockSize), codebookSize);
+    }
+
+    // Nominal ratio of one channel coded with codebookSize-entry codebooks, padded edge blocks
+    // counting as whole blocks
+    public static double calculateCompressionRatio(int width,
+                                                   int height,
+                                                   BlockGeometry block,
+                                                   int codebookSize) {
         // Original image: 8 bits per channel, 3 channels (RGB)
         double origBits = 8.0 * 3 * width * height;
 
         // Compressed: each block is replaced by an index.
-        double numBlocks = (double) width * height / (blockSize * blockSize);
+        double numBlocks = (double) block.cols(width) * block.rows(height);
         double bitsPerIndex = Math.log(codebookSize) / Math.log(2);
 
         double compressedBits = numBlocks * bitsPerIndex;
         return origBits / compressedBits;
     }
+
+    // Ratio actually achieved on disk: raw 24-bit RGB size over the size of the compressed file
+    public static double calculateCompressionRatio(int width, int height, File compressed) {
+        return 3.0 * width * height / compressed.length();
+    }
+
+    // bytes per element, -1 for a type this version does not know
+    private static int elementSize(int elementType) {
+        return switch (elementType) {
+            case ELEMENT_FLOAT32 -> 4;
+            case ELEMENT_UINT8 -> 1;
+            case ELEMENT_FLOAT64 -> 8;
+            default -> -1;
+        };
+    }
+
+    // Bits the compressed file spends per image pixel, headers and tables included
+    public static double bitsPerPixel(int width, int height, File compressed) {
+        return 8.0 * compressed.length() / ((double) width * height);
+    }
 }
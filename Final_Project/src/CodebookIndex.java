@@ -0,0 +1,212 @@
+import java.util.*;
+
+// Nearest-codeword search built once per codebook.
+// Codewords are kept sorted by the sum of their components. For a block x and codeword c,
+// ||x - c||² >= (sum(x) - sum(c))² / dim, so the search starts at the codeword whose sum is
+// closest to the block's and walks outwards, stopping in each direction once that bound
+// exceeds the best distance found. Each distance is also abandoned as soon as its partial
+// sum is worse than the best (partial distance elimination).
+// Ties resolve to the lowest codebook index, so results match the exhaustive scan exactly.
+public final class CodebookIndex {
+
+    // guards the sum bound against rounding so equal-distance codewords are never pruned
+    private static final double SLACK = 1e-9;
+
+    private static final Map<List<double[]>, CodebookIndex> CACHE =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final int size;
+    private final int dim;
+    private final double[] words;  // codewords in sum order, flat
+    private final double[] sums;   // sum of each codeword, ascending
+    private final int[] order;     // sorted position -> codebook index
+
+    private final double[] scalars;     // component 0 of each codeword, ascending
+    private final int[] scalarOrder;
+
+    private final byte[] encodeTable;   // 8-bit sample -> index, null for books over 256 entries
+    private final int[] decodeTable;    // index -> 8-bit sample, as (int) codeword[0]
+
+    private final double[] flat;        // codewords in codebook order, for the distance kernel
+    private volatile DistanceKernel kernel;
+
+    // Index for a codebook, built on first use and reused while the codebook is alive
+    public static CodebookIndex of(List<double[]> codebook) {
+        return CACHE.computeIfAbsent(codebook, CodebookIndex::new);
+    }
+
+    public CodebookIndex(List<double[]> codebook) {
+        size = codebook.size();
+        dim = codebook.get(0).length;
+
+        double[] rawSums = new double[size];
+        for (int i = 0; i < size; i++) rawSums[i] = sum(codebook.get(i));
+        order = sortedOrder(rawSums);
+        words = new double[size * dim];
+        sums = new double[size];
+        for (int p = 0; p < size; p++) {
+            System.arraycopy(codebook.get(order[p]), 0, words, p * dim, dim);
+            sums[p] = rawSums[order[p]];
+        }
+
+        double[] first = new double[size];
+        for (int i = 0; i < size; i++) first[i] = codebook.get(i)[0];
+        scalarOrder = sortedOrder(first);
+        scalars = new double[size];
+        for (int p = 0; p < size; p++) scalars[p] = first[scalarOrder[p]];
+
+        flat = new double[size * dim];
+        for (int i = 0; i < size; i++) System.arraycopy(codebook.get(i), 0, flat, i * dim, dim);
+
+        decodeTable = new int[size];
+        for (int i = 0; i < size; i++) decodeTable[i] = (int) first[i];
+        if (size <= 256) {
+            encodeTable = new byte[256];
+            for (int v = 0; v < 256; v++) encodeTable[v] = (byte) nearestScalar(v);
+        } else {
+            encodeTable = null;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // values per codeword
+    public int dim() {
+        return dim;
+    }
+
+    // Codeword with the smallest squared Euclidean distance to the block
+    public int nearest(double[] block) {
+        double s = sum(block);
+        int hi = lowerBound(sums, s);
+        int lo = hi - 1;
+        double bestD = Double.MAX_VALUE;
+        int bestK = Integer.MAX_VALUE;
+        boolean up = hi < size, down = lo >= 0;
+
+        while (up || down) {
+            if (up) {
+                double gap = s - sums[hi];
+                if (gap * gap / dim > bestD * (1 + SLACK) + SLACK) {
+                    up = false;
+                } else {
+                    double d = distance(block, hi * dim, bestD);
+                    int k = order[hi];
+                    if (d < bestD || (d == bestD && k < bestK)) {
+                        bestD = d;
+                        bestK = k;
+                    }
+                    up = ++hi < size;
+                }
+            }
+            if (down) {
+                double gap = s - sums[lo];
+                if (gap * gap / dim > bestD * (1 + SLACK) + SLACK) {
+                    down = false;
+                } else {
+                    double d = distance(block, lo * dim, bestD);
+                    int k = order[lo];
+                    if (d < bestD || (d == bestD && k < bestK)) {
+                        bestD = d;
+                        bestK = k;
+                    }
+                    down = --lo >= 0;
+                }
+            }
+        }
+        return bestK;
+    }
+
+    // Codeword whose first component is closest to the value, as ImageUtilsQV compares them
+    public int nearestScalar(double value) {
+        int p = lowerBound(scalars, value);
+        double bestD = Double.MAX_VALUE;
+        if (p < size) bestD = Math.abs(value - scalars[p]);
+        if (p > 0) bestD = Math.min(bestD, Math.abs(value - scalars[p - 1]));
+
+        // several codewords can share the best distance, pick the lowest index among them
+        int bestK = Integer.MAX_VALUE;
+        for (int i = p; i < size && Math.abs(value - scalars[i]) == bestD; i++) {
+            bestK = Math.min(bestK, scalarOrder[i]);
+        }
+        for (int i = p - 1; i >= 0 && Math.abs(value - scalars[i]) == bestD; i--) {
+            bestK = Math.min(bestK, scalarOrder[i]);
+        }
+        return bestK;
+    }
+
+    // nearestScalar for every 8-bit sample, read the index back with & 0xFF
+    public byte[] encodeTable() {
+        return encodeTable;
+    }
+
+    // Exhaustive search over the codebook, worth it over nearest() when it is vectorised
+    public DistanceKernel kernel() {
+        DistanceKernel k = kernel;
+        if (k == null) kernel = k = DistanceKernel.of(flat, size, dim);
+        return k;
+    }
+
+    // Sample value each index decodes to on the scalar RGB path
+    public int[] decodeTable() {
+        return decodeTable;
+    }
+
+    // Reference exhaustive scan, the behaviour the index has to reproduce
+    public static int bruteForceNearest(double[] block, List<double[]> codebook) {
+        int bestK = 0;
+        double bestD = Double.MAX_VALUE;
+        for (int k = 0; k < codebook.size(); k++) {
+            double dist = 0;
+            double[] vec = codebook.get(k);
+            for (int d = 0; d < vec.length; d++) {
+                double diff = block[d] - vec[d];
+                dist += diff * diff;
+            }
+            if (dist < bestD) {
+                bestD = dist;
+                bestK = k;
+            }
+        }
+        return bestK;
+    }
+
+    // squared distance to the codeword at offset, gives up once it is already above limit
+    private double distance(double[] block, int off, double limit) {
+        double dist = 0;
+        for (int d = 0; d < dim; d++) {
+            double diff = block[d] - words[off + d];
+            dist += diff * diff;
+            if (dist > limit) return dist;
+        }
+        return dist;
+    }
+
+    private static double sum(double[] v) {
+        double s = 0;
+        for (double x : v) s += x;
+        return s;
+    }
+
+    // first position whose key is >= value
+    private static int lowerBound(double[] keys, double value) {
+        int lo = 0, hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private static int[] sortedOrder(double[] keys) {
+        Integer[] boxed = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) boxed[i] = i;
+        Arrays.sort(boxed, Comparator.comparingDouble(i -> keys[i]));
+        int[] order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) order[i] = boxed[i];
+        return order;
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Trains all six codebooks: from one TrainingSet with the clustering jobs running side by side,
+// or with mini-batch K-Means streaming the training folder so that only the codebooks and a
+// small pool of blocks per channel are ever in memory. Mini-batch training starts from FastKMeans
+// run on a uniform sample of the whole folder, which a first pass draws; seeding from the first
+// batch alone leaves most centroids stuck on the colours of the first few images.
+// refine continues mini-batch training of finished codebooks on new images only, weighing
+// them against the blocks the codebooks were trained on through their CentroidStats.
+public class CodebookTrainer {
+
+    public static final int RGB_SIZE = 256;
+    public static final int Y_SIZE = 256;
+    public static final int UV_SIZE = 64;
+
+    public static final int DEFAULT_BATCH_SIZE = 4096;
+    public static final int DEFAULT_EPOCHS = 1;
+    // batches pooled per channel before one is drawn, so a batch mixes blocks of many images
+    private static final int POOLED_BATCHES = 8;
+    // blocks sampled per centroid for the seeding run
+    private static final int SEED_SAMPLES = 64;
+
+    private static final Map<Character, Integer> SIZES = Map.of('R', RGB_SIZE, 'G', RGB_SIZE, 'B', RGB_SIZE,
+            'Y', Y_SIZE, 'U', UV_SIZE, 'V', UV_SIZE);
+
+    public static Map<Character, List<double[]>> trainAll(TrainingSet set) throws InterruptedException {
+        return trainAll(set, FastKMeans.DEFAULT_SEEDING, new Random().nextLong());
+    }
+
+    // Same seed, same codebooks: every channel gets its own Random derived from the seed
+    public static Map<Character, List<double[]>> trainAll(TrainingSet set, KMeansSeeding.Method seeding,
+                                                          long seed) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(TrainingSet.CHANNELS.length);
+        try {
+            Map<Character, Future<List<double[]>>> jobs = new LinkedHashMap<>();
+            for (int i = 0; i < TrainingSet.CHANNELS.length; i++) {
+                char c = TrainingSet.CHANNELS[i];
+                Random rand = new Random(seed + i);
+                jobs.put(c, pool.submit(() -> FastKMeans.toList(
+                        FastKMeans.cluster(set.data(c), set.dim(), SIZES.get(c),
+                                FastKMeans.DEFAULT_MAX_ITERATIONS, seeding, rand),
+                        set.dim())));
+            }
+
+            Map<Character, List<double[]>> codebooks = new LinkedHashMap<>();
+            for (Map.Entry<Character, Future<List<double[]>>> e : jobs.entrySet()) {
+                try {
+                    codebooks.put(e.getKey(), e.getValue().get());
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException("Training " + e.getKey() + " failed", ex.getCause());
+                }
+            }
+            return codebooks;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Y, U and V trees (TreeCodebook) of Y_SIZE and UV_SIZE leaves, each channel seeded like trainAll
+    public static Map<Character, TreeCodebook> trainTrees(TrainingSet set, long seed) {
+        Map<Character, TreeCodebook> trees = new LinkedHashMap<>();
+        for (int i = 0; i < TrainingSet.CHANNELS.length; i++) {
+            char c = TrainingSet.CHANNELS[i];
+            if (c != 'Y' && c != 'U' && c != 'V') continue;
+            trees.put(c, TreeCodebook.train(set.data(c), set.count(c), set.dim(), SIZES.get(c), new Random(seed + i)));
+        }
+        return trees;
+    }
+
+    // Per-codeword statistics of codebooks trained on set by trainAll
+    public static Map<Character, CentroidStats> stats(TrainingSet set, Map<Character, List<double[]>> codebooks) {
+        Map<Character, CentroidStats> stats = new LinkedHashMap<>();
+        for (char c : TrainingSet.CHANNELS) {
+            stats.put(c, CentroidStats.assign(codebooks.get(c), set.data(c), set.count(c)));
+        }
+        return stats;
+    }
+
+    public static Map<Character, List<double[]>> codebooks(Map<Character, CentroidStats> stats) {
+        Map<Character, List<double[]>> codebooks = new LinkedHashMap<>();
+        for (Map.Entry<Character, CentroidStats> e : stats.entrySet()) codebooks.put(e.getKey(), e.getValue().codebook());
+        return codebooks;
+    }
+
+    // Mini-batch training over the training folder, decoding every image once for the seed
+    // sample and once per epoch, visiting the images in a new random order each epoch
+    public static Map<Character, List<double[]>> trainMiniBatch(String trainingDir, BlockGeometry block,
+                                                                int batchSize, int epochs,
+                                                                Random rand) throws IOException {
+        return codebooks(trainMiniBatchWithStats(trainingDir, block, batchSize, epochs, rand));
+    }
+
+    // As trainMiniBatch, keeping how many blocks each codeword absorbed over all epochs
+    public static Map<Character, CentroidStats> trainMiniBatchWithStats(String trainingDir, BlockGeometry block,
+                                                                       int batchSize, int epochs,
+                                                                       Random rand) throws IOException {
+        List<TrainingSet.Source> sources = new ArrayList<>(TrainingSet.select(trainingDir));
+        int dim = block.dim();
+
+        Map<Character, Reservoir> samples = new LinkedHashMap<>();
+        for (char c : TrainingSet.CHANNELS) samples.put(c, new Reservoir(SEED_SAMPLES * SIZES.get(c), dim, rand));
+        TrainingSet.forEachImage(sources, block, samples);
+
+        Map<Character, BatchPool> pools = new LinkedHashMap<>();
+        for (char c : TrainingSet.CHANNELS) {
+            MiniBatchKMeans model = new MiniBatchKMeans(SIZES.get(c), dim);
+            Reservoir sample = samples.get(c);
+            if (sample.size >= SIZES.get(c)) {
+                model.seed(FastKMeans.cluster(Arrays.copyOf(sample.data, sample.size * dim),
+                        dim, SIZES.get(c), FastKMeans.DEFAULT_MAX_ITERATIONS, rand));
+            }
+            pools.put(c, new BatchPool(model, batchSize, dim, rand));
+        }
+        samples = null; // the seed samples can go before streaming starts
+
+        for (int epoch = 0; epoch < epochs; epoch++) {
+            Collections.shuffle(sources, rand);
+            TrainingSet.forEachImage(sources, block, pools);
+            for (BatchPool pool : pools.values()) pool.drain();
+        }
+        return stats(pools, dim);
+    }
+
+    // One mini-batch pass over the images in newDir (selected like a training folder), starting
+    // from the codebooks in stats. A codeword that absorbed n blocks before moves 1/(n+m) of
+    // the way towards each of the m new blocks it gets, so what the codebooks already learnt
+    // holds unless the new images bring plenty of different content. Reads only the new
+    // images; the result still counts the old blocks, so refinements can be chained.
+    public static Map<Character, CentroidStats> refine(String newDir, Map<Character, CentroidStats> stats,
+                                                      BlockGeometry block, int batchSize,
+                                                      Random rand) throws IOException {
+        List<TrainingSet.Source> sources = new ArrayList<>(TrainingSet.select(newDir));
+        Collections.shuffle(sources, rand);
+        int dim = block.dim();
+
+        Map<Character, BatchPool> pools = new LinkedHashMap<>();
+        for (char c : TrainingSet.CHANNELS) {
+            CentroidStats old = stats.get(c);
+            if (old == null) throw new IllegalArgumentException("No codebook statistics for " + c);
+            if (old.dim() != dim) {
+                throw new IllegalArgumentException(c + " codewords have " + old.dim() + " values, " + block
+                        + " blocks have " + dim);
+            }
+            MiniBatchKMeans model = new MiniBatchKMeans(old.size(), dim);
+            model.resume(old.centroids(), old.counts());
+            pools.put(c, new BatchPool(model, batchSize, dim, rand));
+        }
+        TrainingSet.forEachImage(sources, block, pools);
+        for (BatchPool pool : pools.values()) pool.drain();
+        return stats(pools, dim);
+    }
+
+    private static Map<Character, CentroidStats> stats(Map<Character, BatchPool> pools, int dim) {
+        Map<Character, CentroidStats> stats = new LinkedHashMap<>();
+        for (Map.Entry<Character, BatchPool> e : pools.entrySet()) {
+            MiniBatchKMeans model = e.getValue().model;
+            stats.put(e.getKey(), new CentroidStats(model.centroids(), model.counts(), dim));
+        }
+        return stats;
+    }
+
+    // Uniform sample of a fixed number of blocks from a stream of unknown length (Algorithm R)
+    private static class Reservoir implements TrainingSet.BlockSink {
+        final float[] data;
+        final int capacity, dim;
+        final Random rand;
+        int size;
+        long seen;
+
+        Reservoir(int capacity, int dim, Random rand) {
+            this.capacity = capacity;
+            this.dim = dim;
+            this.rand = rand;
+            this.data = new float[capacity * dim];
+        }
+
+        @Override
+        public void add(float[] block) {
+            long slot = seen++ < capacity ? size++ : (long) (rand.nextDouble() * seen);
+            if (slot >= capacity) return;
+            System.arraycopy(block, 0, data, (int) slot * dim, dim);
+        }
+    }
+
+    // Collects POOLED_BATCHES batches of blocks; when full, a random batch of them goes to the model
+    private static class BatchPool implements TrainingSet.BlockSink {
+        final MiniBatchKMeans model;
+        final int batchSize, dim;
+        final Random rand;
+        final float[] data;
+        int size; // blocks
+
+        BatchPool(MiniBatchKMeans model, int batchSize, int dim, Random rand) {
+            this.model = model;
+            this.batchSize = batchSize;
+            this.dim = dim;
+            this.rand = rand;
+            this.data = new float[POOLED_BATCHES * batchSize * dim];
+        }
+
+        @Override
+        public void add(float[] block) {
+            if (size == POOLED_BATCHES * batchSize) step(batchSize);
+            System.arraycopy(block, 0, data, size++ * dim, dim);
+        }
+
+        // the rest of the pool, at the end of an epoch
+        void drain() {
+            while (size > 0) step(Math.min(batchSize, size));
+        }
+
+        // move n random blocks to the end of the pool and train on them
+        private void step(int n) {
+            for (int i = 0; i < n; i++) swap(rand.nextInt(size - i), size - 1 - i);
+            size -= n;
+            model.update(data, size, n, rand);
+        }
+
+        private void swap(int i, int j) {
+            int a = i * dim, b = j * dim;
+            for (int d = 0; d < dim; d++) {
+                float t = data[a + d];
+                data[a + d] = data[b + d];
+                data[b + d] = t;
+            }
+        }
+    }
+}
@@ -0,0 +1,249 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+// Resident encoder/decoder: loads the codebooks in codebooks/ (and their index counts, see
+// EntropyModel) once and serves requests over HTTP until stopped, so neither training nor
+// JVM warm-up is paid per image. Every request runs on its own virtual thread; reading the
+// image and writing the response happen there, while the codebook search of concurrent encode
+// requests is coalesced into batches (RequestCoalescer) that run one at a time over all cores.
+//   POST /encode?mode=yuv|rgb&entropy=rans+dpcm   body: a JPEG/PNG/BMP image, reply: a .vq file
+//   POST /decode                                   body: a .vq file made with these codebooks,
+//                                                  reply: PNG
+//   GET  /metrics                                  request counts and latencies, the stage
+//                                                  timers of the encoders, as JSON
+//   GET  /health
+// Run from the project folder:  java CompressionServer [port]   (LoadGenerator replays test/)
+public class CompressionServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 8080;
+
+    // batches are cut at this many requests or pixels; one bigger image is a batch of its own
+    private static final int MAX_BATCH = 32;
+    private static final long MAX_BATCH_PIXELS = 4L << 20;
+    private static final int MAX_BODY_BYTES = 64 << 20;
+    // a few bytes of rANS or PNG can claim any size, so encodes and decodes are held to 8192 × 8192
+    private static final long MAX_DECODE_PIXELS = 1L << 26;
+
+    private final List<double[]> redCB, greenCB, blueCB, yCB, uCB, vCB;
+    private final BlockGeometry block;
+    private final EntropyModel model;
+    private final HttpServer http;
+    private final ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+    private final RequestCoalescer<EncodeJob, Plane[]> search;
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private final long startNanos = System.nanoTime();
+
+    private record EncodeJob(BufferedImage image, boolean yuv) {}
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CompressionServer server = new CompressionServer(port, "codebooks");
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Serving on http://localhost:" + server.port() + " with " + server.block
+                + " codebooks, Ctrl-C to stop");
+    }
+
+    public CompressionServer(int port, String codebookDir) throws IOException {
+        redCB = CodebookIO.getCodebook(codebookDir, 'R');
+        greenCB = CodebookIO.getCodebook(codebookDir, 'G');
+        blueCB = CodebookIO.getCodebook(codebookDir, 'B');
+        yCB = CodebookIO.getCodebook(codebookDir, 'Y');
+        uCB = CodebookIO.getCodebook(codebookDir, 'U');
+        vCB = CodebookIO.getCodebook(codebookDir, 'V');
+        block = CodebookIO.loadGeometry(codebookDir + "/yCB.txt");
+        model = EntropyModel.load(codebookDir, Map.of('R', redCB, 'G', greenCB, 'B', blueCB, 'Y', yCB, 'U', uCB, 'V', vCB));
+        for (List<double[]> cb : List.of(redCB, greenCB, blueCB, yCB, uCB, vCB)) CodebookIndex.of(cb).kernel();
+
+        search = new RequestCoalescer<>("service.search", this::search, MAX_BATCH, MAX_BATCH_PIXELS, 0);
+        http = HttpServer.create(new InetSocketAddress(port), 0);
+        http.setExecutor(requests);
+        http.createContext("/encode", ex -> handle(ex, "encode", this::encode));
+        http.createContext("/decode", ex -> handle(ex, "decode", this::decode));
+        http.createContext("/metrics", ex -> handle(ex, "metrics", this::metrics));
+        http.createContext("/health", ex -> handle(ex, "health", e -> reply(e, 200, "text/plain", "ok\n".getBytes())));
+        http.start();
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        http.stop(1);
+        search.close();
+        requests.close();
+    }
+
+    private interface Handler {
+        void handle(HttpExchange ex) throws Exception;
+    }
+
+    // times the request, maps failures to status codes
+    private void handle(HttpExchange ex, String endpoint, Handler handler) {
+        metrics.counter("service." + endpoint + ".requests").increment();
+        try (ex) {
+            MetricsRegistry.Span s = metrics.timer("service." + endpoint).start();
+            try {
+                handler.handle(ex);
+            } catch (IllegalArgumentException e) {
+                fail(ex, endpoint, 400, e.getMessage());
+            } catch (IOException e) {
+                fail(ex, endpoint, 422, e.getMessage());
+            } catch (Exception e) {
+                fail(ex, endpoint, 500, e.toString());
+            } finally {
+                s.close();
+            }
+        }
+    }
+
+    private void fail(HttpExchange ex, String endpoint, int status, String message) {
+        metrics.counter("service." + endpoint + ".errors").increment();
+        try {
+            reply(ex, status, "text/plain", (message + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // client gone
+        }
+    }
+
+    private void encode(HttpExchange ex) throws Exception {
+        requireMethod(ex, "POST");
+        Map<String, String> query = query(ex);
+        String mode = query.getOrDefault("mode", "yuv");
+        if (!mode.equals("yuv") && !mode.equals("rgb")) throw new IllegalArgumentException("mode must be yuv or rgb");
+        IndexCoding coding = IndexCoding.parse(query.getOrDefault("entropy", "rans+dpcm"));
+
+        byte[] body = body(ex);
+        BufferedImage img = readImage(body);
+        int w = img.getWidth(), h = img.getHeight();
+
+        Plane[] idx;
+        try {
+            idx = search.submit(new EncodeJob(img, mode.equals("yuv")), (long) w * h).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+
+        ByteArrayOutputStream vq = new ByteArrayOutputStream(body.length / 4);
+        if (mode.equals("yuv")) {
+            VQFile.writeYUV(Channels.newChannel(vq), w, h, block, idx, yCB, uCB, vCB, false, coding, model);
+        } else {
+            VQFile.writeRGB(Channels.newChannel(vq), w, h, idx, redCB, greenCB, blueCB, false, coding, model);
+        }
+        metrics.counter("service.encode.bytes_in").add(body.length);
+        metrics.counter("service.encode.bytes_out").add(vq.size());
+        metrics.counter("service.encode.pixels").add((long) w * h);
+        ex.getResponseHeaders().set("X-Bits-Per-Pixel", String.format(Locale.ROOT, "%.4f", 8.0 * vq.size() / ((double) w * h)));
+        reply(ex, 200, "application/octet-stream", vq.toByteArray());
+    }
+
+    // CPU stage of a batch: one image gets every core to itself, several are spread over the
+    // cores an image each; the indices are the same either way
+    private List<Plane[]> search(List<EncodeJob> batch) {
+        Plane[][] idx = new Plane[batch.size()][];
+        if (batch.size() == 1) {
+            idx[0] = search(batch.get(0), ParallelEncoder.shared());
+        } else {
+            IntStream.range(0, batch.size()).parallel().forEach(i -> idx[i] = search(batch.get(i), ParallelEncoder.SERIAL));
+        }
+        return Arrays.asList(idx);
+    }
+
+    private Plane[] search(EncodeJob job, ParallelEncoder encoder) {
+        return job.yuv
+                ? YUVCompressor.compress(job.image, block, yCB, uCB, vCB, encoder)
+                : VQCompressor.compress(job.image, redCB, greenCB, blueCB, encoder);
+    }
+
+    private void decode(HttpExchange ex) throws Exception {
+        requireMethod(ex, "POST");
+        byte[] body = body(ex);
+        BufferedImage img = VQFile.decode(Channels.newChannel(new ByteArrayInputStream(body)), "request body",
+                List.of(redCB, greenCB, blueCB), List.of(yCB, uCB, vCB), MAX_DECODE_PIXELS);
+        ByteArrayOutputStream png = new ByteArrayOutputStream(3 * img.getWidth() * img.getHeight() / 2);
+        ImageIO.write(img, "png", png);
+        metrics.counter("service.decode.bytes_in").add(body.length);
+        metrics.counter("service.decode.pixels").add((long) img.getWidth() * img.getHeight());
+        reply(ex, 200, "image/png", png.toByteArray());
+    }
+
+    private void metrics(HttpExchange ex) throws IOException {
+        StringWriter json = new StringWriter();
+        PrintWriter out = new PrintWriter(json);
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long encoded = metrics.timer("service.encode").count();
+        out.printf(Locale.ROOT, "{\"uptimeSeconds\": %.1f, \"encodesPerSecond\": %.2f, \"registry\": ",
+                seconds, encoded / seconds);
+        metrics.writeJson(out);
+        out.println("}");
+        out.flush();
+        reply(ex, 200, "application/json", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // The size comes from the image header, so a small PNG claiming 40000 × 40000 is refused
+    // before any pixels are allocated
+    private static BufferedImage readImage(byte[] body) throws IOException {
+        try (ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(body))) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) throw new IllegalArgumentException("Body is not a readable image");
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > MAX_DECODE_PIXELS) {
+                    throw new IllegalArgumentException(reader.getWidth(0) + "x" + reader.getHeight(0)
+                            + " image, over the " + MAX_DECODE_PIXELS + " pixel limit");
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void requireMethod(HttpExchange ex, String method) {
+        if (!ex.getRequestMethod().equals(method)) {
+            throw new IllegalArgumentException(ex.getRequestURI().getPath() + " takes " + method);
+        }
+    }
+
+    private static byte[] body(HttpExchange ex) throws IOException {
+        byte[] body = ex.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+        if (body.length > MAX_BODY_BYTES) throw new IllegalArgumentException("Body over " + MAX_BODY_BYTES + " bytes");
+        return body;
+    }
+
+    // name=value pairs taken literally: the values are plain tokens, and form decoding would
+    // turn the '+' of "rans+dpcm" into a space
+    private static Map<String, String> query(HttpExchange ex) {
+        Map<String, String> params = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) params.put(pair.substring(0, eq), pair.substring(eq + 1));
+        }
+        return params;
+    }
+
+    private static void reply(HttpExchange ex, int status, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(status, body.length);
+        ex.getResponseBody().write(body);
+    }
+}
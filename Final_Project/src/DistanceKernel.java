@@ -0,0 +1,125 @@
+// Nearest-codeword search over a fixed set of codewords (a codebook, or the centroids of one
+// K-Means pass), flat like FastKMeans: codeword j at [j*dim .. j*dim+dim).
+// of() picks VectorDistanceKernel, which compares a block with a whole register of codewords
+// per instruction, when the JVM runs with --add-modules jdk.incubator.vector; otherwise, or
+// with -Dvq.simd=false, the scalar loop below. Both return exactly the index the double
+// precision exhaustive scan does, lowest index on ties, so the choice never changes output.
+// A kernel can be shared between threads, each passing its own scratch().
+public abstract class DistanceKernel {
+
+    private static final boolean VECTOR = vectorAvailable();
+
+    protected final int k;
+    protected final int dim;
+    protected final double[] codewords;
+
+    protected DistanceKernel(double[] codewords, int k, int dim) {
+        this.k = k;
+        this.dim = dim;
+        this.codewords = java.util.Arrays.copyOf(codewords, k * dim);
+    }
+
+    public static DistanceKernel of(double[] codewords, int k, int dim) {
+        return VECTOR ? new VectorDistanceKernel(codewords, k, dim) : scalar(codewords, k, dim);
+    }
+
+    public static DistanceKernel scalar(double[] codewords, int k, int dim) {
+        return new Scalar(codewords, k, dim);
+    }
+
+    // Whether of() hands out vector kernels in this JVM
+    public static boolean vectorized() {
+        return VECTOR;
+    }
+
+    // Per-thread working memory for nearest() and nearest2()
+    public float[] scratch() {
+        return new float[0];
+    }
+
+    // Index of the codeword closest to data[off .. off+dim)
+    public abstract int nearest(float[] data, int off, float[] scratch);
+
+    // nearest(), also giving its exact squared distance in two[0] and a lower bound on the
+    // squared distance to any other codeword in two[1]
+    public abstract int nearest2(float[] data, int off, float[] scratch, double[] two);
+
+    // squared distance to codeword j, summed in component order like every exact scan here
+    protected final double distance(float[] data, int off, int j) {
+        double dist = 0;
+        for (int d = 0, base = j * dim; d < dim; d++) {
+            double diff = data[off + d] - codewords[base + d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+
+    private static boolean vectorAvailable() {
+        if (!Boolean.parseBoolean(System.getProperty("vq.simd", "true"))) return false;
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return false;
+        try {
+            return VectorDistanceKernel.usable();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static final class Scalar extends DistanceKernel {
+
+        Scalar(double[] codewords, int k, int dim) {
+            super(codewords, k, dim);
+        }
+
+        @Override
+        public int nearest(float[] data, int off, float[] scratch) {
+            if (dim == 4) return FastKMeans.nearest(data, off, codewords, k, dim);
+            double minDist = Double.MAX_VALUE;
+            int bestIdx = 0;
+            for (int j = 0; j < k; j++) {
+                double dist = distance(data, off, j);
+                if (dist < minDist) {
+                    minDist = dist;
+                    bestIdx = j;
+                }
+            }
+            return bestIdx;
+        }
+
+        @Override
+        public int nearest2(float[] data, int off, float[] scratch, double[] two) {
+            double minDist = Double.MAX_VALUE, secondDist = Double.MAX_VALUE;
+            int bestIdx = 0;
+            if (dim == 4) {
+                double x0 = data[off], x1 = data[off + 1], x2 = data[off + 2], x3 = data[off + 3];
+                for (int j = 0, base = 0; j < k; j++, base += 4) {
+                    double d0 = x0 - codewords[base];
+                    double d1 = x1 - codewords[base + 1];
+                    double d2 = x2 - codewords[base + 2];
+                    double d3 = x3 - codewords[base + 3];
+                    double dist = d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+                    if (dist < minDist) {
+                        secondDist = minDist;
+                        minDist = dist;
+                        bestIdx = j;
+                    } else if (dist < secondDist) {
+                        secondDist = dist;
+                    }
+                }
+            } else {
+                for (int j = 0; j < k; j++) {
+                    double dist = distance(data, off, j);
+                    if (dist < minDist) {
+                        secondDist = minDist;
+                        minDist = dist;
+                        bestIdx = j;
+                    } else if (dist < secondDist) {
+                        secondDist = dist;
+                    }
+                }
+            }
+            two[0] = minDist;
+            two[1] = secondDist;
+            return bestIdx;
+        }
+    }
+}
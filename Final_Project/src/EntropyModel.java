@@ -0,0 +1,138 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// How often each codeword index (and each DPCM difference, see IndexCoder) turns up when the
+// training images are encoded with the finished codebooks, per channel. HUFFMAN coding builds
+// its static codes from these counts. Saved next to the codebooks as <c>CB.huf, a text file
+// with the id of the codebook counted (VQFile.codebookId) on the first line, the plain counts
+// on the second and the DPCM counts on the third.
+public class EntropyModel {
+
+    public static final String EXTENSION = ".huf";
+
+    private final Map<Character, long[][]> counts = new HashMap<>();
+    private final Map<Character, Integer> ids = new HashMap<>();
+
+    // Encode the training images with the codebooks (keyed 'R'..'V' like TrainingSet.CHANNELS)
+    // and count the indices
+    public static EntropyModel train(String trainingDir, Map<Character, List<double[]>> codebooks,
+                                     BlockGeometry block) throws IOException {
+        EntropyModel model = new EntropyModel();
+        Map<Character, CodebookIndex> index = new HashMap<>();
+        for (char c : TrainingSet.CHANNELS) {
+            model.counts.put(c, new long[2][codebooks.get(c).size()]);
+            model.ids.put(c, VQFile.codebookId(codebooks.get(c)));
+            index.put(c, CodebookIndex.of(codebooks.get(c)));
+        }
+        for (TrainingSet.Source src : TrainingSet.select(trainingDir)) {
+            BufferedImage img = ImageIO.read(src.file());
+            if (img == null) continue;
+            if (src.rgb()) {
+                Plane[] rgb = ImageUtilsQV.extractComponents(img);
+                for (int c = 0; c < 3; c++) {
+                    char ch = TrainingSet.CHANNELS[c];
+                    model.add(ch, ImageUtilsQV.compressComponent(rgb[c], codebooks.get(ch)), codebooks.get(ch));
+                }
+            }
+            if (src.yuv()) {
+                Plane[] yuv = ImageUtilsYUV.rgbToYuv(img);
+                for (int c = 0; c < 3; c++) {
+                    char ch = TrainingSet.CHANNELS[3 + c];
+                    Plane p = c == 0 ? yuv[0] : ImageUtilsYUV.subSample(yuv[c]);
+                    model.add(ch, ImageUtilsYUV.compressChannel(p, index.get(ch), block), codebooks.get(ch));
+                }
+            }
+        }
+        return model;
+    }
+
+    // Counts of one channel's symbols under plain or DPCM coding, null when the channel is unknown
+    public long[] counts(char channel, boolean dpcm) {
+        long[][] c = counts.get(channel);
+        return c == null ? null : c[dpcm ? 1 : 0];
+    }
+
+    public void save(String dir) throws IOException {
+        for (Map.Entry<Character, long[][]> e : counts.entrySet()) {
+            CodebookIO.writeText(file(dir, e.getKey()).getPath(), writer -> {
+                writer.write(String.format("# codebook %08x", ids.get(e.getKey())));
+                writer.newLine();
+                for (long[] line : e.getValue()) {
+                    StringBuilder sb = new StringBuilder();
+                    for (long n : line) sb.append(n).append(' ');
+                    writer.write(sb.toString().trim());
+                    writer.newLine();
+                }
+            });
+        }
+    }
+
+    // Adds other's counts to these, e.g. those of new images after CodebookTrainer.refine; the
+    // counts already here were taken with the codebooks before refinement, close enough for
+    // code lengths, and the sums are taken to be of other's codebooks. Channels only other has
+    // are copied.
+    public void add(EntropyModel other) {
+        for (Map.Entry<Character, long[][]> e : other.counts.entrySet()) {
+            ids.put(e.getKey(), other.ids.get(e.getKey()));
+            long[][] mine = counts.get(e.getKey());
+            if (mine == null) {
+                counts.put(e.getKey(), new long[][]{e.getValue()[0].clone(), e.getValue()[1].clone()});
+                continue;
+            }
+            for (int i = 0; i < 2; i++) {
+                if (mine[i].length != e.getValue()[i].length) {
+                    throw new IllegalArgumentException("Index counts of " + e.getKey() + " are for another codebook size");
+                }
+                for (int s = 0; s < mine[i].length; s++) mine[i][s] += e.getValue()[i][s];
+            }
+        }
+    }
+
+    // The counts saved in dir for the given codebooks (keyed like train). Channels without a
+    // file, not in codebooks, or whose file was counted with another codebook (a stale .huf left
+    // by retraining, or one from before the ids) are left out.
+    public static EntropyModel load(String dir, Map<Character, List<double[]>> codebooks) throws IOException {
+        EntropyModel model = new EntropyModel();
+        for (char c : TrainingSet.CHANNELS) {
+            File f = file(dir, c);
+            List<double[]> cb = codebooks.get(c);
+            if (!f.isFile() || cb == null) continue;
+            int id = VQFile.codebookId(cb);
+            long[][] lines = new long[2][];
+            try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
+                if (!String.format("# codebook %08x", id).equals(reader.readLine())) continue;
+                for (int i = 0; i < 2; i++) {
+                    String line = reader.readLine();
+                    if (line == null) throw new IOException("Truncated index counts: " + f);
+                    String[] parts = line.trim().split("\\s+");
+                    lines[i] = new long[parts.length];
+                    for (int j = 0; j < parts.length; j++) lines[i][j] = Long.parseLong(parts[j]);
+                    if (parts.length != cb.size()) {
+                        throw new IOException(parts.length + " index counts for " + cb.size() + " codewords: " + f);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad index counts in " + f + ": " + e.getMessage());
+            }
+            model.counts.put(c, lines);
+            model.ids.put(c, id);
+        }
+        return model;
+    }
+
+    private void add(char channel, Plane idx, List<double[]> codebook) {
+        long[][] c = counts.get(channel);
+        for (int i = 0; i < 2; i++) {
+            long[] n = IndexCoder.count(idx, new IndexCoding(IndexCoding.RAW, i == 1), codebook);
+            for (int s = 0; s < n.length; s++) c[i][s] += n[s];
+        }
+    }
+
+    private static File file(String dir, char channel) {
+        return new File(dir, Character.toLowerCase(channel) + "CB" + EXTENSION);
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Lloyd K-Means over a flat float array: vector i lives at data[i*dim .. i*dim+dim).
+// The assignment step is split into fixed-size chunks that run on the common fork-join pool,
+// every chunk accumulates into its own pre-allocated sums, and the loop stops once
+// fewer than CONVERGENCE_FRACTION of the vectors change cluster in a pass.
+// A cluster left empty by a pass is re-seeded with the member farthest from its centroid of
+// the cluster with the highest distortion. Chunks are merged in a fixed order and do not
+// depend on the core count, so a given Random seed always yields the same centroids.
+// cluster() refines with HamerlyKMeans, which ends at exactly the centroids lloyd() would
+// but skips most of the distance computations once the clusters settle.
+public class FastKMeans {
+
+    public static final int DEFAULT_MAX_ITERATIONS = 50;
+    public static final double CONVERGENCE_FRACTION = 0.01;
+    public static final KMeansSeeding.Method DEFAULT_SEEDING = KMeansSeeding.Method.KMEANS_PARALLEL;
+
+    // vectors per parallel task
+    static final int CHUNK_SIZE = 1 << 14;
+
+    public static List<double[]> cluster(List<double[]> data, int k) {
+        int dim = data.get(0).length;
+        return toList(cluster(flatten(data), dim, k, DEFAULT_MAX_ITERATIONS, new Random()), dim);
+    }
+
+    public static double[] cluster(float[] data, int dim, int k, int maxIterations, Random rand) {
+        return cluster(data, dim, k, maxIterations, DEFAULT_SEEDING, rand);
+    }
+
+    public static double[] cluster(float[] data, int dim, int k, int maxIterations,
+                                   KMeansSeeding.Method seeding, Random rand) {
+        double[] centroids = KMeansSeeding.seed(seeding, data, dim, k, rand);
+        HamerlyKMeans.lloyd(data, dim, centroids, k, maxIterations, null);
+        return centroids;
+    }
+
+    // Refine the first k centroids in place, returns the number of passes over the data
+    public static int lloyd(float[] data, int dim, double[] centroids, int k, int maxIterations) {
+        return lloyd(data, dim, centroids, k, maxIterations, null);
+    }
+
+    // As above; distortion, when given, receives each cluster's sum of squared distances
+    // in the last assignment pass
+    static int lloyd(float[] data, int dim, double[] centroids, int k, int maxIterations, double[] distortion) {
+        int n = data.length / dim;
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        double[][] sums = new double[chunks][k * dim];
+        int[][] counts = new int[chunks][k];
+        double[][] sse = new double[chunks][k];
+        int[][] farthest = new int[chunks][k];
+        double[][] farthestDist = new double[chunks][k];
+        int[] changed = new int[chunks];
+        long stopBelow = (long) (n * CONVERGENCE_FRACTION);
+
+        int passes = 0;
+        while (passes < maxIterations) {
+            passes++;
+            final double[] c = centroids;
+            DistanceKernel kernel = DistanceKernel.of(centroids, k, dim);
+            IntStream.range(0, chunks).parallel().forEach(ch -> {
+                double[] sum = sums[ch];
+                int[] count = counts[ch];
+                double[] err = sse[ch];
+                int[] far = farthest[ch];
+                double[] farDist = farthestDist[ch];
+                Arrays.fill(sum, 0);
+                Arrays.fill(count, 0);
+                Arrays.fill(err, 0);
+                Arrays.fill(farDist, -1);
+                int moved = 0;
+                float[] scratch = kernel.scratch();
+                int end = Math.min(n, (ch + 1) * CHUNK_SIZE);
+                for (int i = ch * CHUNK_SIZE; i < end; i++) {
+                    int off = i * dim;
+                    int best = kernel.nearest(data, off, scratch);
+                    if (assignment[i] != best) {
+                        assignment[i] = best;
+                        moved++;
+                    }
+                    count[best]++;
+                    int base = best * dim;
+                    double dist = 0;
+                    for (int d = 0; d < dim; d++) {
+                        double x = data[off + d];
+                        sum[base + d] += x;
+                        double diff = x - c[base + d];
+                        dist += diff * diff;
+                    }
+                    err[best] += dist;
+                    if (dist > farDist[best]) {
+                        farDist[best] = dist;
+                        far[best] = i;
+                    }
+                }
+                changed[ch] = moved;
+            });
+
+            // merge the per-chunk partial results in chunk order
+            int[] total = new int[k];
+            double[] clusterSse = new double[k];
+            int[] clusterFar = new int[k];
+            double[] clusterFarDist = new double[k];
+            Arrays.fill(clusterFarDist, -1);
+            int moved = 0;
+            for (int ch = 0; ch < chunks; ch++) {
+                moved += changed[ch];
+                for (int j = 0; j < k; j++) {
+                    total[j] += counts[ch][j];
+                    clusterSse[j] += sse[ch][j];
+                    if (farthestDist[ch][j] > clusterFarDist[j]) {
+                        clusterFarDist[j] = farthestDist[ch][j];
+                        clusterFar[j] = farthest[ch][j];
+                    }
+                }
+            }
+            if (distortion != null) System.arraycopy(clusterSse, 0, distortion, 0, k);
+
+            // the means of this pass's assignment, also on the last pass, so the centroids
+            // returned are the means of the clusters they were assigned
+            for (int j = 0; j < k; j++) {
+                if (total[j] == 0) continue; // re-seeded below
+                for (int d = 0; d < dim; d++) {
+                    double s = 0;
+                    for (int ch = 0; ch < chunks; ch++) s += sums[ch][j * dim + d];
+                    centroids[j * dim + d] = s / total[j];
+                }
+            }
+
+            int reseeded = reseedEmpty(data, dim, centroids, k, total, clusterSse, clusterFar);
+            if (moved <= stopBelow && reseeded == 0) break;
+        }
+        return passes;
+    }
+
+    // Each empty cluster takes the farthest member of the remaining cluster with the most
+    // distortion, which then is not used again this pass
+    static int reseedEmpty(float[] data, int dim, double[] centroids, int k,
+                            int[] total, double[] clusterSse, int[] clusterFar) {
+        int reseeded = 0;
+        for (int j = 0; j < k; j++) {
+            if (total[j] != 0) continue;
+            int donor = -1;
+            for (int i = 0; i < k; i++) {
+                if (total[i] > 1 && clusterSse[i] > 0 && (donor < 0 || clusterSse[i] > clusterSse[donor])) donor = i;
+            }
+            if (donor < 0) break; // fewer distinct vectors than clusters
+            int off = clusterFar[donor] * dim;
+            for (int d = 0; d < dim; d++) centroids[j * dim + d] = data[off + d];
+            clusterSse[donor] = 0;
+            reseeded++;
+        }
+        return reseeded;
+    }
+
+    static int nearest(float[] data, int off, double[] centroids, int k, int dim) {
+        if (dim == 4) return nearest4(data, off, centroids, k);
+        double minDist = Double.MAX_VALUE;
+        int bestIdx = 0;
+        for (int j = 0, base = 0; j < k; j++, base += dim) {
+            double dist = 0;
+            for (int d = 0; d < dim; d++) {
+                double diff = data[off + d] - centroids[base + d];
+                dist += diff * diff;
+            }
+            if (dist < minDist) {
+                minDist = dist;
+                bestIdx = j;
+            }
+        }
+        return bestIdx;
+    }
+
+    // 2x2 blocks are by far the common case, unrolled so the JIT keeps the block in registers
+    private static int nearest4(float[] data, int off, double[] centroids, int k) {
+        double x0 = data[off], x1 = data[off + 1], x2 = data[off + 2], x3 = data[off + 3];
+        double minDist = Double.MAX_VALUE;
+        int bestIdx = 0;
+        for (int j = 0, base = 0; j < k; j++, base += 4) {
+            double d0 = x0 - centroids[base];
+            double d1 = x1 - centroids[base + 1];
+            double d2 = x2 - centroids[base + 2];
+            double d3 = x3 - centroids[base + 3];
+            double dist = d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+            if (dist < minDist) {
+                minDist = dist;
+                bestIdx = j;
+            }
+        }
+        return bestIdx;
+    }
+
+    public static float[] flatten(List<double[]> vectors) {
+        int dim = vectors.get(0).length;
+        float[] flat = new float[vectors.size() * dim];
+        for (int i = 0; i < vectors.size(); i++) {
+            double[] v = vectors.get(i);
+            for (int d = 0; d < dim; d++) flat[i * dim + d] = (float) v[d];
+        }
+        return flat;
+    }
+
+    public static List<double[]> toList(double[] flat, int dim) {
+        List<double[]> list = new ArrayList<>(flat.length / dim);
+        for (int i = 0; i < flat.length; i += dim) {
+            list.add(Arrays.copyOfRange(flat, i, i + dim));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,172 @@
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+// One-pass YUV 4:2:0 decode: each U/V sample covers a 2×2 pixel quad, and with even block sides
+// the quad always lies inside a single Y block, so a quad costs one lookup in each index plane.
+// The U and V codewords are turned into their integer R/G/B contributions once per codebook
+// entry, the Y codewords into ints, and clamping plus packing is three table lookups, so a
+// pixel costs a few adds and no floating point. Writes straight into the INT_RGB raster without
+// building the decoded Y plane or the full-size U/V planes; the output equals the staged
+// path's exactly, whatever the image size. Given a QualityMeter, each pair of rows is measured
+// against the source as soon as it is written.
+public class FusedYUVDecoder {
+
+    // decoders are almost always asked for with the same three codebooks, strip after strip
+    private static volatile FusedYUVDecoder last;
+
+    private final List<double[]> yCodebook, uCodebook, vCodebook;
+    private final int dim;          // values per codeword, the same in all three codebooks
+
+    private final int[] yWords;     // Y codeword components as the staged decoder stores them
+    private final int[] uToB;       // (int) (2.03211 * u) per U codeword component
+    private final int[] uToG;       // (int) (0.39465 * u)
+    private final int[] vToR;       // (int) (1.13983 * v)
+    private final int[] vToG;       // (int) (0.58060 * v)
+    private final int clampOffset;
+    private final int[] clampR;     // clamped value << 16, indexed by value + clampOffset
+    private final int[] clampG;     // clamped value << 8
+    private final int[] clampB;
+
+    // Decoder for these codebooks, reusing the previous one when they are the same lists
+    public static FusedYUVDecoder of(List<double[]> yCodebook, List<double[]> uCodebook, List<double[]> vCodebook) {
+        FusedYUVDecoder d = last;
+        if (d == null || d.yCodebook != yCodebook || d.uCodebook != uCodebook || d.vCodebook != vCodebook) {
+            last = d = new FusedYUVDecoder(yCodebook, uCodebook, vCodebook);
+        }
+        return d;
+    }
+
+    public FusedYUVDecoder(List<double[]> yCodebook, List<double[]> uCodebook, List<double[]> vCodebook) {
+        this.yCodebook = yCodebook;
+        this.uCodebook = uCodebook;
+        this.vCodebook = vCodebook;
+        dim = yCodebook.get(0).length;
+        yWords = words(yCodebook, dim);
+        int[] u = words(uCodebook, dim), v = words(vCodebook, dim);
+        uToB = new int[u.length];
+        uToG = new int[u.length];
+        for (int i = 0; i < u.length; i++) {
+            uToB[i] = (int) (2.03211 * u[i]);
+            uToG[i] = (int) (0.39465 * u[i]);
+        }
+        vToR = new int[v.length];
+        vToG = new int[v.length];
+        for (int i = 0; i < v.length; i++) {
+            vToR[i] = (int) (1.13983 * v[i]);
+            vToG[i] = (int) (0.58060 * v[i]);
+        }
+
+        // every sum y + chroma term a pixel can produce lies in [lo, hi]
+        int yMin = min(yWords), yMax = max(yWords);
+        int lo = Math.min(yMin + min(vToR), Math.min(yMin - max(uToG) - max(vToG), yMin + min(uToB)));
+        int hi = Math.max(yMax + max(vToR), Math.max(yMax - min(uToG) - min(vToG), yMax + max(uToB)));
+        clampOffset = -lo;
+        clampR = new int[hi - lo + 1];
+        clampG = new int[hi - lo + 1];
+        clampB = new int[hi - lo + 1];
+        for (int s = lo; s <= hi; s++) {
+            int c = s < 0 ? 0 : (s > 255 ? 255 : s);
+            clampR[s - lo] = c << 16;
+            clampG[s - lo] = c << 8;
+            clampB[s - lo] = c;
+        }
+    }
+
+    // True when the index planes have the 4:2:0 layout of a width × height image cut into
+    // blocks with even sides, which decode() handles
+    public static boolean fits(Plane yIdx, Plane uIdx, Plane vIdx, BlockGeometry block, int width, int height) {
+        int cw = (width + 1) / 2, ch = (height + 1) / 2;
+        return block.width() % 2 == 0 && block.height() % 2 == 0
+                && yIdx.width == block.cols(width) && yIdx.height == block.rows(height)
+                && uIdx.width == block.cols(cw) && uIdx.height == block.rows(ch)
+                && vIdx.width == uIdx.width && vIdx.height == uIdx.height;
+    }
+
+    // The width × height RGB image for the {Y, U, V} index planes, see fits()
+    public BufferedImage decode(Plane yIdx, Plane uIdx, Plane vIdx, BlockGeometry block, int width, int height) {
+        return decode(yIdx, uIdx, vIdx, block, width, height, null);
+    }
+
+    // As above, feeding every finished pair of rows to meter unless it is null
+    public BufferedImage decode(Plane yIdx, Plane uIdx, Plane vIdx, BlockGeometry block, int width, int height,
+                                QualityMeter meter) {
+        if (meter != null && (meter.width() != width || meter.height() != height)) {
+            throw new IllegalArgumentException("Quality meter is for " + meter.width() + "×" + meter.height()
+                    + ", image is " + width + "×" + height);
+        }
+        if (!fits(yIdx, uIdx, vIdx, block, width, height)) {
+            throw new IllegalArgumentException("Index planes are not 4:2:0 " + block + " blocks of " + width + "×" + height);
+        }
+        if (block.dim() != dim) throw new IllegalArgumentException(dim + "-value codewords for " + block + " blocks");
+        int bw = block.width(), bh = block.height();
+        BufferedImage out = PixelIO.newRgbImage(width, height);
+        int[] data = PixelIO.rgbData(out);
+        int off = clampOffset;
+
+        // per chroma column cx: the block column of U/V sample cx and of pixel 2 * cx, and the
+        // x part of their codeword components (x-major: component i * bh + j is sample (i, j))
+        int cw = (width + 1) / 2, ch = (height + 1) / 2;
+        int[] cCol = new int[cw], cPart = new int[cw], yCol = new int[cw], yPart = new int[cw];
+        for (int cx = 0; cx < cw; cx++) {
+            cCol[cx] = cx / bw;
+            cPart[cx] = cx % bw * bh;
+            yCol[cx] = 2 * cx / bw;
+            yPart[cx] = 2 * cx % bw * bh;
+        }
+        int pairs = width / 2;      // quads two pixels wide; an odd last column is done on its own
+
+        for (int cy = 0; cy < ch; cy++) {
+            int y0 = 2 * cy;
+            boolean twoRows = y0 + 1 < height;
+            int yRow = y0 / bh * yIdx.stride, yj = y0 % bh;
+            int cRow = cy / bh * uIdx.stride, cj = cy % bh;
+            int top = y0 * width, bottom = top + width;
+            for (int cx = 0; cx < cw; cx++) {
+                int cb = cRow + cCol[cx];
+                int uc = uIdx.get(cb) * dim + cPart[cx] + cj;
+                int vc = vIdx.get(cb) * dim + cPart[cx] + cj;
+                int r = vToR[vc] + off;
+                int g = off - uToG[uc] - vToG[vc];
+                int b = uToB[uc] + off;
+                // (x0, y0) is component yc, (x0, y0 + 1) yc + 1, (x0 + 1, y0) yc + bh
+                int yc = yIdx.get(yRow + yCol[cx]) * dim + yPart[cx] + yj;
+                int x0 = 2 * cx;
+                data[top + x0] = rgb(yWords[yc], r, g, b);
+                if (twoRows) data[bottom + x0] = rgb(yWords[yc + 1], r, g, b);
+                if (cx < pairs) {
+                    data[top + x0 + 1] = rgb(yWords[yc + bh], r, g, b);
+                    if (twoRows) data[bottom + x0 + 1] = rgb(yWords[yc + bh + 1], r, g, b);
+                }
+            }
+            if (meter != null) meter.rows(data, y0, twoRows ? y0 + 2 : y0 + 1);
+        }
+        return out;
+    }
+
+    private int rgb(int y, int r, int g, int b) {
+        return clampR[y + r] | clampG[y + g] | clampB[y + b];
+    }
+
+    // codeword components, truncated and narrowed the way decompressChannel stores them in a Plane
+    private static int[] words(List<double[]> codebook, int dim) {
+        int[] w = new int[codebook.size() * dim];
+        for (int i = 0; i < codebook.size(); i++) {
+            double[] vec = codebook.get(i);
+            if (vec.length != dim) throw new IllegalArgumentException("Expected " + dim + "-value codewords, got " + vec.length);
+            for (int d = 0; d < dim; d++) w[i * dim + d] = (short) (int) vec[d];
+        }
+        return w;
+    }
+
+    private static int min(int[] a) {
+        int m = Integer.MAX_VALUE;
+        for (int v : a) m = Math.min(m, v);
+        return m;
+    }
+
+    private static int max(int[] a) {
+        int m = Integer.MIN_VALUE;
+        for (int v : a) m = Math.max(m, v);
+        return m;
+    }
+}
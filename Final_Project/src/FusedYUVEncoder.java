@@ -0,0 +1,203 @@
+import java.awt.image.BufferedImage;
+import java.util.function.Supplier;
+
+// One-pass YUV 4:2:0 encode front-end, the counterpart of FusedYUVDecoder. The image is walked
+// in bands of 2 × block-height source rows, which hold two rows of Y blocks and one row of U/V
+// blocks. Each 2×2 pixel tile of a band is read once: its four Y values and the 2×2 average of
+// U and V are computed together and written straight to their place in a row of blocks,
+// block-major and x-major within the block as the codebooks were trained, so the search reads
+// each block as a contiguous vector. The buffers belong to the band and are reused for every
+// band row; no Y, U or V plane is built, at full or at half resolution. The indices equal
+// rgbToYuv, subSample and compressChannel's exactly, whatever the image and block size.
+// Bands are independent; ParallelEncoder.compress spreads them over its threads.
+public final class FusedYUVEncoder {
+
+    // Nearest codeword of the block at data[off .. off+dim); each band makes its own, so any
+    // scratch it holds is never shared between threads
+    interface Quantiser {
+        int nearest(float[] data, int off);
+    }
+
+    private final BufferedImage image;
+    private final BlockGeometry block;
+    private final int width, height;
+    private final int cw, ch;               // sub-sampled size
+    private final Supplier<Quantiser> y, u, v;
+    private final Plane[] idx;
+    private final int[] yOffset;            // Y column (block padding included) -> offset in a row of blocks
+    private final int[] cOffset;            // same for U/V columns
+
+    // Encoder for image with flat codebooks, searched like ImageUtilsYUV.compressChannel
+    public FusedYUVEncoder(BufferedImage image, BlockGeometry block,
+                           CodebookIndex yCodebook, CodebookIndex uCodebook, CodebookIndex vCodebook) {
+        this(image, block, quantiser(yCodebook, block), quantiser(uCodebook, block), quantiser(vCodebook, block));
+    }
+
+    // Same with tree codebooks: each block gets the leaf it descends to
+    public FusedYUVEncoder(BufferedImage image, BlockGeometry block,
+                           TreeCodebook yCodebook, TreeCodebook uCodebook, TreeCodebook vCodebook) {
+        this(image, block, quantiser(yCodebook, block), quantiser(uCodebook, block), quantiser(vCodebook, block));
+    }
+
+    private FusedYUVEncoder(BufferedImage image, BlockGeometry block,
+                            Supplier<Quantiser> y, Supplier<Quantiser> u, Supplier<Quantiser> v) {
+        this.image = image;
+        this.block = block;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.cw = (width + 1) / 2;
+        this.ch = (height + 1) / 2;
+        this.y = y;
+        this.u = u;
+        this.v = v;
+        idx = new Plane[]{new Plane(block.cols(width), block.rows(height)),
+                new Plane(block.cols(cw), block.rows(ch)), new Plane(block.cols(cw), block.rows(ch))};
+        yOffset = offsets(idx[0].width * block.width(), block);
+        cOffset = offsets(idx[1].width * block.width(), block);
+    }
+
+    // The {Y, U, V} index grids encode() fills in
+    public Plane[] indices() {
+        return idx;
+    }
+
+    // Bands in the image: as many as U/V block rows, each also holding Y block rows 2b and 2b+1
+    public int bands() {
+        return idx[1].height;
+    }
+
+    // Every band, in order on the calling thread
+    public Plane[] encode() {
+        encode(0, bands());
+        return idx;
+    }
+
+    // Bands [from, to); each writes only its own rows of the index grids
+    public void encode(int from, int to) {
+        int bh = block.height(), dim = block.dim();
+        int yCols = idx[0].width, cCols = idx[1].width;
+        float[] yBlocks = new float[2 * yCols * dim];    // the band's two rows of Y blocks
+        float[] uBlocks = new float[cCols * dim], vBlocks = new float[cCols * dim];
+        int[] top = new int[width], bottom = new int[width];
+        Quantiser qy = y.get(), qu = u.get(), qv = v.get();
+
+        for (int b = from; b < to; b++) {
+            // U/V row j of the band takes its tile from source rows 2(b*bh + j) and the next
+            for (int j = 0; j < bh; j++) {
+                int cy = b * bh + j;
+                if (cy < ch) {
+                    tiles(cy, j, top, bottom, yBlocks, uBlocks, vBlocks);
+                } else {
+                    // past the bottom: the band's last U/V row again, as compressChannel pads
+                    copyRow(uBlocks, cOffset, 0, ch - 1 - b * bh, j, bh);
+                    copyRow(vBlocks, cOffset, 0, ch - 1 - b * bh, j, bh);
+                }
+            }
+            for (int r = height - 2 * b * bh; r < 2 * bh; r++) {
+                copyRow(yBlocks, yOffset, yCols * dim, height - 1 - 2 * b * bh, r, bh);
+            }
+
+            for (int half = 0; half < 2 && 2 * b + half < idx[0].height; half++) {
+                for (int bx = 0; bx < yCols; bx++) {
+                    idx[0].set(bx, 2 * b + half, qy.nearest(yBlocks, (half * yCols + bx) * dim));
+                }
+            }
+            for (int bx = 0; bx < cCols; bx++) {
+                idx[1].set(bx, b, qu.nearest(uBlocks, bx * dim));
+                idx[2].set(bx, b, qv.nearest(vBlocks, bx * dim));
+            }
+        }
+    }
+
+    // The tiles of U/V row cy, which is row j of its band: Y rows 2j and 2j+1 of the band and
+    // U/V row j, each padded out to whole blocks with its last column
+    private void tiles(int cy, int j, int[] top, int[] bottom,
+                       float[] yBlocks, float[] uBlocks, float[] vBlocks) {
+        int bh = block.height(), rowBlocks = idx[0].width * block.dim();
+        int y0 = 2 * cy;
+        boolean second = y0 + 1 < height;   // an odd last row is its own bottom half
+        PixelIO.readRow(image, y0, top);
+        if (second) PixelIO.readRow(image, y0 + 1, bottom);
+        int[] lower = second ? bottom : top;
+
+        // Y rows 2j and 2j+1 of the band, each in one of its two rows of blocks
+        int t = 2 * j / bh * rowBlocks + 2 * j % bh;
+        int l = (2 * j + 1) / bh * rowBlocks + (2 * j + 1) % bh;
+        for (int cx = 0; cx < cw; cx++) {
+            int x0 = 2 * cx, x1 = Math.min(x0 + 1, width - 1);
+            int p00 = top[x0], p01 = top[x1], p10 = lower[x0], p11 = lower[x1];
+            yBlocks[t + yOffset[x0]] = luma(p00);
+            yBlocks[t + yOffset[x1]] = luma(p01);
+            if (second) {
+                yBlocks[l + yOffset[x0]] = luma(p10);
+                yBlocks[l + yOffset[x1]] = luma(p11);
+            }
+            // the 2×2 average subSample takes, of the per-pixel values rgbToYuv would store
+            int c = cOffset[cx] + j;
+            uBlocks[c] = (chromaU(p00) + chromaU(p01) + chromaU(p10) + chromaU(p11)) / 4;
+            vBlocks[c] = (chromaV(p00) + chromaV(p01) + chromaV(p10) + chromaV(p11)) / 4;
+        }
+
+        for (int x = width; x < yOffset.length; x++) {
+            yBlocks[t + yOffset[x]] = yBlocks[t + yOffset[width - 1]];
+            if (second) yBlocks[l + yOffset[x]] = yBlocks[l + yOffset[width - 1]];
+        }
+        for (int cx = cw; cx < cOffset.length; cx++) {
+            uBlocks[cOffset[cx] + j] = uBlocks[cOffset[cx - 1] + j];
+            vBlocks[cOffset[cx] + j] = vBlocks[cOffset[cx - 1] + j];
+        }
+    }
+
+    private static int luma(int rgb) {
+        return ImageUtilsYUV.toY(rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF);
+    }
+
+    private static int chromaU(int rgb) {
+        return ImageUtilsYUV.toU(rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF);
+    }
+
+    private static int chromaV(int rgb) {
+        return ImageUtilsYUV.toV(rgb >> 16 & 0xFF, rgb >> 8 & 0xFF, rgb & 0xFF);
+    }
+
+    // Row `to` of a band's rows of blocks set to row `from`; rows of blocks are rowBlocks apart
+    private static void copyRow(float[] blocks, int[] offset, int rowBlocks, int from, int to, int bh) {
+        int src = from / bh * rowBlocks + from % bh, dst = to / bh * rowBlocks + to % bh;
+        for (int x = 0; x < offset.length; x++) blocks[dst + offset[x]] = blocks[src + offset[x]];
+    }
+
+    // where column x of a row of blocks starts: block x / bw, then column x % bw of that block
+    private static int[] offsets(int columns, BlockGeometry block) {
+        int bw = block.width(), bh = block.height();
+        int[] offset = new int[columns];
+        for (int x = 0; x < columns; x++) offset[x] = x / bw * block.dim() + x % bw * bh;
+        return offset;
+    }
+
+    private static Supplier<Quantiser> quantiser(CodebookIndex codebook, BlockGeometry block) {
+        checkDim(codebook.dim(), block);
+        if (DistanceKernel.vectorized()) {
+            DistanceKernel kernel = codebook.kernel();
+            return () -> {
+                float[] scratch = kernel.scratch();
+                return (data, off) -> kernel.nearest(data, off, scratch);
+            };
+        }
+        return () -> {
+            double[] values = new double[codebook.dim()];
+            return (data, off) -> {
+                for (int d = 0; d < values.length; d++) values[d] = data[off + d];
+                return codebook.nearest(values);
+            };
+        };
+    }
+
+    private static Supplier<Quantiser> quantiser(TreeCodebook codebook, BlockGeometry block) {
+        checkDim(codebook.dim(), block);
+        return () -> codebook::nearest;
+    }
+
+    private static void checkDim(int dim, BlockGeometry block) {
+        if (dim != block.dim()) throw new IllegalArgumentException(dim + "-value codewords for " + block + " blocks");
+    }
+}
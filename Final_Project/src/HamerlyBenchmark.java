@@ -0,0 +1,52 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Plain Lloyd against HamerlyKMeans from the same seeded centroids on the training set: checks
+// that both end at identical centroids and reports, per pass, how many of the n × k
+// point-to-centroid distances Hamerly's bounds saved.
+// Run from the project folder: java HamerlyBenchmark [trainingDir] [maxBlocks] [seed]
+public class HamerlyBenchmark {
+    public static void main(String[] args) throws Exception {
+        String trainingDir = args.length > 0 ? args[0] : "training";
+        int maxBlocks = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        TrainingSet set = TrainingSet.load(trainingDir);
+        run(set, 'R', CodebookTrainer.RGB_SIZE, maxBlocks, seed);
+        run(set, 'Y', CodebookTrainer.Y_SIZE, maxBlocks, seed);
+        run(set, 'U', CodebookTrainer.UV_SIZE, maxBlocks, seed);
+    }
+
+    private static void run(TrainingSet set, char channel, int k, int maxBlocks, long seed) {
+        int dim = set.dim();
+        float[] data = set.data(channel);
+        if (data.length / dim > maxBlocks) data = Arrays.copyOf(data, maxBlocks * dim);
+        long n = data.length / dim;
+        double[] seeded = KMeansSeeding.seed(FastKMeans.DEFAULT_SEEDING, data, dim, k, new Random(seed));
+
+        double[] plain = seeded.clone();
+        long t0 = System.nanoTime();
+        int plainPasses = FastKMeans.lloyd(data, dim, plain, k, FastKMeans.DEFAULT_MAX_ITERATIONS);
+        long plainNanos = System.nanoTime() - t0;
+
+        double[] bounded = seeded.clone();
+        long[] distances = new long[FastKMeans.DEFAULT_MAX_ITERATIONS];
+        t0 = System.nanoTime();
+        int passes = HamerlyKMeans.lloyd(data, dim, bounded, k, FastKMeans.DEFAULT_MAX_ITERATIONS, distances);
+        long boundedNanos = System.nanoTime() - t0;
+
+        boolean same = plainPasses == passes && Arrays.equals(plain, bounded);
+        System.out.printf("%c (k=%d), %,d blocks: Lloyd %d passes %,d ms, Hamerly %d passes %,d ms (%.2fx), %s%n",
+                channel, k, n, plainPasses, plainNanos / 1_000_000, passes, boundedNanos / 1_000_000,
+                (double) plainNanos / boundedNanos, same ? "identical centroids" : "CENTROIDS DIFFER");
+        long all = 0, full = n * k;
+        for (int p = 0; p < passes; p++) {
+            all += distances[p];
+            System.out.printf("  pass %2d  %,15d of %,15d distances  %5.1f%% saved%n",
+                    p + 1, distances[p], full, 100.0 * (full - distances[p]) / full);
+        }
+        System.out.printf("  total    %,15d of %,15d distances  %5.1f%% saved%n",
+                all, full * passes, 100.0 * (full * passes - all) / (full * passes));
+        if (!same) throw new IllegalStateException("Hamerly diverged from Lloyd on " + channel);
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+// Lloyd iterations with Hamerly's bounds ("Making k-means even faster"): a vector whose
+// distance to its own centroid is below both half the gap from that centroid to its nearest
+// other centroid and a lower bound on its distance to every other centroid cannot change
+// cluster, so the scan over all k centroids is skipped. The distance to the own centroid is
+// still taken every pass, since the per-cluster distortion drives the empty-cluster re-seeding.
+// Sums are accumulated and merged exactly like FastKMeans.lloyd, so both give the same
+// centroids for the same starting point; only the number of distances computed differs.
+// Elkan's variant keeps k lower bounds per vector, far too much memory for millions of blocks.
+public class HamerlyKMeans {
+
+    // a vector is only skipped when its bound wins by more than rounding could account for
+    private static final double MARGIN = 1e-9;
+
+    // Same contract as FastKMeans.lloyd; distances, when given, receives the number of
+    // point-to-centroid distances computed in each pass
+    public static int lloyd(float[] data, int dim, double[] centroids, int k, int maxIterations, long[] distances) {
+        int n = data.length / dim;
+        int[] assignment = new int[n];
+        Arrays.fill(assignment, -1);
+        double[] lower = new double[n];
+
+        int chunks = (n + FastKMeans.CHUNK_SIZE - 1) / FastKMeans.CHUNK_SIZE;
+        double[][] sums = new double[chunks][k * dim];
+        int[][] counts = new int[chunks][k];
+        double[][] sse = new double[chunks][k];
+        int[][] farthest = new int[chunks][k];
+        double[][] farthestDist = new double[chunks][k];
+        int[] changed = new int[chunks];
+        long[] computed = new long[chunks];
+        long stopBelow = (long) (n * FastKMeans.CONVERGENCE_FRACTION);
+
+        double[] halfGap = new double[k];
+        double[] previous = new double[k * dim];
+        int passes = 0;
+        while (passes < maxIterations) {
+            passes++;
+            halfGaps(centroids, k, dim, halfGap);
+            final double[] c = centroids;
+            DistanceKernel kernel = DistanceKernel.of(centroids, k, dim);
+            IntStream.range(0, chunks).parallel().forEach(ch -> {
+                double[] sum = sums[ch];
+                int[] count = counts[ch];
+                double[] err = sse[ch];
+                int[] far = farthest[ch];
+                double[] farDist = farthestDist[ch];
+                Arrays.fill(sum, 0);
+                Arrays.fill(count, 0);
+                Arrays.fill(err, 0);
+                Arrays.fill(farDist, -1);
+                int moved = 0;
+                long dists = 0;
+                double[] two = new double[2];
+                float[] scratch = kernel.scratch();
+                int end = Math.min(n, (ch + 1) * FastKMeans.CHUNK_SIZE);
+                for (int i = ch * FastKMeans.CHUNK_SIZE; i < end; i++) {
+                    int off = i * dim;
+                    int best = assignment[i];
+                    double dist = 0;
+                    boolean scan = best < 0;
+                    if (!scan) {
+                        dist = dist(data, off, c, best * dim, dim);
+                        dists++;
+                        double upper = Math.sqrt(dist);
+                        scan = upper + MARGIN + upper * MARGIN >= Math.max(halfGap[best], lower[i]);
+                    }
+                    if (scan) {
+                        int nearest = kernel.nearest2(data, off, scratch, two);
+                        dists += k;
+                        dist = two[0];
+                        lower[i] = Math.sqrt(two[1]);
+                        if (best != nearest) {
+                            assignment[i] = nearest;
+                            moved++;
+                        }
+                        best = nearest;
+                    }
+                    count[best]++;
+                    int base = best * dim;
+                    for (int d = 0; d < dim; d++) sum[base + d] += data[off + d];
+                    err[best] += dist;
+                    if (dist > farDist[best]) {
+                        farDist[best] = dist;
+                        far[best] = i;
+                    }
+                }
+                changed[ch] = moved;
+                computed[ch] = dists;
+            });
+
+            int[] total = new int[k];
+            double[] clusterSse = new double[k];
+            int[] clusterFar = new int[k];
+            double[] clusterFarDist = new double[k];
+            Arrays.fill(clusterFarDist, -1);
+            int moved = 0;
+            long dists = 0;
+            for (int ch = 0; ch < chunks; ch++) {
+                moved += changed[ch];
+                dists += computed[ch];
+                for (int j = 0; j < k; j++) {
+                    total[j] += counts[ch][j];
+                    clusterSse[j] += sse[ch][j];
+                    if (farthestDist[ch][j] > clusterFarDist[j]) {
+                        clusterFarDist[j] = farthestDist[ch][j];
+                        clusterFar[j] = farthest[ch][j];
+                    }
+                }
+            }
+            if (distances != null && passes <= distances.length) distances[passes - 1] = dists;
+
+            // the means first, as FastKMeans.lloyd, so the last pass also moves the centroids
+            System.arraycopy(centroids, 0, previous, 0, k * dim);
+            for (int j = 0; j < k; j++) {
+                if (total[j] == 0) continue;
+                for (int d = 0; d < dim; d++) {
+                    double s = 0;
+                    for (int ch = 0; ch < chunks; ch++) s += sums[ch][j * dim + d];
+                    centroids[j * dim + d] = s / total[j];
+                }
+            }
+            int reseeded = FastKMeans.reseedEmpty(data, dim, centroids, k, total, clusterSse, clusterFar);
+            if (moved <= stopBelow && reseeded == 0) break;
+            loosen(centroids, previous, k, dim, assignment, lower);
+        }
+        return passes;
+    }
+
+    // Lower every bound by the farthest any other centroid moved this pass
+    private static void loosen(double[] centroids, double[] previous, int k, int dim, int[] assignment, double[] lower) {
+        double maxDrift = 0, secondDrift = 0;
+        int maxAt = -1;
+        for (int j = 0; j < k; j++) {
+            double drift = Math.sqrt(dist(centroids, j * dim, previous, j * dim, dim));
+            if (drift > maxDrift) {
+                secondDrift = maxDrift;
+                maxDrift = drift;
+                maxAt = j;
+            } else if (drift > secondDrift) {
+                secondDrift = drift;
+            }
+        }
+        if (maxDrift == 0) return;
+        final double max = maxDrift, second = secondDrift;
+        final int at = maxAt;
+        IntStream.range(0, (lower.length + FastKMeans.CHUNK_SIZE - 1) / FastKMeans.CHUNK_SIZE).parallel().forEach(ch -> {
+            int end = Math.min(lower.length, (ch + 1) * FastKMeans.CHUNK_SIZE);
+            for (int i = ch * FastKMeans.CHUNK_SIZE; i < end; i++) {
+                lower[i] -= assignment[i] == at ? second : max;
+            }
+        });
+    }
+
+    // halfGap[j] = half the distance from centroid j to its nearest other centroid
+    private static void halfGaps(double[] centroids, int k, int dim, double[] halfGap) {
+        Arrays.fill(halfGap, Double.MAX_VALUE);
+        for (int j = 0; j < k; j++) {
+            for (int o = j + 1; o < k; o++) {
+                double d = dist(centroids, j * dim, centroids, o * dim, dim);
+                if (d < halfGap[j]) halfGap[j] = d;
+                if (d < halfGap[o]) halfGap[o] = d;
+            }
+        }
+        for (int j = 0; j < k; j++) halfGap[j] = k > 1 ? Math.sqrt(halfGap[j]) / 2 : Double.MAX_VALUE;
+    }
+
+    private static double dist(float[] data, int off, double[] centroids, int base, int dim) {
+        double dist = 0;
+        for (int d = 0; d < dim; d++) {
+            double diff = data[off + d] - centroids[base + d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+
+    private static double dist(double[] a, int offA, double[] b, int offB, int dim) {
+        double dist = 0;
+        for (int d = 0; d < dim; d++) {
+            double diff = a[offA + d] - b[offB + d];
+            dist += diff * diff;
+        }
+        return dist;
+    }
+}
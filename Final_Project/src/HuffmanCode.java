@@ -0,0 +1,133 @@
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+// Canonical Huffman code over the symbols 0..n-1. Codes are at most lookupBits() long, so
+// decoding is one lookup in a 2^lookupBits table indexed by the next bits of the stream.
+// Every symbol gets a code, also those never counted: a code built from training statistics
+// still has to encode whatever index an image happens to use.
+public final class HuffmanCode {
+
+    // longest code for up to 2048 symbols; larger alphabets get one bit more than a flat code
+    private static final int MIN_LIMIT = 12;
+    // bounds the lookup table of a code read from a file
+    private static final int MAX_LENGTH = 20;
+
+    private final int[] lengths;
+    private final int[] codes;
+    private final int lookupBits;
+    private final int[] table;      // symbol << 5 | code length, by the next lookupBits bits
+
+    private HuffmanCode(int[] lengths) {
+        this.lengths = lengths;
+        int max = 0;
+        for (int len : lengths) max = Math.max(max, len);
+        lookupBits = max;
+        codes = canonicalCodes(lengths);
+        table = new int[1 << lookupBits];
+        for (int s = 0; s < lengths.length; s++) {
+            int shift = lookupBits - lengths[s];
+            int first = codes[s] << shift;
+            Arrays.fill(table, first, first + (1 << shift), s << 5 | lengths[s]);
+        }
+    }
+
+    // The code for these symbol frequencies; symbols counted 0 are treated as counted once
+    public static HuffmanCode fromCounts(long[] counts) {
+        int n = counts.length;
+        if (n == 1) return new HuffmanCode(new int[]{1});
+        int limit = Math.max(MIN_LIMIT, bitsFor(n) + 1);
+
+        // plain Huffman tree: nodes 0..n-1 are the symbols, parents are numbered from n up
+        int[] parent = new int[2 * n - 1];
+        PriorityQueue<long[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0]
+                ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (int s = 0; s < n; s++) queue.add(new long[]{counts[s] + 1, s});
+        for (int next = n; queue.size() > 1; next++) {
+            long[] a = queue.poll(), b = queue.poll();
+            parent[(int) a[1]] = next;
+            parent[(int) b[1]] = next;
+            queue.add(new long[]{a[0] + b[0], next});
+        }
+        int root = 2 * n - 2;
+        int[] depth = new int[2 * n - 1];
+        for (int node = root - 1; node >= 0; node--) depth[node] = depth[parent[node]] + 1;
+
+        // codes per length, the over-long ones moved up the tree as in JPEG (ITU T.81 K.3)
+        int maxDepth = 0;
+        for (int s = 0; s < n; s++) maxDepth = Math.max(maxDepth, depth[s]);
+        int[] perLength = new int[Math.max(maxDepth, limit) + 1];
+        for (int s = 0; s < n; s++) perLength[depth[s]]++;
+        for (int i = maxDepth; i > limit; i--) {
+            while (perLength[i] > 0) {
+                int j = i - 2;
+                while (perLength[j] == 0) j--;
+                perLength[i] -= 2;
+                perLength[i - 1]++;
+                perLength[j + 1] += 2;
+                perLength[j]--;
+            }
+        }
+
+        // the most frequent symbols take the shortest codes
+        Integer[] bySize = new Integer[n];
+        for (int s = 0; s < n; s++) bySize[s] = s;
+        Arrays.sort(bySize, (a, b) -> counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : a - b);
+        int[] lengths = new int[n];
+        for (int len = 1, i = 0; len <= limit; len++) {
+            for (int c = 0; c < perLength[len]; c++) lengths[bySize[i++]] = len;
+        }
+        return new HuffmanCode(lengths);
+    }
+
+    // The code with these code lengths, e.g. as read back from a file
+    public static HuffmanCode fromLengths(int[] lengths) {
+        long kraft = 0;
+        for (int len : lengths) {
+            if (len < 1 || len > MAX_LENGTH) throw new IllegalArgumentException("Invalid code length " + len);
+            kraft += 1L << (MAX_LENGTH - len);
+        }
+        if (kraft > 1L << MAX_LENGTH) throw new IllegalArgumentException("Code lengths do not form a prefix code");
+        return new HuffmanCode(lengths.clone());
+    }
+
+    public int symbols() {
+        return lengths.length;
+    }
+
+    public int length(int symbol) {
+        return lengths[symbol];
+    }
+
+    public int code(int symbol) {
+        return codes[symbol];
+    }
+
+    public int lookupBits() {
+        return lookupBits;
+    }
+
+    // symbol << 5 | code length for a window of the next lookupBits() bits, MSB first
+    public int lookup(int window) {
+        return table[window];
+    }
+
+    // codes assigned in order of length, then symbol
+    private static int[] canonicalCodes(int[] lengths) {
+        Integer[] order = new Integer[lengths.length];
+        for (int s = 0; s < order.length; s++) order[s] = s;
+        Arrays.sort(order, (a, b) -> lengths[a] != lengths[b] ? lengths[a] - lengths[b] : a - b);
+        int[] codes = new int[lengths.length];
+        int code = 0, len = lengths[order[0]];
+        for (int i = 0; i < order.length; i++) {
+            int s = order[i];
+            code <<= lengths[s] - len;
+            len = lengths[s];
+            codes[s] = code++;
+        }
+        return codes;
+    }
+
+    private static int bitsFor(int n) {
+        return 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+}
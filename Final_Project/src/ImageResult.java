@@ -0,0 +1,52 @@
+// Outcome of running one test image through both the RGB and the YUV encoder.
+// Times are in nanoseconds, sizes are the .vq files actually written, quality is measured on
+// the decoded R, G and B of each (see QualityMeter).
+public record ImageResult(String category,
+                          String name,
+                          int width,
+                          int height,
+                          QualityMeter.Quality rgbQuality,
+                          QualityMeter.Quality yuvQuality,
+                          long rgbBytes,
+                          long yuvBytes,
+                          long readNanos,
+                          long rgbEncodeNanos,
+                          long rgbDecodeNanos,
+                          long yuvEncodeNanos,
+                          long yuvDecodeNanos,
+                          String error) {
+
+    public static ImageResult failed(String category, String name, String error) {
+        return new ImageResult(category, name, 0, 0, null, null, 0, 0, 0, 0, 0, 0, 0, error);
+    }
+
+    public boolean ok() {
+        return error == null;
+    }
+
+    public double rgbPsnr() {
+        return rgbQuality.psnr();
+    }
+
+    public double yuvPsnr() {
+        return yuvQuality.psnr();
+    }
+
+    // on-disk ratio against raw 24-bit RGB
+    public double rgbRatio() {
+        return 3.0 * width * height / rgbBytes;
+    }
+
+    public double yuvRatio() {
+        return 3.0 * width * height / yuvBytes;
+    }
+
+    // on-disk bits per pixel
+    public double rgbBpp() {
+        return 8.0 * rgbBytes / ((double) width * height);
+    }
+
+    public double yuvBpp() {
+        return 8.0 * yuvBytes / ((double) width * height);
+    }
+}
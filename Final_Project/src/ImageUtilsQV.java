@@ -5,51 +5,78 @@ import java.util.ArrayList;
 public class ImageUtilsQV {
 
     //Extract R G B from image
-    public static int[][] extractComponent(BufferedImage img, char component) {
+    public static Plane extractComponent(BufferedImage img, char component) {
+        int shift = component == 'R' ? 16 : component == 'G' ? 8 : 0;
         int w = img.getWidth(), h = img.getHeight();
-        int[][] comp = new int[h][w];
+        Plane comp = new Plane(w, h);
+        int[] row = new int[w];
         for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int rgb = img.getRGB(x, y);
-                int r = (rgb >> 16) & 0xFF;
-                int g = (rgb >> 8) & 0xFF;
-                int b = rgb & 0xFF;
-                if (component == 'R') comp[y][x] = r;
-                else if (component == 'G') comp[y][x] = g;
-                else comp[y][x] = b;
+            PixelIO.readRow(img, y, row);
+            for (int x = 0, i = y * w; x < w; x++, i++) {
+                comp.set(i, (row[x] >> shift) & 0xFF);
             }
         }
         return comp;
     }
 
+    //Extract all of R, G, B in a single pass over the image
+    public static Plane[] extractComponents(BufferedImage img) {
+        return PixelIO.readPlanes(img);
+    }
+
     //Compress to Codebook
-    public static int[][] compressComponent(int[][] comp, List<double[]> codebook) {
-        int h = comp.length, w = comp[0].length;
-        int[][] idx = new int[h][w];
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                idx[y][x] = nearest(comp[y][x], codebook);
-            }
+    public static Plane compressComponent(Plane comp, List<double[]> codebook) {
+        CodebookIndex index = CodebookIndex.of(codebook);
+        byte[] table = index.encodeTable();
+        return table != null ? compressComponent(comp, table) : compressComponent(comp, index);
+    }
+
+    //Compress with a precomputed value -> index table, one lookup per pixel
+    public static Plane compressComponent(Plane comp, byte[] table) {
+        Plane idx = new Plane(comp.width, comp.height);
+        for (int i = 0; i < comp.width * comp.height; i++) {
+            idx.set(i, table[comp.get(i)] & 0xFF);
         }
         return idx;
     }
 
+    public static Plane compressComponent(Plane comp, CodebookIndex codebook) {
+        Plane idx = new Plane(comp.width, comp.height);
+        for (int i = 0; i < comp.width * comp.height; i++) {
+            idx.set(i, codebook.nearestScalar(comp.get(i)));
+        }
+        return idx;
+    }
+
+    //Rows [fromY, toY) of compressComponent into idx, one band of a ParallelEncoder
+    static void compressRows(Plane comp, CodebookIndex index, Plane idx, int fromY, int toY) {
+        byte[] table = index.encodeTable();
+        int end = toY * comp.stride;
+        if (table != null) {
+            for (int i = fromY * comp.stride; i < end; i++) idx.set(i, table[comp.get(i)] & 0xFF);
+        } else {
+            for (int i = fromY * comp.stride; i < end; i++) idx.set(i, index.nearestScalar(comp.get(i)));
+        }
+    }
 
-    public static List<double[]> getBlocks(int[][] comp) {
-        int blockSize = 2;
-        int h = comp.length;
-        int w = comp[0].length;
-        int cropH = (h / blockSize) * blockSize;
-        int cropW = (w / blockSize) * blockSize;
+
+    public static List<double[]> getBlocks(Plane comp) {
+        return getBlocks(comp, BlockGeometry.DEFAULT);
+    }
+
+    //Row-major blocks, row-major within the block, the last column and row repeated past the edges
+    public static List<double[]> getBlocks(Plane comp, BlockGeometry geometry) {
+        int bw = geometry.width(), bh = geometry.height();
         List<double[]> blocks = new ArrayList<>();
 
-        for (int y = 0; y < cropH; y += blockSize) {
-            for (int x = 0; x < cropW; x += blockSize) {
-                double[] block = new double[blockSize * blockSize];
+        for (int by = 0; by < geometry.rows(comp.height); by++) {
+            for (int bx = 0; bx < geometry.cols(comp.width); bx++) {
+                double[] block = new double[geometry.dim()];
                 int idx = 0;
-                for (int dy = 0; dy < blockSize; dy++) {
-                    for (int dx = 0; dx < blockSize; dx++) {
-                        block[idx++] = comp[y + dy][x + dx];
+                for (int dy = 0; dy < bh; dy++) {
+                    int y = Math.min(by * bh + dy, comp.height - 1);
+                    for (int dx = 0; dx < bw; dx++) {
+                        block[idx++] = comp.get(Math.min(bx * bw + dx, comp.width - 1), y);
                     }
                 }
                 blocks.add(block);
@@ -58,32 +85,32 @@ public class ImageUtilsQV {
         return blocks;
     }
     //decompress codebook into RGB again
-    public static int[][] decompressComponent(int[][] idx, List<double[]> codebook) {
-        int h = idx.length, w = idx[0].length;
-        int[][] comp = new int[h][w];
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                comp[y][x] = (int) codebook.get(idx[y][x])[0];
-            }
+    public static Plane decompressComponent(Plane idx, List<double[]> codebook) {
+        return decompressComponent(idx, CodebookIndex.of(codebook).decodeTable());
+    }
+
+    //decompress with a precomputed index -> value table
+    public static Plane decompressComponent(Plane idx, int[] table) {
+        Plane comp = new Plane(idx.width, idx.height);
+        for (int i = 0; i < idx.width * idx.height; i++) {
+            comp.set(i, table[idx.get(i)]);
         }
         return comp;
     }
 
     //merge block we made to the image
-    public static BufferedImage mergeComponents(int[][] r, int[][] g, int[][] b) {
-        int h = r.length, w = r[0].length;
-        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int pixel = (r[y][x] << 16) | (g[y][x] << 8) | b[y][x];
-                img.setRGB(x, y, pixel);
-            }
+    public static BufferedImage mergeComponents(Plane r, Plane g, Plane b) {
+        int w = r.width, h = r.height;
+        BufferedImage img = PixelIO.newRgbImage(w, h);
+        int[] data = PixelIO.rgbData(img);
+        for (int i = 0; i < w * h; i++) {
+            data[i] = (r.get(i) << 16) | (g.get(i) << 8) | b.get(i);
         }
         return img;
     }
 
-    //calculate the nearest codebook to the pixel
-    private static int nearest(int value, List<double[]> codebook) {
+    //calculate the nearest codebook to the pixel (exhaustive scan, CodebookIndex.nearestScalar gives the same answer)
+    static int nearest(int value, List<double[]> codebook) {
         double minDist = Double.MAX_VALUE;
         int best = 0;
         for (int i = 0; i < codebook.size(); i++) {
@@ -97,16 +124,14 @@ public class ImageUtilsQV {
     }
 
     //calculate PNSR
-    public static double computePSNR(int[][] orig, int[][] recon) {
+    public static double computePSNR(Plane orig, Plane recon) {
         double mse = 0.0;
-        int h = orig.length, w = orig[0].length;
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                double diff = orig[y][x] - recon[y][x];
-                mse += diff * diff;
-            }
+        int n = orig.width * orig.height;
+        for (int i = 0; i < n; i++) {
+            double diff = orig.get(i) - recon.get(i);
+            mse += diff * diff;
         }
-        mse /= (h * w);
+        mse /= n;
         return 10 * Math.log10(255 * 255 / mse);
     }
 }
@@ -1,117 +1,239 @@
 
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.List;
 
 public class ImageUtilsYUV {
 
-    private static final int BLOCK_SIZE = 2;
+    // chroma planes are sampled at 1/SUBSAMPLE of the resolution each way (4:2:0)
+    private static final int SUBSAMPLE = 2;
 
 
-     // Convert an RGB image to separate Y,U,V 2D arrays
-    public static int[][][] rgbToYuv(BufferedImage image) {
+     // Convert an RGB image to separate Y,U,V planes
+    public static Plane[] rgbToYuv(BufferedImage image) {
         int width = image.getWidth();
         int height = image.getHeight();
-        int[][] Y = new int[width][height];
-        int[][] U = new int[width][height];
-        int[][] V = new int[width][height];
+        Plane Y = new Plane(width, height);
+        Plane U = new Plane(width, height);
+        Plane V = new Plane(width, height);
 
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int rgb = image.getRGB(x, y);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            PixelIO.readRow(image, y, row);
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                int rgb = row[x];
                 int r = (rgb >> 16) & 0xFF;
                 int g = (rgb >> 8)  & 0xFF;
                 int b = rgb & 0xFF;
-                // standard conversion
-                Y[x][y] = (int)(0.299 * r + 0.587 * g + 0.114 * b);
-                U[x][y] = (int)(-0.14713 * r - 0.28886 * g + 0.436 * b);
-                V[x][y] = (int)( 0.615   * r - 0.51499 * g - 0.10001 * b);
+                Y.set(i, toY(r, g, b));
+                U.set(i, toU(r, g, b));
+                V.set(i, toV(r, g, b));
             }
         }
-        return new int[][][]{ Y, U, V };
+        return new Plane[]{ Y, U, V };
+    }
+
+    // standard conversion, in integers: the same coefficients scaled to whole numbers and the
+    // result truncated towards zero, exactly, where the double form could land just below a
+    // whole number (one Y in ~5000 colours came out 1 lower)
+    public static int toY(int r, int g, int b) {
+        return (299 * r + 587 * g + 114 * b) / 1000;
+    }
+
+    public static int toU(int r, int g, int b) {
+        return (-14713 * r - 28886 * g + 43600 * b) / 100000;
+    }
+
+    public static int toV(int r, int g, int b) {
+        return (61500 * r - 51499 * g - 10001 * b) / 100000;
     }
 
 
      //sub-sample a channel by averaging each non-overlapping 2×2 block → 1 pixel.
-     //Result is half width, half height.
-
-    public static int[][] subSample(int[][] channel) {
-        int width  = channel.length;
-        int height = channel[0].length;
-        int newW = width  / BLOCK_SIZE;
-        int newH = height / BLOCK_SIZE;
-        int[][] sub = new int[newW][newH];
-
-        for (int x = 0; x < newW; x++) {
-            for (int y = 0; y < newH; y++) {
-                int sum = 0;
+     //Result is half width, half height, rounded up: an odd last column or row is
+     //averaged with itself.
+
+    public static Plane subSample(Plane channel) {
+        int newW = (channel.width  + SUBSAMPLE - 1) / SUBSAMPLE;
+        int newH = (channel.height + SUBSAMPLE - 1) / SUBSAMPLE;
+        Plane sub = new Plane(newW, newH);
+
+        for (int y = 0; y < newH; y++) {
+            int y0 = y * SUBSAMPLE, y1 = Math.min(y0 + 1, channel.height - 1);
+            for (int x = 0; x < newW; x++) {
+                int x0 = x * SUBSAMPLE, x1 = Math.min(x0 + 1, channel.width - 1);
                 // sum over 2×2
-                for (int i = 0; i < BLOCK_SIZE; i++) {
-                    for (int j = 0; j < BLOCK_SIZE; j++) {
-                        sum += channel[x*BLOCK_SIZE + i][y*BLOCK_SIZE + j];
-                    }
-                }
-                sub[x][y] = sum / (BLOCK_SIZE * BLOCK_SIZE);
+                int sum = channel.get(x0, y0) + channel.get(x1, y0) + channel.get(x0, y1) + channel.get(x1, y1);
+                sub.set(x, y, sum / (SUBSAMPLE * SUBSAMPLE));
             }
         }
         return sub;
     }
 
 
-     //Compress one channel: split into BLOCK_SIZE×BLOCK_SIZE blocks,
+     //Compress one channel: split into blockSize×blockSize blocks,
      //find nearest vector in codebook, write back its index.
-    public static int[][] compressChannel(int[][] channel, List<double[]> codebook, int blockSize) {
-        int width  = channel.length;
-        int height = channel[0].length;
-        int bxCount = width  / blockSize;
-        int byCount = height / blockSize;
-        int[][] indices = new int[bxCount][byCount];
-
-        for (int bx = 0; bx < bxCount; bx++) {
-            for (int by = 0; by < byCount; by++) {
-                double[] block = new double[blockSize * blockSize];
+    public static Plane compressChannel(Plane channel, List<double[]> codebook, int blockSize) {
+        return compressChannel(channel, codebook, BlockGeometry.square(blockSize));
+    }
+
+    public static Plane compressChannel(Plane channel, List<double[]> codebook, BlockGeometry block) {
+        return compressChannel(channel, CodebookIndex.of(codebook), block);
+    }
+
+    public static Plane compressChannel(Plane channel, CodebookIndex codebook, int blockSize) {
+        return compressChannel(channel, codebook, BlockGeometry.square(blockSize));
+    }
+
+    // Blocks past the right and bottom edges repeat the channel's last column and row
+    public static Plane compressChannel(Plane channel, CodebookIndex codebook, BlockGeometry block) {
+        Plane indices = indexPlane(channel, codebook, block);
+        compressRows(channel, codebook, block, indices, 0, indices.height);
+        return indices;
+    }
+
+    // The empty index grid compressChannel fills in
+    static Plane indexPlane(Plane channel, CodebookIndex codebook, BlockGeometry block) {
+        if (codebook.dim() != block.dim()) {
+            throw new IllegalArgumentException(codebook.dim() + "-value codewords for " + block + " blocks");
+        }
+        return new Plane(block.cols(channel.width), block.rows(channel.height));
+    }
+
+    // Block rows [fromBy, toBy) of compressChannel into indices; bands of rows are independent,
+    // so they can run on separate threads (see ParallelEncoder)
+    static void compressRows(Plane channel, CodebookIndex codebook, BlockGeometry block,
+                             Plane indices, int fromBy, int toBy) {
+        if (DistanceKernel.vectorized()) {
+            compressRows(channel, codebook.kernel(), block, indices, fromBy, toBy);
+            return;
+        }
+        int bw = block.width(), bh = block.height();
+        int bxCount = indices.width;
+
+        // block values are ordered x-major within the block, as the codebooks were trained
+        double[] values = new double[block.dim()];
+        for (int by = fromBy; by < toBy; by++) {
+            for (int bx = 0; bx < bxCount; bx++) {
                 int idx = 0;
-                for (int i = 0; i < blockSize; i++) {
-                    for (int j = 0; j < blockSize; j++) {
-                        block[idx++] = channel[bx*blockSize + i][by*blockSize + j];
+                for (int i = 0; i < bw; i++) {
+                    int x = Math.min(bx*bw + i, channel.width - 1);
+                    for (int j = 0; j < bh; j++) {
+                        values[idx++] = channel.get(x, Math.min(by*bh + j, channel.height - 1));
                     }
                 }
                 // find nearest codebook vector
-                int   bestK = 0;
-                double bestD = Double.MAX_VALUE;
-                for (int k = 0; k < codebook.size(); k++) {
-                    double dist = 0;
-                    double[] vec = codebook.get(k);
-                    for (int d = 0; d < vec.length; d++) {
-                        double diff = block[d] - vec[d];
-                        dist += diff * diff;
-                    }
-                    if (dist < bestD) {
-                        bestD = dist;
-                        bestK = k;
+                indices.set(bx, by, codebook.nearest(values));
+            }
+        }
+    }
+
+
+    // Same search through a DistanceKernel, one block at a time in a float buffer
+    public static Plane compressChannel(Plane channel, DistanceKernel codebook, BlockGeometry block) {
+        Plane indices = new Plane(block.cols(channel.width), block.rows(channel.height));
+        compressRows(channel, codebook, block, indices, 0, indices.height);
+        return indices;
+    }
+
+    static void compressRows(Plane channel, DistanceKernel codebook, BlockGeometry block,
+                             Plane indices, int fromBy, int toBy) {
+        int bw = block.width(), bh = block.height();
+        int bxCount = indices.width;
+
+        float[] values = new float[block.dim()];
+        float[] scratch = codebook.scratch();
+        for (int by = fromBy; by < toBy; by++) {
+            for (int bx = 0; bx < bxCount; bx++) {
+                int idx = 0;
+                for (int i = 0; i < bw; i++) {
+                    int x = Math.min(bx*bw + i, channel.width - 1);
+                    for (int j = 0; j < bh; j++) {
+                        values[idx++] = channel.get(x, Math.min(by*bh + j, channel.height - 1));
                     }
                 }
-                indices[bx][by] = bestK;
+                indices.set(bx, by, codebook.nearest(values, 0, scratch));
             }
         }
+    }
+
+
+    // Tree-structured search: each block gets the leaf it descends to, not always the nearest
+    public static Plane compressChannel(Plane channel, TreeCodebook codebook, BlockGeometry block) {
+        Plane indices = indexPlane(channel, codebook, block);
+        compressRows(channel, codebook, block, indices, 0, indices.height);
         return indices;
     }
 
+    static Plane indexPlane(Plane channel, TreeCodebook codebook, BlockGeometry block) {
+        if (codebook.dim() != block.dim()) {
+            throw new IllegalArgumentException(codebook.dim() + "-value codewords for " + block + " blocks");
+        }
+        return new Plane(block.cols(channel.width), block.rows(channel.height));
+    }
+
+    static void compressRows(Plane channel, TreeCodebook codebook, BlockGeometry block,
+                             Plane indices, int fromBy, int toBy) {
+        int bw = block.width(), bh = block.height();
+        int bxCount = indices.width;
 
-    //Decompress one channel: replace each block index with its codebook vector
-    public static int[][] decompressChannel(int[][] indices, List<double[]> codebook, int blockSize) {
-        int bxCount = indices.length;
-        int byCount = indices[0].length;
-        int width  = bxCount * blockSize;
-        int height = byCount * blockSize;
-        int[][] channel = new int[width][height];
-
-        for (int bx = 0; bx < bxCount; bx++) {
-            for (int by = 0; by < byCount; by++) {
-                double[] vec = codebook.get(indices[bx][by]);
+        float[] values = new float[block.dim()];
+        for (int by = fromBy; by < toBy; by++) {
+            for (int bx = 0; bx < bxCount; bx++) {
+                int idx = 0;
+                for (int i = 0; i < bw; i++) {
+                    int x = Math.min(bx*bw + i, channel.width - 1);
+                    for (int j = 0; j < bh; j++) {
+                        values[idx++] = channel.get(x, Math.min(by*bh + j, channel.height - 1));
+                    }
+                }
+                indices.set(bx, by, codebook.nearest(values, 0));
+            }
+        }
+    }
+
+
+    // The blocks compressChannel quantises, one double[] each, a column of blocks at a time
+    public static List<double[]> getBlocks(Plane channel, BlockGeometry block) {
+        int bw = block.width(), bh = block.height();
+        List<double[]> blocks = new ArrayList<>();
+        for (int bx = 0; bx < block.cols(channel.width); bx++) {
+            for (int by = 0; by < block.rows(channel.height); by++) {
+                double[] values = new double[block.dim()];
                 int idx = 0;
-                for (int i = 0; i < blockSize; i++) {
-                    for (int j = 0; j < blockSize; j++) {
-                        channel[bx*blockSize + i][by*blockSize + j] = (int)vec[idx++];
+                for (int i = 0; i < bw; i++) {
+                    int x = Math.min(bx*bw + i, channel.width - 1);
+                    for (int j = 0; j < bh; j++) {
+                        values[idx++] = channel.get(x, Math.min(by*bh + j, channel.height - 1));
+                    }
+                }
+                blocks.add(values);
+            }
+        }
+        return blocks;
+    }
+
+
+    //Decompress one channel: replace each block index with its codebook vector
+    public static Plane decompressChannel(Plane indices, List<double[]> codebook, int blockSize) {
+        return decompressChannel(indices, codebook, BlockGeometry.square(blockSize),
+                indices.width * blockSize, indices.height * blockSize);
+    }
+
+    // As above into a width × height channel, dropping the samples of the edge padding
+    public static Plane decompressChannel(Plane indices, List<double[]> codebook, BlockGeometry block,
+                                          int width, int height) {
+        int bw = block.width(), bh = block.height();
+        Plane channel = new Plane(width, height);
+
+        for (int by = 0; by < indices.height; by++) {
+            int rows = Math.min(bh, height - by*bh);
+            for (int bx = 0; bx < indices.width; bx++) {
+                double[] vec = codebook.get(indices.get(bx, by));
+                int cols = Math.min(bw, width - bx*bw);
+                for (int i = 0; i < cols; i++) {
+                    for (int j = 0; j < rows; j++) {
+                        channel.set(bx*bw + i, by*bh + j, (int)vec[i*bh + j]);
                     }
                 }
             }
@@ -122,41 +244,38 @@ public class ImageUtilsYUV {
 
     //Upsample a half-res channel back to full resolution by duplicating each pixel 2×2.
 
-    public static int[][] upsample(int[][] channel) {
-        int w = channel.length;
-        int h = channel[0].length;
-        int[][] full = new int[w*BLOCK_SIZE][h*BLOCK_SIZE];
-        for (int x = 0; x < w; x++) {
-            for (int y = 0; y < h; y++) {
-                int v = channel[x][y];
-                full[x*BLOCK_SIZE    ][y*BLOCK_SIZE    ] = v;
-                full[x*BLOCK_SIZE + 1][y*BLOCK_SIZE    ] = v;
-                full[x*BLOCK_SIZE    ][y*BLOCK_SIZE + 1] = v;
-                full[x*BLOCK_SIZE + 1][y*BLOCK_SIZE + 1] = v;
+    public static Plane upsample(Plane channel) {
+        return upsample(channel, channel.width * SUBSAMPLE, channel.height * SUBSAMPLE);
+    }
+
+    // As above, into a width × height plane for images with an odd width or height
+    public static Plane upsample(Plane channel, int width, int height) {
+        Plane full = new Plane(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                full.set(x, y, channel.get(x / SUBSAMPLE, y / SUBSAMPLE));
             }
         }
         return full;
     }
 
 
-    //Convert YUV arrays back into an RGB BufferedImage.
+    //Convert YUV planes back into an RGB BufferedImage.
 
-    public static BufferedImage yuvToRgb(int[][] Y, int[][] U, int[][] V) {
-        int width = Y.length;
-        int height = Y[0].length;
-        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    public static BufferedImage yuvToRgb(Plane Y, Plane U, Plane V) {
+        int width = Y.width;
+        int height = Y.height;
+        BufferedImage out = PixelIO.newRgbImage(width, height);
+        int[] data = PixelIO.rgbData(out);
 
-        for (int x = 0; x < width; x++) {
-            for (int y = 0; y < height; y++) {
-                int yv = Y[x][y];
-                int uv = U[x][y];
-                int vv = V[x][y];
-                int r = clamp(yv + (int)(1.13983 * vv));
-                int g = clamp(yv - (int)(0.39465 * uv) - (int)(0.58060 * vv));
-                int b = clamp(yv + (int)(2.03211 * uv));
-                int rgb = (r << 16) | (g << 8) | b;
-                out.setRGB(x, y, rgb);
-            }
+        for (int i = 0; i < width * height; i++) {
+            int yv = Y.get(i);
+            int uv = U.get(i);
+            int vv = V.get(i);
+            int r = clamp(yv + (int)(1.13983 * vv));
+            int g = clamp(yv - (int)(0.39465 * uv) - (int)(0.58060 * vv));
+            int b = clamp(yv + (int)(2.03211 * uv));
+            data[i] = (r << 16) | (g << 8) | b;
         }
         return out;
     }
@@ -0,0 +1,403 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes and reads the index grid of one channel in one IndexCoding. A grid goes out in
+// segments of whole rows (the whole grid, or one strip of a striped file), each decodable on
+// its own. RAW segments are the original bit-packed layout; HUFFMAN and RANS segments are an
+// int byte count and the coded bytes, which the decoder pulls in whole before spending a single
+// table lookup per index. Decoding checks what it reads, so a corrupt segment is an IOException.
+// With DPCM the indices are first mapped to the brightness rank of their codeword (the sum of
+// its components) and each is coded as its rank minus that of its left neighbour, of the one
+// above in the first column and of rank 0 at the start of a segment, modulo the codebook size:
+// flat areas become runs of small differences.
+public abstract class IndexCoder {
+
+    // first allocation for a segment's bytes, doubled as more arrive
+    private static final int SEGMENT_CHUNK = 1 << 16;
+
+    final IndexCoding coding;
+    final int entries;
+    private final int[] rank;       // codeword -> brightness rank, null without DPCM
+    private final int[] byRank;     // brightness rank -> codeword
+
+    IndexCoder(IndexCoding coding, List<double[]> codebook) {
+        this.coding = coding;
+        this.entries = codebook.size();
+        if (coding.dpcm()) {
+            byRank = brightnessOrder(codebook);
+            rank = new int[entries];
+            for (int r = 0; r < entries; r++) rank[byRank[r]] = r;
+        } else {
+            rank = byRank = null;
+        }
+    }
+
+    // Coder for one channel. counts are the symbol frequencies a HUFFMAN code is built from,
+    // from EntropyModel or count(); the other methods ignore them.
+    public static IndexCoder of(IndexCoding coding, List<double[]> codebook, long[] counts) {
+        switch (coding.method()) {
+            case IndexCoding.RAW:
+                return new Raw(coding, codebook);
+            case IndexCoding.HUFFMAN:
+                if (counts == null || counts.length != codebook.size()) {
+                    throw new IllegalArgumentException("Huffman coding needs a count for each of the "
+                            + codebook.size() + " codewords");
+                }
+                return new Huffman(coding, codebook, HuffmanCode.fromCounts(counts));
+            default:
+                return new Rans(coding, codebook);
+        }
+    }
+
+    // Symbol frequencies of a grid under a coding: of its indices, or with DPCM of their differences
+    public static long[] count(Plane grid, IndexCoding coding, List<double[]> codebook) {
+        IndexCoder coder = new Raw(coding, codebook);
+        long[] counts = new long[codebook.size()];
+        for (int s : coder.symbols(grid)) counts[s]++;
+        return counts;
+    }
+
+    public IndexCoding coding() {
+        return coding;
+    }
+
+    // Channel header data following the coding byte
+    void writeTable(BitWriter out) throws IOException {
+    }
+
+    static IndexCoder readTable(BitReader in, IndexCoding coding, List<double[]> codebook) throws IOException {
+        if (coding.method() != IndexCoding.HUFFMAN) return of(coding, codebook, null);
+        int[] lengths = new int[codebook.size()];
+        for (int s = 0; s < lengths.length; s++) lengths[s] = in.readByte();
+        return new Huffman(coding, codebook, HuffmanCode.fromLengths(lengths));
+    }
+
+    // One segment holding every row of grid
+    public void write(BitWriter out, Plane grid) throws IOException {
+        encode(out, symbols(grid));
+    }
+
+    // One segment into rows [fromRow, toRow) of grid
+    public void read(BitReader in, Plane grid, int fromRow, int toRow) throws IOException {
+        int[] symbols = new int[(toRow - fromRow) * grid.width];
+        decode(in, symbols);
+        if (rank == null) {
+            for (int i = fromRow * grid.stride, j = 0; j < symbols.length; i++, j++) grid.set(i, symbols[j]);
+            return;
+        }
+        for (int y = fromRow, j = 0; y < toRow; y++) {
+            int prev = y > fromRow ? rank[grid.get(0, y - 1)] : 0;
+            for (int x = 0; x < grid.width; x++, j++) {
+                int r = symbols[j] + prev;
+                if (r >= entries) r -= entries;
+                grid.set(x, y, byRank[r]);
+                prev = r;
+            }
+        }
+    }
+
+    abstract void encode(BitWriter out, int[] symbols) throws IOException;
+
+    // fills symbols with those of the next segment
+    abstract void decode(BitReader in, int[] symbols) throws IOException;
+
+    // the grid in raster order as coded: indices, or their DPCM differences
+    int[] symbols(Plane grid) {
+        int[] out = new int[grid.width * grid.height];
+        if (rank == null) {
+            for (int i = 0; i < out.length; i++) out[i] = grid.get(i);
+            return out;
+        }
+        for (int y = 0, i = 0; y < grid.height; y++) {
+            int prev = y > 0 ? rank[grid.get(0, y - 1)] : 0;
+            for (int x = 0; x < grid.width; x++, i++) {
+                int r = rank[grid.get(x, y)];
+                out[i] = r >= prev ? r - prev : r - prev + entries;
+                prev = r;
+            }
+        }
+        return out;
+    }
+
+    // codewords from darkest to brightest, ties by index
+    private static int[] brightnessOrder(List<double[]> codebook) {
+        double[] sum = new double[codebook.size()];
+        Integer[] order = new Integer[codebook.size()];
+        for (int j = 0; j < order.length; j++) {
+            for (double v : codebook.get(j)) sum[j] += v;
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> sum[a] != sum[b] ? Double.compare(sum[a], sum[b]) : a - b);
+        int[] byRank = new int[order.length];
+        for (int r = 0; r < order.length; r++) byRank[r] = order[r];
+        return byRank;
+    }
+
+    // The next segment; a length past maxBytes, the most its symbols can take, is corruption
+    private static byte[] readSegment(BitReader in, long maxBytes) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxBytes) throw new IOException("Bad index segment length " + length);
+        // grown as the bytes arrive, so a length the stream does not hold costs no more than its tail
+        byte[] data = new byte[Math.min(length, SEGMENT_CHUNK)];
+        for (int at = 0; at < length; at = data.length) {
+            if (at == data.length) data = Arrays.copyOf(data, (int) Math.min(length, 2L * at));
+            in.readBytes(data, at, data.length - at);
+        }
+        return data;
+    }
+
+    private static void writeSegment(BitWriter out, Bytes bytes) throws IOException {
+        out.writeInt(bytes.size);
+        out.writeBytes(bytes.data, 0, bytes.size);
+    }
+
+    // Each index in the fewest bits that address every codeword
+    private static final class Raw extends IndexCoder {
+        private final int bits;
+
+        Raw(IndexCoding coding, List<double[]> codebook) {
+            super(coding, codebook);
+            bits = VQFile.bitsPerIndex(entries);
+        }
+
+        @Override
+        void encode(BitWriter out, int[] symbols) throws IOException {
+            for (int s : symbols) out.writeBits(s, bits);
+        }
+
+        @Override
+        void decode(BitReader in, int[] symbols) throws IOException {
+            for (int i = 0; i < symbols.length; i++) {
+                int s = in.readBits(bits);
+                if (s >= entries) throw new IOException("Index " + s + " of a " + entries + "-entry codebook");
+                symbols[i] = s;
+            }
+        }
+    }
+
+    // Static canonical Huffman code, its code lengths stored in the channel header
+    private static final class Huffman extends IndexCoder {
+        private final HuffmanCode code;
+
+        Huffman(IndexCoding coding, List<double[]> codebook, HuffmanCode code) {
+            super(coding, codebook);
+            this.code = code;
+        }
+
+        @Override
+        void writeTable(BitWriter out) throws IOException {
+            for (int s = 0; s < entries; s++) out.writeByte(code.length(s));
+        }
+
+        @Override
+        void encode(BitWriter out, int[] symbols) throws IOException {
+            Bytes bytes = new Bytes(symbols.length);
+            for (int s : symbols) bytes.bits(code.code(s), code.length(s));
+            bytes.align();
+            writeSegment(out, bytes);
+        }
+
+        @Override
+        void decode(BitReader in, int[] symbols) throws IOException {
+            int n = code.lookupBits();
+            Cursor c = new Cursor(readSegment(in, ((long) symbols.length * n + 7) / 8));
+            for (int i = 0; i < symbols.length; i++) {
+                int e = code.lookup(c.peek(n));
+                c.skip(e & 31);
+                symbols[i] = e >>> 5;
+            }
+        }
+    }
+
+    // rANS (Duda's asymmetric numeral systems, byte-wise renormalisation after Giesen's
+    // ryg_rans) over the frequencies of the segment itself, which lead the segment:
+    // the scale in bits, then every codeword's frequency + 1 Elias-gamma coded
+    private static final class Rans extends IndexCoder {
+        private static final long LOW = 1L << 23;   // the state stays in [LOW, LOW << 8)
+        private static final int MAX_SCALE = 16;
+
+        Rans(IndexCoding coding, List<double[]> codebook) {
+            super(coding, codebook);
+        }
+
+        @Override
+        void encode(BitWriter out, int[] symbols) throws IOException {
+            long[] counts = new long[entries];
+            int present = 0;
+            for (int s : symbols) if (counts[s]++ == 0) present++;
+            int scale = 12;
+            while ((1 << scale) < 4 * present && scale < MAX_SCALE) scale++;
+            int[] freq = normalise(counts, symbols.length, scale);
+            int[] cum = new int[entries];
+            for (int s = 1; s < entries; s++) cum[s] = cum[s - 1] + freq[s - 1];
+
+            Bytes bytes = new Bytes(entries);
+            bytes.bits(scale, 8);
+            for (int f : freq) bytes.gamma(f + 1);
+            bytes.align();
+
+            // coded last symbol first, the bytes coming out back to front
+            byte[] stream = new byte[2 * symbols.length + 8];
+            int ptr = stream.length;
+            long x = LOW;
+            for (int i = symbols.length - 1; i >= 0; i--) {
+                int s = symbols[i], f = freq[s];
+                long max = ((LOW >>> scale) << 8) * f;
+                while (x >= max) {
+                    stream[--ptr] = (byte) x;
+                    x >>>= 8;
+                }
+                x = ((x / f) << scale) + (x % f) + cum[s];
+            }
+            for (int b = 0; b < 4; b++) stream[--ptr] = (byte) (x >>> (8 * b));   // big-endian
+            bytes.put(stream, ptr, stream.length - ptr);
+            writeSegment(out, bytes);
+        }
+
+        @Override
+        void decode(BitReader in, int[] symbols) throws IOException {
+            // scale byte, gamma-coded frequencies of at most 33 bits, at most 2 bytes a symbol
+            // (scale <= MAX_SCALE) and the 4-byte final state
+            Cursor c = new Cursor(readSegment(in, 1 + 5L * entries + 2L * symbols.length + 8));
+            int scale = c.read(8);
+            if (scale > MAX_SCALE) throw new IOException("Corrupt rANS scale " + scale);
+            int mask = (1 << scale) - 1;
+            int[] freq = new int[entries], cum = new int[entries];
+            int[] slots = new int[1 << scale];
+            int at = 0;
+            for (int s = 0; s < entries; s++) {
+                freq[s] = c.gamma() - 1;
+                cum[s] = at;
+                if (freq[s] > slots.length - at) throw new IOException("Corrupt rANS frequency table");
+                Arrays.fill(slots, at, at + freq[s], s);
+                at += freq[s];
+            }
+            c.align();
+            byte[] data = c.data;
+            int pos = c.pos;
+            if (symbols.length == 0) return;
+            if (at != slots.length) throw new IOException("Corrupt rANS frequency table");
+            if (pos + 4 > data.length) throw new IOException("Truncated rANS segment");
+            long x = 0;
+            for (int b = 0; b < 4; b++) x = (x << 8) | (data[pos++] & 0xFF);
+            for (int i = 0; i < symbols.length; i++) {
+                int s = slots[(int) (x & mask)];
+                x = freq[s] * (x >>> scale) + (x & mask) - cum[s];
+                while (x < LOW && pos < data.length) x = (x << 8) | (data[pos++] & 0xFF);
+                symbols[i] = s;
+            }
+        }
+
+        // frequencies scaled to sum to 2^scale, every symbol that occurs keeping at least 1
+        private static int[] normalise(long[] counts, long total, int scale) {
+            int[] freq = new int[counts.length];
+            if (total == 0) return freq;
+            int target = 1 << scale, sum = 0, largest = 0;
+            for (int s = 0; s < counts.length; s++) {
+                if (counts[s] == 0) continue;
+                freq[s] = (int) Math.max(1, counts[s] * target / total);
+                sum += freq[s];
+                if (freq[s] > freq[largest]) largest = s;
+            }
+            freq[largest] += Math.max(0, target - sum);
+            sum = Math.max(sum, target);
+            while (sum > target) {
+                for (int s = 0; s < freq.length; s++) if (freq[s] > freq[largest]) largest = s;
+                int take = Math.min(sum - target, freq[largest] - 1);
+                freq[largest] -= take;
+                sum -= take;
+            }
+            return freq;
+        }
+    }
+
+    // growable byte buffer taking bit-packed values, MSB first like BitWriter
+    private static final class Bytes {
+        byte[] data;
+        int size;
+        private long acc;
+        private int accBits;
+
+        Bytes(int capacity) {
+            data = new byte[Math.max(16, capacity)];
+        }
+
+        void bits(int value, int n) {
+            acc = (acc << n) | (value & ((1L << n) - 1));
+            accBits += n;
+            while (accBits >= 8) {
+                accBits -= 8;
+                put((byte) (acc >>> accBits));
+            }
+        }
+
+        // v >= 1 as floor(log2 v) zero bits, then v itself
+        void gamma(int v) {
+            int n = 32 - Integer.numberOfLeadingZeros(v);
+            bits(0, n - 1);
+            bits(v, n);
+        }
+
+        void align() {
+            if (accBits > 0) bits(0, 8 - accBits);
+        }
+
+        void put(byte b) {
+            if (size == data.length) data = Arrays.copyOf(data, 2 * size);
+            data[size++] = b;
+        }
+
+        void put(byte[] src, int off, int len) {
+            if (size + len > data.length) data = Arrays.copyOf(data, Math.max(2 * data.length, size + len));
+            System.arraycopy(src, off, data, size, len);
+            size += len;
+        }
+    }
+
+    // bit reader over one segment, reading zeros past its end
+    private static final class Cursor {
+        final byte[] data;
+        int pos;
+        private long acc;
+        private int accBits;
+
+        Cursor(byte[] data) {
+            this.data = data;
+        }
+
+        int peek(int n) {
+            while (accBits < n) {
+                acc = (acc << 8) | (pos < data.length ? data[pos] & 0xFF : 0);
+                pos++;
+                accBits += 8;
+            }
+            return (int) (acc >>> (accBits - n)) & ((1 << n) - 1);
+        }
+
+        void skip(int n) {
+            accBits -= n;
+        }
+
+        int read(int n) {
+            int v = peek(n);
+            skip(n);
+            return v;
+        }
+
+        int gamma() throws IOException {
+            int zeros = 0;
+            while (read(1) == 0) {
+                // past the end the zeros never stop; no int needs more than 30
+                if (++zeros > 30) throw new IOException("Corrupt Elias-gamma code");
+            }
+            return (1 << zeros) | (zeros > 0 ? read(zeros) : 0);
+        }
+
+        // to the byte after the last bit read
+        void align() {
+            pos -= accBits / 8;
+            accBits = 0;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+// How the index grids of a .vq file are stored: RAW packs every index in a fixed number of
+// bits, HUFFMAN uses a static code built from training statistics (EntropyModel), RANS a range
+// coder with the frequencies of the indices being written. With dpcm each index is coded as
+// the change in brightness rank from its neighbour, see IndexCoder.
+public record IndexCoding(int method, boolean dpcm) {
+
+    public static final int RAW = 0;
+    public static final int HUFFMAN = 1;
+    public static final int RANS = 2;
+
+    public static final IndexCoding NONE = new IndexCoding(RAW, false);
+
+    private static final String[] NAMES = {"raw", "huffman", "rans"};
+    private static final int DPCM_BIT = 0x80;
+
+    public IndexCoding {
+        if (method < RAW || method > RANS) throw new IllegalArgumentException("Unknown index coding " + method);
+    }
+
+    // "raw", "huffman" or "rans", with "+dpcm" for the rank differences
+    public static IndexCoding parse(String spec) {
+        String s = spec.trim().toLowerCase();
+        boolean dpcm = s.endsWith("+dpcm");
+        if (dpcm) s = s.substring(0, s.length() - "+dpcm".length());
+        for (int m = 0; m < NAMES.length; m++) {
+            if (NAMES[m].equals(s)) return new IndexCoding(m, dpcm);
+        }
+        throw new IllegalArgumentException("Index coding must be raw, huffman or rans, optionally +dpcm: " + spec);
+    }
+
+    // as stored in the .vq channel header
+    public int toByte() {
+        return method | (dpcm ? DPCM_BIT : 0);
+    }
+
+    public static IndexCoding fromByte(int b) {
+        return new IndexCoding(b & ~DPCM_BIT, (b & DPCM_BIT) != 0);
+    }
+
+    @Override
+    public String toString() {
+        return NAMES[method] + (dpcm ? "+dpcm" : "");
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.List;
+import java.util.Random;
+
+// Times the original KMeans.cluster against FastKMeans on the blocks of the training set.
+// Run from the project folder: java KMeansBenchmark [trainingDir] [maxBlocks]
+public class KMeansBenchmark {
+    public static void main(String[] args) throws Exception {
+        String trainingDir = args.length > 0 ? args[0] : "training";
+        int maxBlocks = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+
+        run("R (k=256)", CodebookGenerator.collectBlocks(trainingDir, 'R'), 256, maxBlocks);
+        run("Y (k=256)", CodebookGeneratorYUV.collectBlocks(trainingDir, 'Y'), 256, maxBlocks);
+        run("U (k=64) ", CodebookGeneratorYUV.collectBlocks(trainingDir, 'U'), 64, maxBlocks);
+    }
+
+    private static void run(String label, List<double[]> blocks, int k, int maxBlocks) {
+        if (blocks.size() > maxBlocks) blocks = blocks.subList(0, maxBlocks);
+        int dim = blocks.get(0).length;
+
+        long t0 = System.nanoTime();
+        KMeans.cluster(blocks, k);
+        long legacy = System.nanoTime() - t0;
+
+        // same 20 passes as KMeans.cluster, then the default run that stops on convergence
+        t0 = System.nanoTime();
+        float[] flat = FastKMeans.flatten(blocks);
+        FastKMeans.cluster(flat, dim, k, 20, new Random());
+        long fixed = System.nanoTime() - t0;
+
+        t0 = System.nanoTime();
+        FastKMeans.cluster(blocks, k);
+        long converged = System.nanoTime() - t0;
+
+        System.out.printf("%s %,d blocks  KMeans: %,d ms  FastKMeans(20 passes): %,d ms (%.2fx)"
+                        + "  FastKMeans(converged): %,d ms%n",
+                label, blocks.size(), legacy / 1_000_000, fixed / 1_000_000,
+                (double) legacy / fixed, converged / 1_000_000);
+    }
+}
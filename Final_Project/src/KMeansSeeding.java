@@ -0,0 +1,277 @@
+import java.util.*;
+import java.util.stream.IntStream;
+
+// Initial centroids for FastKMeans, all over the same flat float layout:
+//   RANDOM            k distinct vectors picked uniformly (the old behaviour, minus duplicates)
+//   KMEANS_PLUS_PLUS  each next centroid drawn with probability proportional to its squared
+//                     distance from the nearest one so far (Arthur & Vassilvitskii)
+//   KMEANS_PARALLEL   k-means||: a few oversampling rounds pick ~2.5k candidates in one pass
+//                     each, then weighted K-Means++ and Lloyd reduce them to k (Bahmani et al.)
+//   LBG               Linde-Buzo-Gray: from the global mean, split every centroid in two and
+//                     refine with a few Lloyd passes until there are k
+// The per-vector work runs in FastKMeans.CHUNK_SIZE chunks merged in order, so results only
+// depend on the Random.
+public class KMeansSeeding {
+
+    public enum Method { RANDOM, KMEANS_PLUS_PLUS, KMEANS_PARALLEL, LBG }
+
+    static final int PARALLEL_ROUNDS = 5;
+    static final int LBG_PASSES_PER_SPLIT = 3;
+
+    public static double[] seed(Method method, float[] data, int dim, int k, Random rand) {
+        return switch (method) {
+            case RANDOM -> random(data, dim, k, rand);
+            case KMEANS_PLUS_PLUS -> kMeansPlusPlus(data, dim, k, rand);
+            case KMEANS_PARALLEL -> kMeansParallel(data, dim, k, rand);
+            case LBG -> lbg(data, dim, k, rand);
+        };
+    }
+
+    public static double[] random(float[] data, int dim, int k, Random rand) {
+        int n = data.length / dim;
+        double[] centroids = new double[k * dim];
+        Set<Integer> used = new HashSet<>();
+        for (int j = 0; j < k; j++) {
+            int i = rand.nextInt(n);
+            while (used.size() < n && !used.add(i)) i = rand.nextInt(n);
+            copy(data, i, centroids, j, dim);
+        }
+        return centroids;
+    }
+
+    public static double[] kMeansPlusPlus(float[] data, int dim, int k, Random rand) {
+        int n = data.length / dim;
+        double[] centroids = new double[k * dim];
+        copy(data, rand.nextInt(n), centroids, 0, dim);
+
+        double[] minDist = new double[n];
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        double[] chunkSums = new double[chunks(n)];
+        for (int j = 1; j < k; j++) {
+            closer(data, dim, centroids, j - 1, j, minDist, null, chunkSums);
+            int pick = sample(minDist, chunkSums, rand);
+            copy(data, pick >= 0 ? pick : rand.nextInt(n), centroids, j, dim);
+        }
+        return centroids;
+    }
+
+    public static double[] kMeansParallel(float[] data, int dim, int k, Random rand) {
+        int n = data.length / dim;
+        double oversampling = 0.5 * k;
+        List<Integer> picked = new ArrayList<>();
+        picked.add(rand.nextInt(n));
+        double[] candidates = new double[0];
+
+        double[] minDist = new double[n];
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        int[] nearest = new int[n];
+        double[] chunkSums = new double[chunks(n)];
+        int done = 0;
+        for (int round = 0; round <= PARALLEL_ROUNDS; round++) {
+            candidates = Arrays.copyOf(candidates, picked.size() * dim);
+            for (int c = done; c < picked.size(); c++) copy(data, picked.get(c), candidates, c, dim);
+            closer(data, dim, candidates, done, picked.size(), minDist, nearest, chunkSums);
+            done = picked.size();
+            if (round == PARALLEL_ROUNDS) break;
+
+            // every vector joins independently with probability oversampling * d² / total d²
+            double total = 0;
+            for (double s : chunkSums) total += s;
+            if (total == 0) break;
+            double scale = oversampling / total;
+            long roundSeed = rand.nextLong();
+            List<List<Integer>> joined = new ArrayList<>();
+            for (int ch = 0; ch < chunkSums.length; ch++) joined.add(new ArrayList<>());
+            IntStream.range(0, chunkSums.length).parallel().forEach(ch -> {
+                Random r = new Random(roundSeed + ch);
+                List<Integer> out = joined.get(ch);
+                int end = Math.min(n, (ch + 1) * FastKMeans.CHUNK_SIZE);
+                for (int i = ch * FastKMeans.CHUNK_SIZE; i < end; i++) {
+                    if (r.nextDouble() < minDist[i] * scale) out.add(i);
+                }
+            });
+            for (List<Integer> out : joined) picked.addAll(out);
+        }
+
+        // weight every candidate by the vectors closest to it and cluster the candidates
+        int m = picked.size();
+        if (m <= k) {
+            double[] centroids = Arrays.copyOf(candidates, k * dim);
+            for (int j = m; j < k; j++) copy(data, rand.nextInt(n), centroids, j, dim);
+            return centroids;
+        }
+        double[] weights = new double[m];
+        for (int i = 0; i < n; i++) weights[nearest[i]]++;
+        return weightedKMeans(candidates, weights, dim, k, rand);
+    }
+
+    public static double[] lbg(float[] data, int dim, int k, Random rand) {
+        int n = data.length / dim;
+        double[] centroids = new double[k * dim];
+        for (int i = 0; i < n; i++) {
+            for (int d = 0; d < dim; d++) centroids[d] += data[i * dim + d];
+        }
+        for (int d = 0; d < dim; d++) centroids[d] /= n;
+
+        double[] distortion = new double[k];
+        int size = 1;
+        FastKMeans.lloyd(data, dim, centroids, size, 1, distortion);
+        while (size < k) {
+            // split the clusters with the most distortion first, all of them while k allows
+            int splits = Math.min(size, k - size);
+            Integer[] order = new Integer[size];
+            for (int j = 0; j < size; j++) order[j] = j;
+            double[] dist = distortion;
+            Arrays.sort(order, (a, b) -> Double.compare(dist[b], dist[a]));
+            for (int s = 0; s < splits; s++) {
+                int j = order[s], twin = size + s;
+                for (int d = 0; d < dim; d++) {
+                    double eps = rand.nextBoolean() ? 0.5 : -0.5;
+                    centroids[twin * dim + d] = centroids[j * dim + d] + eps;
+                    centroids[j * dim + d] -= eps;
+                }
+            }
+            size += splits;
+            FastKMeans.lloyd(data, dim, centroids, size, LBG_PASSES_PER_SPLIT, distortion);
+        }
+        return centroids;
+    }
+
+    // K-Means++ then Lloyd on a small weighted set, for reducing the k-means|| candidates
+    private static double[] weightedKMeans(double[] points, double[] weights, int dim, int k, Random rand) {
+        int m = weights.length;
+        double[] centroids = new double[k * dim];
+        double[] minDist = new double[m];
+        Arrays.fill(minDist, Double.MAX_VALUE);
+        int first = pickWeighted(weights, null, rand);
+        System.arraycopy(points, first * dim, centroids, 0, dim);
+        for (int j = 1; j < k; j++) {
+            for (int i = 0; i < m; i++) minDist[i] = Math.min(minDist[i], dist(points, i, centroids, j - 1, dim));
+            int pick = pickWeighted(weights, minDist, rand);
+            System.arraycopy(points, (pick >= 0 ? pick : rand.nextInt(m)) * dim, centroids, j * dim, dim);
+        }
+
+        int[] assign = new int[m];
+        for (int pass = 0; pass < FastKMeans.DEFAULT_MAX_ITERATIONS; pass++) {
+            boolean moved = false;
+            for (int i = 0; i < m; i++) {
+                int best = 0;
+                double bestDist = Double.MAX_VALUE;
+                for (int j = 0; j < k; j++) {
+                    double dd = dist(points, i, centroids, j, dim);
+                    if (dd < bestDist) {
+                        bestDist = dd;
+                        best = j;
+                    }
+                }
+                if (pass == 0 || assign[i] != best) moved = true;
+                assign[i] = best;
+            }
+            if (!moved) break;
+            double[] sums = new double[k * dim];
+            double[] total = new double[k];
+            for (int i = 0; i < m; i++) {
+                total[assign[i]] += weights[i];
+                for (int d = 0; d < dim; d++) sums[assign[i] * dim + d] += weights[i] * points[i * dim + d];
+            }
+            for (int j = 0; j < k; j++) {
+                if (total[j] == 0) continue;
+                for (int d = 0; d < dim; d++) centroids[j * dim + d] = sums[j * dim + d] / total[j];
+            }
+        }
+        return centroids;
+    }
+
+    // index drawn with probability weight[i] * minDist[i] (or weight[i] alone), -1 if all are 0
+    private static int pickWeighted(double[] weights, double[] minDist, Random rand) {
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) total += weights[i] * (minDist != null ? minDist[i] : 1);
+        if (total == 0) return -1;
+        double r = rand.nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i] * (minDist != null ? minDist[i] : 1);
+            if (r < 0) return i;
+        }
+        return weights.length - 1;
+    }
+
+    // Lower minDist with centroids [from, to); chunkSums gets the per-chunk sums of minDist,
+    // nearest (when given) the index of the closest centroid
+    private static void closer(float[] data, int dim, double[] centroids, int from, int to,
+                               double[] minDist, int[] nearest, double[] chunkSums) {
+        int n = minDist.length;
+        IntStream.range(0, chunkSums.length).parallel().forEach(ch -> {
+            double sum = 0;
+            int end = Math.min(n, (ch + 1) * FastKMeans.CHUNK_SIZE);
+            for (int i = ch * FastKMeans.CHUNK_SIZE; i < end; i++) {
+                int off = i * dim;
+                double best = minDist[i];
+                int bestJ = -1;
+                if (dim == 4) {
+                    // unrolled like FastKMeans.nearest4
+                    double x0 = data[off], x1 = data[off + 1], x2 = data[off + 2], x3 = data[off + 3];
+                    for (int j = from, base = from * 4; j < to; j++, base += 4) {
+                        double d0 = x0 - centroids[base], d1 = x1 - centroids[base + 1];
+                        double d2 = x2 - centroids[base + 2], d3 = x3 - centroids[base + 3];
+                        double dd = d0 * d0 + d1 * d1 + d2 * d2 + d3 * d3;
+                        if (dd < best) {
+                            best = dd;
+                            bestJ = j;
+                        }
+                    }
+                } else {
+                    for (int j = from; j < to; j++) {
+                        double dd = 0;
+                        for (int d = 0; d < dim; d++) {
+                            double diff = data[off + d] - centroids[j * dim + d];
+                            dd += diff * diff;
+                        }
+                        if (dd < best) {
+                            best = dd;
+                            bestJ = j;
+                        }
+                    }
+                }
+                if (bestJ >= 0) {
+                    minDist[i] = best;
+                    if (nearest != null) nearest[i] = bestJ;
+                }
+                sum += best;
+            }
+            chunkSums[ch] = sum;
+        });
+    }
+
+    // index drawn with probability minDist[i] / sum, using the chunk sums to skip ahead
+    private static int sample(double[] minDist, double[] chunkSums, Random rand) {
+        double total = 0;
+        for (double s : chunkSums) total += s;
+        if (total == 0) return -1;
+        double r = rand.nextDouble() * total;
+        int ch = 0;
+        while (ch < chunkSums.length - 1 && r >= chunkSums[ch]) r -= chunkSums[ch++];
+        int end = Math.min(minDist.length, (ch + 1) * FastKMeans.CHUNK_SIZE);
+        for (int i = ch * FastKMeans.CHUNK_SIZE; i < end; i++) {
+            r -= minDist[i];
+            if (r < 0) return i;
+        }
+        return end - 1;
+    }
+
+    private static int chunks(int n) {
+        return (n + FastKMeans.CHUNK_SIZE - 1) / FastKMeans.CHUNK_SIZE;
+    }
+
+    private static double dist(double[] points, int i, double[] centroids, int j, int dim) {
+        double dd = 0;
+        for (int d = 0; d < dim; d++) {
+            double diff = points[i * dim + d] - centroids[j * dim + d];
+            dd += diff * diff;
+        }
+        return dd;
+    }
+
+    private static void copy(float[] data, int i, double[] centroids, int j, int dim) {
+        for (int d = 0; d < dim; d++) centroids[j * dim + d] = data[i * dim + d];
+    }
+}
@@ -0,0 +1,133 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Replays the images in test/ against a running CompressionServer from a number of concurrent
+// clients (virtual threads, each sending its next request as soon as the last one returns) for
+// a fixed time, then prints throughput and the latency percentiles seen by the clients,
+// followed by the server's own /metrics. With --decode each encoded file is sent back to
+// /decode as well, which also checks that it decodes.
+// Run from the project folder:
+//   java LoadGenerator [http://localhost:8080] [clients=8] [seconds=30] [yuv|rgb] [--decode]
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        List<String> positional = new ArrayList<>();
+        boolean decode = false;
+        for (String a : args) {
+            if (a.equals("--decode")) decode = true;
+            else positional.add(a);
+        }
+        String base = positional.size() > 0 ? positional.get(0) : "http://localhost:" + CompressionServer.DEFAULT_PORT;
+        int clients = positional.size() > 1 ? Integer.parseInt(positional.get(1)) : 8;
+        int seconds = positional.size() > 2 ? Integer.parseInt(positional.get(2)) : 30;
+        String mode = positional.size() > 3 ? positional.get(3) : "yuv";
+
+        List<byte[]> images = load(new File("test"));
+        if (images.isEmpty()) throw new IOException("No images under test/");
+        System.out.printf("Replaying %d images from %d clients for %d s against %s%n", images.size(), clients, seconds, base);
+
+        MetricsRegistry client = new MetricsRegistry();
+        MetricsRegistry.Timer encodeTimer = client.timer("encode");
+        MetricsRegistry.Timer decodeTimer = client.timer("decode");
+        AtomicLong next = new AtomicLong(), errors = new AtomicLong(), bytesIn = new AtomicLong(), bytesOut = new AtomicLong();
+        AtomicReference<String> firstError = new AtomicReference<>();
+        URI encodeUri = URI.create(base + "/encode?mode=" + mode);
+        URI decodeUri = URI.create(base + "/decode");
+        boolean roundTrip = decode;
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        long t0 = System.nanoTime();
+        // closed in reverse: the clients finish before the HttpClient goes away
+        try (HttpClient http = HttpClient.newHttpClient();
+             ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                threads.submit(() -> {
+                    while (System.nanoTime() < deadline) {
+                        byte[] img = images.get((int) (next.getAndIncrement() % images.size()));
+                        try {
+                            HttpResponse<byte[]> vq;
+                            MetricsRegistry.Span encodeSpan = encodeTimer.start().bytes(img.length);
+                            try {
+                                vq = http.send(HttpRequest.newBuilder(encodeUri)
+                                        .POST(HttpRequest.BodyPublishers.ofByteArray(img)).build(),
+                                        HttpResponse.BodyHandlers.ofByteArray());
+                            } finally {
+                                encodeSpan.close();
+                            }
+                            if (vq.statusCode() != 200) {
+                                errors.incrementAndGet();
+                                firstError.compareAndSet(null, "encode: HTTP " + vq.statusCode() + " " + new String(vq.body()).trim());
+                                continue;
+                            }
+                            bytesIn.addAndGet(img.length);
+                            bytesOut.addAndGet(vq.body().length);
+                            if (!roundTrip) continue;
+                            HttpResponse<byte[]> png;
+                            MetricsRegistry.Span decodeSpan = decodeTimer.start().bytes(vq.body().length);
+                            try {
+                                png = http.send(HttpRequest.newBuilder(decodeUri)
+                                        .POST(HttpRequest.BodyPublishers.ofByteArray(vq.body())).build(),
+                                        HttpResponse.BodyHandlers.ofByteArray());
+                            } finally {
+                                decodeSpan.close();
+                            }
+                            if (png.statusCode() != 200) {
+                                errors.incrementAndGet();
+                                firstError.compareAndSet(null, "decode: HTTP " + png.statusCode() + " " + new String(png.body()).trim());
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                            firstError.compareAndSet(null, e.toString());
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                });
+            }
+        }
+        double elapsed = (System.nanoTime() - t0) / 1e9;
+
+        System.out.printf("%,d encodes in %.1f s: %.1f requests/s, %.2f MB/s of images in, %.2f MB/s of .vq out, %d errors%n",
+                encodeTimer.count(), elapsed, encodeTimer.count() / elapsed, bytesIn.get() / elapsed / 1e6,
+                bytesOut.get() / elapsed / 1e6, errors.get());
+        if (firstError.get() != null) System.out.println("  first error: " + firstError.get());
+        for (MetricsRegistry.Timer t : roundTrip ? List.of(encodeTimer, decodeTimer) : List.of(encodeTimer)) {
+            System.out.printf("  %s latency: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", t == encodeTimer ? "encode" : "decode",
+                    t.percentile(0.50) / 1e6, t.percentile(0.99) / 1e6, t.maxNanos() / 1e6);
+        }
+
+        try (HttpClient http = HttpClient.newHttpClient()) {
+            HttpResponse<String> metrics = http.send(HttpRequest.newBuilder(URI.create(base + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            System.out.println("Server /metrics:");
+            System.out.println(metrics.body());
+        }
+    }
+
+    // every file of the test folder's categories, as bytes
+    private static List<byte[]> load(File dir) throws IOException {
+        List<byte[]> images = new ArrayList<>();
+        File[] categories = dir.listFiles();
+        if (categories == null) return images;
+        Arrays.sort(categories);
+        for (File category : categories) {
+            File[] files = category.listFiles();
+            if (files == null) continue;
+            Arrays.sort(files);
+            for (File f : files) if (f.isFile()) images.add(Files.readAllBytes(f.toPath()));
+        }
+        return images;
+    }
+}
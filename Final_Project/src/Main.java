@@ -1,85 +1,232 @@
 import java.io.File;
-import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 
 public class Main {
+
+    // smallest files on the test set; "--entropy raw" writes the plain fixed-width indices
+    private static final IndexCoding DEFAULT_CODING = IndexCoding.parse("rans+dpcm");
+    private static final String[] VALUE_OPTIONS = {"--seed", "--block", "--entropy", "--refine"};
+
     public static void main(String[] args) throws Exception {
         String trainingDir = "training";
         String testDir     = "test";
 
-        System.out.println("=== Generating RGB codebooks ===");
-        List<double[]> redCB   = CodebookGenerator.generate(trainingDir, 'R');
-        List<double[]> greenCB = CodebookGenerator.generate(trainingDir, 'G');
-        List<double[]> blueCB  = CodebookGenerator.generate(trainingDir, 'B');
-        CodebookIO.saveCodebook(redCB,"codebooks/redCB.txt");
-        CodebookIO.saveCodebook(greenCB, "codebooks/greenCB.txt");
-        CodebookIO.saveCodebook(blueCB,"codebooks/blueCB.txt");
-
-        // Codebook sizes
-        int cbY   = 256;   // Y luminance
-        int cbUV  = 64;    // U/V chroma subsampled
-
-        System.out.println("=== Generating YUV codebooks ===");
-        List<double[]> yCB = CodebookGeneratorYUV.generate(trainingDir, 'Y', cbY);
-        List<double[]> uCB = CodebookGeneratorYUV.generate(trainingDir, 'U', cbUV);
-        List<double[]> vCB = CodebookGeneratorYUV.generate(trainingDir, 'V', cbUV);
-        CodebookIO.saveCodebook(yCB, "codebooks/yCB.txt");
-        CodebookIO.saveCodebook(uCB, "codebooks/uCB.txt");
-        CodebookIO.saveCodebook(vCB, "codebooks/vCB.txt");
+        MetricsRegistry metrics = MetricsRegistry.global();
 
+        // --minibatch streams the training images instead of loading every block up front,
+        // --seed <n> makes the codebooks reproducible, --block <w>x<h> sets the block size,
+        // --entropy <raw|huffman|rans>[+dpcm] how the .vq files store their indices,
+        // --refine <dir> refines the codebooks in codebooks/ with the images in dir instead,
+        // --tree makes the Y/U/V codebooks the leaves of trees (codebooks/yCB.tsvq etc.) and encodes with those
+        List<String> options = Arrays.asList(args);
+        for (String option : VALUE_OPTIONS) {
+            int at = options.indexOf(option);
+            if (at >= 0 && (at + 1 >= args.length || args[at + 1].startsWith("--"))) {
+                System.out.println(option + " needs a value");
+                System.out.println("usage: Main [--minibatch] [--seed <n>] [--block <w>x<h>]"
+                        + " [--entropy <raw|huffman|rans>[+dpcm]] [--refine <dir> | --tree]");
+                return;
+            }
+        }
+        boolean miniBatch = options.contains("--minibatch");
+        boolean tree = options.contains("--tree");
+        if (tree && (miniBatch || options.contains("--refine"))) {
+            // trees are split from all the training blocks at once and cannot absorb new ones
+            System.out.println("--tree trains on the whole training set, without --minibatch or --refine");
+            return;
+        }
+        int seedAt = options.indexOf("--seed");
+        long seed = seedAt >= 0 ? Long.parseLong(args[seedAt + 1]) : new Random().nextLong();
+        int blockAt = options.indexOf("--block");
+        BlockGeometry block = blockAt >= 0 ? BlockGeometry.parse(args[blockAt + 1]) : BlockGeometry.DEFAULT;
+        int entropyAt = options.indexOf("--entropy");
+        IndexCoding coding = entropyAt >= 0 ? IndexCoding.parse(args[entropyAt + 1]) : DEFAULT_CODING;
+        int refineAt = options.indexOf("--refine");
+        String refineDir = refineAt >= 0 ? args[refineAt + 1] : null;
+        Map<Character, CentroidStats> stats;
+        Map<Character, TreeCodebook> trees = null;
+        Map<Character, List<double[]>> previous = new HashMap<>();   // the codebooks being refined
+        if (refineDir != null) {
+            BlockGeometry saved = CodebookIO.loadGeometry("codebooks/yCB.txt");
+            if (blockAt >= 0 && !block.equals(saved)) {
+                throw new IllegalArgumentException("--block " + block + " but the codebooks to refine are " + saved);
+            }
+            block = saved;
+            System.out.println("=== Refining codebooks with " + refineDir + " (" + block + " blocks) ===");
+            if (new File(CodebookIO.treeFileName("codebooks", 'Y')).isFile()) {
+                System.out.println("Note: the refined Y/U/V codebooks no longer match the trees in codebooks/;"
+                        + " run --tree again to retrain them");
+            }
+            stats = new LinkedHashMap<>();
+            for (char c : TrainingSet.CHANNELS) {
+                previous.put(c, CodebookIO.getCodebook("codebooks", c));
+                stats.put(c, CentroidStats.load(CentroidStats.fileName("codebooks", c), previous.get(c)));
+            }
+            MetricsRegistry.Span refine = metrics.timer("train.refine").start();
+            try {
+                stats = CodebookTrainer.refine(refineDir, stats, block, CodebookTrainer.DEFAULT_BATCH_SIZE, new Random(seed));
+            } finally {
+                refine.close();
+            }
+        } else if (miniBatch) {
+            System.out.println("=== Generating RGB and YUV codebooks (mini-batch, " + block + " blocks) ===");
+            MetricsRegistry.Span cluster = metrics.timer("train.cluster").start();
+            try {
+                stats = CodebookTrainer.trainMiniBatchWithStats(trainingDir, block, CodebookTrainer.DEFAULT_BATCH_SIZE,
+                        CodebookTrainer.DEFAULT_EPOCHS, new Random(seed));
+            } finally {
+                cluster.close();
+            }
+        } else {
+            System.out.println("=== Loading training set ===");
+            TrainingSet training;
+            MetricsRegistry.Span load = metrics.timer("train.load").start();
+            try {
+                training = TrainingSet.load(trainingDir, block);
+            } finally {
+                load.close();
+            }
 
-        System.out.println("=== Processing test images ===");
-        File testFolder = new File(testDir);
-        for (File category : testFolder.listFiles()) {
-            if (!category.isDirectory()) continue;
-            System.out.println("-> Category: " + category.getName());
+            System.out.println("=== Generating RGB and YUV codebooks (" + block + " blocks) ===");
+            Map<Character, List<double[]>> trained;
+            MetricsRegistry.Span cluster = metrics.timer("train.cluster").start();
+            try {
+                trained = CodebookTrainer.trainAll(training, FastKMeans.DEFAULT_SEEDING, seed);
+            } finally {
+                cluster.close();
+            }
+            if (tree) {
+                System.out.println("=== Growing Y, U and V trees ===");
+                MetricsRegistry.Span grow = metrics.timer("train.tree").start();
+                try {
+                    trees = CodebookTrainer.trainTrees(training, seed);
+                } finally {
+                    grow.close();
+                }
+                for (Map.Entry<Character, TreeCodebook> e : trees.entrySet()) {
+                    trained.put(e.getKey(), e.getValue().codebook());
+                    CodebookIO.saveTreeCodebook(e.getValue(), CodebookIO.treeFileName("codebooks", e.getKey()), block);
+                }
+            }
+            stats = CodebookTrainer.stats(training, trained);
+        }
+        Map<Character, List<double[]>> codebooks = CodebookTrainer.codebooks(stats);
 
-            for (File imgFile : category.listFiles()) {
-                System.out.println(" * Image: " + imgFile.getName());
+        List<double[]> redCB   = codebooks.get('R');
+        List<double[]> greenCB = codebooks.get('G');
+        List<double[]> blueCB  = codebooks.get('B');
+        List<double[]> yCB     = codebooks.get('Y');
+        List<double[]> uCB     = codebooks.get('U');
+        List<double[]> vCB     = codebooks.get('V');
+        // the .cb copies are exact, so CodebookIO.getCodebook("codebooks", c) loads them in place of the text
+        for (char c : TrainingSet.CHANNELS) {
+            CodebookIO.saveCodebook(codebooks.get(c), CodebookIO.textFileName("codebooks", c), block);
+            CodebookIO.saveBinaryCodebook(codebooks.get(c), CodebookIO.binaryFileName("codebooks", c),
+                    CodebookIO.ELEMENT_FLOAT64, block);
+        }
+        for (Map.Entry<Character, CentroidStats> e : stats.entrySet()) {
+            e.getValue().save(CentroidStats.fileName("codebooks", e.getKey()));
+        }
 
-                // Load image once for dimensions
-                BufferedImage img = ImageIO.read(imgFile);
-                if (img == null) {
-                    System.out.println("   [!] Cannot read image, skipping.");
-                    continue;
+        // only HUFFMAN codes from the counts; the others need no pass over the images
+        EntropyModel model = null;
+        if (coding.method() == IndexCoding.HUFFMAN) {
+            System.out.println("=== Counting codeword use for entropy coding ===");
+            MetricsRegistry.Span entropy = metrics.timer("train.entropy").start();
+            try {
+                if (refineDir != null) {
+                    // the new images' counts on top of the saved ones, not a pass over all of training/
+                    model = EntropyModel.load("codebooks", previous);
+                    model.add(EntropyModel.train(refineDir, codebooks, block));
+                } else {
+                    model = EntropyModel.train(trainingDir, codebooks, block);
                 }
-                int width  = img.getWidth();
-                int height = img.getHeight();
+            } finally {
+                entropy.close();
+            }
+            model.save("codebooks");
+        }
 
-                // --- RGB VQ ---
-                System.out.println("   [RGB VQ]");
-                VQCompressor.compressAndDecompress(imgFile, redCB, greenCB, blueCB);
-                double rgbRatio = CodebookIO.calculateCompressionRatio(width, height, 1, redCB.size())
-                        + CodebookIO.calculateCompressionRatio(width, height, 1, greenCB.size())
-                        + CodebookIO.calculateCompressionRatio(width, height, 1, blueCB.size());
-                rgbRatio /= 3.0;
-                System.out.printf("   RGB VQ Compression Ratio: %.2f%n", rgbRatio);
+        System.out.println("=== Processing test images (" + coding + " indices" + (tree ? ", YUV by tree" : "") + ") ===");
+        BatchPipeline pipeline = trees != null
+                ? new BatchPipeline(redCB, greenCB, blueCB, trees.get('Y'), trees.get('U'), trees.get('V'),
+                        block, coding, model)
+                : new BatchPipeline(redCB, greenCB, blueCB, yCB, uCB, vCB, block, coding, model);
+        List<ImageResult> results = pipeline.run(new File(testDir));
 
-                // --- YUV VQ ---
-                System.out.println("   [YUV VQ]");
-                YUVCompressor.compressAndDecompressYUV(imgFile, yCB, uCB, vCB);
-                double yRatio = CodebookIO.calculateCompressionRatio(width, height, 2, yCB.size());
-                double uRatio = CodebookIO.calculateCompressionRatio(width/2, height/2, 2, uCB.size());
-                double vRatio = CodebookIO.calculateCompressionRatio(width/2, height/2, 2, vCB.size());
-                double yuvRatio = (yRatio + uRatio + vRatio) / 3.0;
-                System.out.printf("   YUV VQ Compression Ratio: %.2f%n", yuvRatio);
+        String category = null;
+        int ok = 0;
+        double rgbPsnr = 0, yuvPsnr = 0, rgbSsim = 0, yuvSsim = 0, rgbBpp = 0, yuvBpp = 0;
+        for (ImageResult r : results) {
+            if (!r.category().equals(category)) {
+                category = r.category();
+                System.out.println("-> Category: " + category);
+            }
+            if (!r.ok()) {
+                System.out.println(" * Image: " + r.name() + "  [!] " + r.error() + ", skipped.");
+                continue;
+            }
+            System.out.printf(" * Image: %s (%d×%d)  read %.1f ms%n",
+                    r.name(), r.width(), r.height(), r.readNanos() / 1e6);
+            System.out.printf("   RGB VQ: PSNR %.2f dB, SSIM %.4f, %,d bytes, %.3f bpp, ratio %.2f (indices alone %.2f),"
+                            + " encode %.1f ms, decode %.1f ms%n",
+                    r.rgbPsnr(), r.rgbQuality().ssim(), r.rgbBytes(), r.rgbBpp(), r.rgbRatio(),
+                    indexRatio(r.width(), r.height(), BlockGeometry.square(1), false, List.of(redCB, greenCB, blueCB)),
+                    r.rgbEncodeNanos() / 1e6, r.rgbDecodeNanos() / 1e6);
+            System.out.printf("   YUV VQ: PSNR %.2f dB, SSIM %.4f, %,d bytes, %.3f bpp, ratio %.2f (indices alone %.2f),"
+                            + " encode %.1f ms, decode %.1f ms%n",
+                    r.yuvPsnr(), r.yuvQuality().ssim(), r.yuvBytes(), r.yuvBpp(), r.yuvRatio(),
+                    indexRatio(r.width(), r.height(), block, true, List.of(yCB, uCB, vCB)),
+                    r.yuvEncodeNanos() / 1e6, r.yuvDecodeNanos() / 1e6);
+            ok++;
+            rgbPsnr += r.rgbPsnr();
+            yuvPsnr += r.yuvPsnr();
+            rgbSsim += r.rgbQuality().ssim();
+            yuvSsim += r.yuvQuality().ssim();
+            rgbBpp += r.rgbBpp();
+            yuvBpp += r.yuvBpp();
 
-                // --- Comparison ---
-                double compRatio = rgbRatio / yuvRatio;
-                System.out.printf("   RGB/YUV Ratio: %.2f%n", compRatio);
-                if (rgbRatio > yuvRatio) {
-                    System.out.println("   => RGB VQ compresses better by a factor of "
-                            + String.format("%.2f", compRatio));
-                } else if (yuvRatio > rgbRatio) {
-                    System.out.println("   => YUV VQ compresses better by a factor of "
-                            + String.format("%.2f", 1/compRatio));
-                } else {
-                    System.out.println("   => Both methods compress equally.");
-                }
+            // --- Comparison ---
+            double compRatio = r.rgbRatio() / r.yuvRatio();
+            if (compRatio > 1) {
+                System.out.printf("   => RGB VQ compresses better by a factor of %.2f%n", compRatio);
+            } else if (compRatio < 1) {
+                System.out.printf("   => YUV VQ compresses better by a factor of %.2f%n", 1 / compRatio);
+            } else {
+                System.out.println("   => Both methods compress equally.");
             }
         }
 
+        if (ok > 0) {
+            System.out.printf("=== Mean over %d images: RGB %.2f dB, SSIM %.4f, %.3f bpp; YUV %.2f dB, SSIM %.4f, %.3f bpp ===%n",
+                    ok, rgbPsnr / ok, rgbSsim / ok, rgbBpp / ok, yuvPsnr / ok, yuvSsim / ok, yuvBpp / ok);
+        }
+
+        System.out.println("=== Stage metrics ===");
+        metrics.print();
+        metrics.writeCsv(new File("output/metrics.csv"));
+        metrics.writeJson(new File("output/metrics.json"));
+        System.out.println("Saved output/metrics.csv and output/metrics.json");
+
         System.out.println("=== All done! ===");
     }
+
+    // Ratio the fixed-width index grids alone give, with no header or entropy coding; each
+    // channel counts by the size of its plane, the chroma planes being halved when yuv
+    private static double indexRatio(int width, int height, BlockGeometry block, boolean yuv,
+                                     List<List<double[]>> codebooks) {
+        double share = 0;
+        for (int c = 0; c < codebooks.size(); c++) {
+            int w = yuv && c > 0 ? (width + 1) / 2 : width;
+            int h = yuv && c > 0 ? (height + 1) / 2 : height;
+            share += (double) w * h / ((double) width * height)
+                    / CodebookIO.calculateCompressionRatio(w, h, block, codebooks.get(c).size());
+        }
+        return 1 / share;
+    }
 }
@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Named stage timers and counters, aggregated over a whole run and cheap enough to leave on.
+// A timer records one span per stage call: its duration into a histogram (p50/p99), the bytes
+// it processed, and what the calling thread allocated meanwhile (platform threads only, the
+// JVM does not count per virtual thread). The histogram is log-linear, 16 buckets per power
+// of two, so percentiles are within about 6%; recording a span is a handful of atomic adds.
+//   MetricsRegistry.Span s = MetricsRegistry.global().timer("yuv.search").start();
+//   try { ... } finally { s.close(); }
+// or try-with-resources where the body uses the span, e.g. to add bytes only known at the end.
+public class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+
+    // The registry the compressors report to
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, n -> new Timer());
+    }
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public void writeCsv(File file) throws IOException {
+        try (PrintWriter out = open(file)) {
+            out.println("type,name,count,total_ms,mean_ms,p50_ms,p99_ms,max_ms,bytes,mb_per_s,alloc_bytes");
+            for (Map.Entry<String, Timer> e : timers.entrySet()) {
+                Timer t = e.getValue();
+                out.printf("timer,%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%.2f,%d%n", e.getKey(), t.count(),
+                        t.totalNanos() / 1e6, t.meanNanos() / 1e6, t.percentile(0.50) / 1e6,
+                        t.percentile(0.99) / 1e6, t.maxNanos() / 1e6, t.bytes(), t.megabytesPerSecond(),
+                        t.allocatedBytes());
+            }
+            for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+                out.printf("counter,%s,%d,,,,,,,,%n", e.getKey(), e.getValue().sum());
+            }
+        }
+    }
+
+    public void writeJson(File file) throws IOException {
+        try (PrintWriter out = open(file)) {
+            writeJson(out);
+        }
+    }
+
+    // Same JSON to any writer, e.g. a /metrics response
+    public void writeJson(PrintWriter out) {
+        // copies, so a stage first seen while writing cannot leave a dangling comma
+        List<Map.Entry<String, Timer>> timers = new ArrayList<>(this.timers.entrySet());
+        List<Map.Entry<String, LongAdder>> counters = new ArrayList<>(this.counters.entrySet());
+        out.println("{");
+        out.println("  \"timers\": {");
+        int i = 0;
+        for (Map.Entry<String, Timer> e : timers) {
+            Timer t = e.getValue();
+            out.printf("    \"%s\": {\"count\": %d, \"totalNanos\": %d, \"meanNanos\": %d, \"p50Nanos\": %d, "
+                            + "\"p99Nanos\": %d, \"maxNanos\": %d, \"bytes\": %d, \"allocatedBytes\": %d}%s%n",
+                    e.getKey(), t.count(), t.totalNanos(), t.meanNanos(), t.percentile(0.50),
+                    t.percentile(0.99), t.maxNanos(), t.bytes(), t.allocatedBytes(),
+                    ++i < timers.size() ? "," : "");
+        }
+        out.println("  },");
+        out.println("  \"counters\": {");
+        i = 0;
+        for (Map.Entry<String, LongAdder> e : counters) {
+            out.printf("    \"%s\": %d%s%n", e.getKey(), e.getValue().sum(), ++i < counters.size() ? "," : "");
+        }
+        out.println("  }");
+        out.println("}");
+    }
+
+    // One line per timer and counter, for the console
+    public void print() {
+        System.out.printf("%-22s %7s %10s %9s %9s %9s %10s %12s%n",
+                "stage", "count", "total ms", "p50 ms", "p99 ms", "max ms", "MB/s", "alloc MB");
+        for (Map.Entry<String, Timer> e : timers.entrySet()) {
+            Timer t = e.getValue();
+            System.out.printf("%-22s %7d %10.1f %9.2f %9.2f %9.2f %10s %12.1f%n", e.getKey(), t.count(),
+                    t.totalNanos() / 1e6, t.percentile(0.50) / 1e6, t.percentile(0.99) / 1e6, t.maxNanos() / 1e6,
+                    t.bytes() > 0 ? String.format("%.1f", t.megabytesPerSecond()) : "-",
+                    t.allocatedBytes() / 1e6);
+        }
+        for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+            System.out.printf("%-22s %,d%n", e.getKey(), e.getValue().sum());
+        }
+    }
+
+    private static PrintWriter open(File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        return new PrintWriter(file, "UTF-8");
+    }
+
+    // bytes allocated so far by the calling thread, -1 where the JVM cannot tell
+    static long threadAllocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+
+    public static final class Timer {
+
+        private static final int SUB_BUCKETS = 16; // per power of two
+        private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+
+        public Span start() {
+            return new Span(this, System.nanoTime(), threadAllocatedBytes());
+        }
+
+        public void record(long nanos, long bytesProcessed, long allocatedBytes) {
+            histogram.incrementAndGet(bucket(Math.max(0, nanos)));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            if (bytesProcessed > 0) bytes.add(bytesProcessed);
+            if (allocatedBytes > 0) allocated.add(allocatedBytes);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long totalNanos() {
+            return totalNanos.sum();
+        }
+
+        public long meanNanos() {
+            long n = count();
+            return n > 0 ? totalNanos() / n : 0;
+        }
+
+        public long maxNanos() {
+            return maxNanos.get();
+        }
+
+        public long bytes() {
+            return bytes.sum();
+        }
+
+        public long allocatedBytes() {
+            return allocated.sum();
+        }
+
+        public double megabytesPerSecond() {
+            long nanos = totalNanos();
+            return nanos > 0 ? bytes() / (nanos / 1e3) : 0;
+        }
+
+        // Duration below which the fraction q of the spans fall, from the middle of its bucket
+        public long percentile(double q) {
+            long n = count();
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n));
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += histogram.get(b);
+                if (seen >= rank) return Math.min((lowerBound(b) + lowerBound(b + 1)) / 2, maxNanos());
+            }
+            return maxNanos();
+        }
+
+        // values below 16 get a bucket each, above that 16 buckets per power of two
+        private static int bucket(long v) {
+            if (v < SUB_BUCKETS) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - 4)) & (SUB_BUCKETS - 1);
+            return (exp - 3) * SUB_BUCKETS + sub;
+        }
+
+        private static long lowerBound(int b) {
+            if (b < SUB_BUCKETS) return b;
+            int exp = b / SUB_BUCKETS + 3;
+            return (long) (SUB_BUCKETS + b % SUB_BUCKETS) << (exp - 4);
+        }
+    }
+
+    // One timed stage call; close it to record, after optionally telling it the bytes handled
+    public static final class Span implements AutoCloseable {
+
+        private final Timer timer;
+        private final long startNanos;
+        private final long startAllocated;
+        private long bytes;
+
+        private Span(Timer timer, long startNanos, long startAllocated) {
+            this.timer = timer;
+            this.startNanos = startNanos;
+            this.startAllocated = startAllocated;
+        }
+
+        public Span bytes(long n) {
+            bytes += n;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            long nanos = System.nanoTime() - startNanos;
+            long alloc = startAllocated >= 0 ? threadAllocatedBytes() - startAllocated : 0;
+            timer.record(nanos, bytes, alloc);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Random;
+
+// Mini-batch K-Means (Sculley, "Web-Scale K-Means Clustering"): each batch is first assigned
+// to the current centroids, then every vector pulls its centroid towards itself with rate
+// 1 / (vectors that centroid has absorbed so far). Only the centroids and their counts are
+// kept between batches, so the training data can be streamed. Same flat layout as FastKMeans.
+// resume() restarts from a finished model's centroids and counts: each centroid stays the
+// running mean of every vector it absorbed, old and new (see CentroidStats).
+public class MiniBatchKMeans {
+
+    private final int k;
+    private final int dim;
+    private final double[] centroids;
+    private final long[] counts;
+    private int[] assignment = new int[0];
+    private boolean seeded;
+
+    public MiniBatchKMeans(int k, int dim) {
+        this.k = k;
+        this.dim = dim;
+        this.centroids = new double[k * dim];
+        this.counts = new long[k];
+    }
+
+    // Start from these centroids (flat, k × dim) instead of vectors of the first batch
+    public void seed(double[] initial) {
+        System.arraycopy(initial, 0, centroids, 0, k * dim);
+        seeded = true;
+    }
+
+    // Continue from centroids that have already absorbed counts[j] vectors each, so new vectors
+    // move them only as much as their share of the total
+    public void resume(double[] initial, long[] absorbed) {
+        seed(initial);
+        System.arraycopy(absorbed, 0, counts, 0, k);
+    }
+
+    // One step on vectors [from, from + n) of data; without seed(), the first batch also seeds
+    // the centroids with k of its vectors
+    public void update(float[] data, int from, int n, Random rand) {
+        if (n == 0) return;
+        if (!seeded) {
+            seed(data, from, n, rand);
+            seeded = true;
+        }
+        if (assignment.length < n) assignment = new int[n];
+        DistanceKernel kernel = DistanceKernel.of(centroids, k, dim);
+        float[] scratch = kernel.scratch();
+        for (int i = 0; i < n; i++) {
+            assignment[i] = kernel.nearest(data, (from + i) * dim, scratch);
+        }
+        for (int i = 0; i < n; i++) {
+            int c = assignment[i];
+            double eta = 1.0 / ++counts[c];
+            int base = c * dim, off = (from + i) * dim;
+            for (int d = 0; d < dim; d++) {
+                centroids[base + d] += eta * (data[off + d] - centroids[base + d]);
+            }
+        }
+    }
+
+    // Flat centroids, centroid j at [j*dim .. j*dim+dim)
+    public double[] centroids() {
+        return centroids.clone();
+    }
+
+    // Vectors absorbed by each centroid so far
+    public long[] counts() {
+        return counts.clone();
+    }
+
+    // distinct vectors of the batch while it has enough, random repeats otherwise
+    private void seed(float[] data, int from, int n, Random rand) {
+        int[] pick = new int[n];
+        for (int i = 0; i < n; i++) pick[i] = i;
+        for (int j = 0; j < k; j++) {
+            int p;
+            if (j < n) {
+                int r = j + rand.nextInt(n - j);
+                p = pick[r];
+                pick[r] = pick[j];
+                pick[j] = p;
+            } else {
+                p = rand.nextInt(n);
+            }
+            int off = (from + p) * dim;
+            for (int d = 0; d < dim; d++) centroids[j * dim + d] = data[off + d];
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Codebook search for one image spread over a ForkJoinPool: the channels are searched
+// concurrently and each is cut into bands of block rows, split in halves down to a few bands
+// per thread so idle workers steal the rest of a slower channel. The bands of a FusedYUVEncoder,
+// which cover all three channels at once, are split the same way. Every band writes only its own
+// rows of the index grid, so the indices are exactly the serial encoder's at any parallelism.
+// shared() sizes its pool from -Dvq.encodeThreads (default: every core) for single images;
+// BatchPipeline, which already runs images side by side, gives each its share of the cores.
+// With a parallelism of 1 the bands run in order on the calling thread, no pool involved.
+public final class ParallelEncoder implements AutoCloseable {
+
+    public static final ParallelEncoder SERIAL = new ParallelEncoder(1);
+
+    private static final int BANDS_PER_THREAD = 4;
+    private static volatile ParallelEncoder shared;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;    // null when serial
+
+    public ParallelEncoder(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    // The encoder YUVCompressor and VQCompressor use unless given one, created on first use
+    public static ParallelEncoder shared() {
+        ParallelEncoder e = shared;
+        if (e == null) {
+            synchronized (ParallelEncoder.class) {
+                e = shared;
+                if (e == null) {
+                    int n = Integer.getInteger("vq.encodeThreads", Runtime.getRuntime().availableProcessors());
+                    shared = e = n > 1 ? new ParallelEncoder(n) : SERIAL;
+                }
+            }
+        }
+        return e;
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    // ImageUtilsYUV.compressChannel of every channel with its codebook
+    public Plane[] compressChannels(Plane[] channels, CodebookIndex[] codebooks, BlockGeometry block) {
+        Plane[] idx = new Plane[channels.length];
+        for (int c = 0; c < channels.length; c++) idx[c] = ImageUtilsYUV.indexPlane(channels[c], codebooks[c], block);
+        run(idx, (c, from, to) -> ImageUtilsYUV.compressRows(channels[c], codebooks[c], block, idx[c], from, to));
+        return idx;
+    }
+
+    // Same with tree codebooks, see TreeCodebook
+    public Plane[] compressChannels(Plane[] channels, TreeCodebook[] codebooks, BlockGeometry block) {
+        Plane[] idx = new Plane[channels.length];
+        for (int c = 0; c < channels.length; c++) idx[c] = ImageUtilsYUV.indexPlane(channels[c], codebooks[c], block);
+        run(idx, (c, from, to) -> ImageUtilsYUV.compressRows(channels[c], codebooks[c], block, idx[c], from, to));
+        return idx;
+    }
+
+    // Every band of a FusedYUVEncoder, which converts, sub-samples and searches in one pass
+    public Plane[] compress(FusedYUVEncoder image) {
+        run(new int[]{image.bands()}, (c, from, to) -> image.encode(from, to));
+        return image.indices();
+    }
+
+    // ImageUtilsQV.compressComponent of every component with its codebook
+    public Plane[] compressComponents(Plane[] components, CodebookIndex[] codebooks) {
+        Plane[] idx = new Plane[components.length];
+        for (int c = 0; c < components.length; c++) idx[c] = new Plane(components[c].width, components[c].height);
+        run(idx, (c, from, to) -> ImageUtilsQV.compressRows(components[c], codebooks[c], idx[c], from, to));
+        return idx;
+    }
+
+    // Stops the pool's threads; SERIAL and shared() stay usable
+    @Override
+    public void close() {
+        if (pool != null && this != shared) pool.shutdown();
+    }
+
+    // rows [from, to) of the grid of channel c
+    private interface Band {
+        void encode(int c, int from, int to);
+    }
+
+    private void run(Plane[] grids, Band band) {
+        int[] rows = new int[grids.length];
+        for (int c = 0; c < grids.length; c++) rows[c] = grids[c].height;
+        run(rows, band);
+    }
+
+    // rows[c] rows of each channel c
+    private void run(int[] rows, Band band) {
+        if (pool == null) {
+            for (int c = 0; c < rows.length; c++) band.encode(c, 0, rows[c]);
+            return;
+        }
+        List<Bands> channels = new ArrayList<>(rows.length);
+        for (int c = 0; c < rows.length; c++) {
+            channels.add(new Bands(band, c, 0, rows[c], Math.max(1, rows[c] / (BANDS_PER_THREAD * parallelism))));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(channels)));
+    }
+
+    // fork-join tasks are Serializable, these are never serialized
+    @SuppressWarnings("serial")
+    private static final class Bands extends RecursiveAction {
+        private final Band band;
+        private final int c, from, to, grain;
+
+        Bands(Band band, int c, int from, int to, int grain) {
+            this.band = band;
+            this.c = c;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                band.encode(c, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Bands(band, c, from, mid, grain), new Bands(band, c, mid, to, grain));
+        }
+    }
+}
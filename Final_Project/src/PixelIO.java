@@ -0,0 +1,82 @@
+import java.awt.image.*;
+
+// Pixel access straight on the raster's backing array instead of getRGB/setRGB per pixel.
+// Reads have fast paths for packed int RGB/ARGB and interleaved 8-bit BGR/ABGR images
+// (what ImageIO returns for PNG and JPEG); any other layout goes through a bulk getRGB
+// per row, so the values are always the same as BufferedImage.getRGB would give.
+// Writes target TYPE_INT_RGB images created here, whose data array is filled directly.
+public class PixelIO {
+
+    // Row y as packed 0xRRGGBB into dst[0..width)
+    public static void readRow(BufferedImage img, int y, int[] dst) {
+        int w = img.getWidth();
+        WritableRaster raster = img.getRaster();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        int type = img.getType();
+
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt db = (DataBufferInt) raster.getDataBuffer();
+            int[] data = db.getData();
+            int off = db.getOffset() + sm.getOffset(-tx, y - ty);
+            for (int x = 0; x < w; x++) dst[x] = data[off + x] & 0xFFFFFF;
+            return;
+        }
+
+        if (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR) {
+            ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte db = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = db.getData();
+            int stride = sm.getPixelStride();
+            int[] bands = sm.getBandOffsets();
+            int off = db.getOffset() + (y - ty) * sm.getScanlineStride() - tx * stride;
+            int ro = off + bands[0], go = off + bands[1], bo = off + bands[2];
+            for (int x = 0, p = 0; x < w; x++, p += stride) {
+                dst[x] = (data[ro + p] & 0xFF) << 16 | (data[go + p] & 0xFF) << 8 | (data[bo + p] & 0xFF);
+            }
+            return;
+        }
+
+        img.getRGB(0, y, w, 1, dst, 0, w);
+        for (int x = 0; x < w; x++) dst[x] &= 0xFFFFFF;
+    }
+
+    // Whole image as packed 0xRRGGBB, pixel (x, y) at [y * width + x]
+    public static int[] readPacked(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        int[] packed = new int[w * h];
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            readRow(img, y, row);
+            System.arraycopy(row, 0, packed, y * w, w);
+        }
+        return packed;
+    }
+
+    // All three channels in one pass, one plane each
+    public static Plane[] readPlanes(BufferedImage img) {
+        int w = img.getWidth(), h = img.getHeight();
+        Plane r = new Plane(w, h), g = new Plane(w, h), b = new Plane(w, h);
+        int[] row = new int[w];
+        for (int y = 0; y < h; y++) {
+            readRow(img, y, row);
+            for (int x = 0, i = y * w; x < w; x++, i++) {
+                int p = row[x];
+                r.set(i, (p >> 16) & 0xFF);
+                g.set(i, (p >> 8) & 0xFF);
+                b.set(i, p & 0xFF);
+            }
+        }
+        return new Plane[]{r, g, b};
+    }
+
+    public static BufferedImage newRgbImage(int width, int height) {
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    // Backing array of an image from newRgbImage, pixel (x, y) at [y * width + x]
+    public static int[] rgbData(BufferedImage img) {
+        return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+    }
+}
@@ -0,0 +1,88 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Megapixels/sec of the per-pixel getRGB/setRGB paths against PixelIO on the test images,
+// checking that both produce the same pixels.
+// Run from the project folder: java PixelIOBenchmark [testDir] [rounds]
+public class PixelIOBenchmark {
+    public static void main(String[] args) throws Exception {
+        String testDir = args.length > 0 ? args[0] : "test";
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<BufferedImage> images = new ArrayList<>();
+        long pixels = 0;
+        for (File category : new File(testDir).listFiles()) {
+            if (!category.isDirectory()) continue;
+            for (File f : category.listFiles()) {
+                BufferedImage img = ImageIO.read(f);
+                if (img == null) continue;
+                images.add(img);
+                pixels += (long) img.getWidth() * img.getHeight();
+            }
+        }
+
+        for (int round = 0; round < rounds; round++) {
+            long oldRead = 0, newRead = 0, oldWrite = 0, newWrite = 0;
+            for (BufferedImage img : images) {
+                long t0 = System.nanoTime();
+                int[][][] a = {legacyExtract(img, 'R'), legacyExtract(img, 'G'), legacyExtract(img, 'B')};
+                long t1 = System.nanoTime();
+                Plane[] b = ImageUtilsQV.extractComponents(img);
+                long t2 = System.nanoTime();
+                BufferedImage oa = legacyMerge(a[0], a[1], a[2]);
+                long t3 = System.nanoTime();
+                BufferedImage ob = ImageUtilsQV.mergeComponents(b[0], b[1], b[2]);
+                long t4 = System.nanoTime();
+                oldRead += t1 - t0;
+                newRead += t2 - t1;
+                oldWrite += t3 - t2;
+                newWrite += t4 - t3;
+                check(oa, ob);
+            }
+            System.out.printf("round %d  read: getRGB %.1f MP/s, PixelIO %.1f MP/s  "
+                            + "write: setRGB %.1f MP/s, PixelIO %.1f MP/s%n",
+                    round, pixels / (oldRead / 1e3), pixels / (newRead / 1e3),
+                    pixels / (oldWrite / 1e3), pixels / (newWrite / 1e3));
+        }
+    }
+
+    // the original ImageUtilsQV.extractComponent
+    private static int[][] legacyExtract(BufferedImage img, char component) {
+        int w = img.getWidth(), h = img.getHeight();
+        int[][] comp = new int[h][w];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int rgb = img.getRGB(x, y);
+                if (component == 'R') comp[y][x] = (rgb >> 16) & 0xFF;
+                else if (component == 'G') comp[y][x] = (rgb >> 8) & 0xFF;
+                else comp[y][x] = rgb & 0xFF;
+            }
+        }
+        return comp;
+    }
+
+    // the original ImageUtilsQV.mergeComponents
+    private static BufferedImage legacyMerge(int[][] r, int[][] g, int[][] b) {
+        int h = r.length, w = r[0].length;
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                img.setRGB(x, y, (r[y][x] << 16) | (g[y][x] << 8) | b[y][x]);
+            }
+        }
+        return img;
+    }
+
+    private static void check(BufferedImage a, BufferedImage b) {
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                if (a.getRGB(x, y) != b.getRGB(x, y)) {
+                    throw new IllegalStateException("Pixel mismatch at " + x + "," + y);
+                }
+            }
+        }
+    }
+}
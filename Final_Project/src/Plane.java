@@ -0,0 +1,40 @@
+// One image channel (or index grid) in a single contiguous array, sample (x, y) at [y * stride + x].
+// Samples are signed 16-bit so the same type holds R, G, B, Y, the negative U/V values
+// and codebook indices; one storage type keeps get/set free of branches in the hot loops.
+public final class Plane {
+
+    public final int width;
+    public final int height;
+    public final int stride;
+
+    private final short[] data;
+
+    public Plane(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.stride = width;
+        this.data = new short[width * height];
+    }
+
+    public int get(int x, int y) {
+        return data[y * stride + x];
+    }
+
+    public void set(int x, int y, int v) {
+        data[y * stride + x] = (short) v;
+    }
+
+    // by linear position y * stride + x
+    public int get(int i) {
+        return data[i];
+    }
+
+    public void set(int i, int v) {
+        data[i] = (short) v;
+    }
+
+    // size of the sample array
+    public long bytes() {
+        return 2L * data.length;
+    }
+}
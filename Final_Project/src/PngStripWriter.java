@@ -0,0 +1,100 @@
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// Writes an 8-bit RGB PNG a few rows at a time, so an image can be saved without ever
+// holding all of it. Rows use the Sub filter and are deflated as they arrive; compressed
+// data goes out in IDAT chunks of up to CHUNK_SIZE bytes.
+public class PngStripWriter implements AutoCloseable {
+
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] rowBytes;
+    private final int[] row;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkLength;
+    private int rowsWritten;
+
+    public PngStripWriter(File file, int width, int height) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        this.width = width;
+        this.height = height;
+        this.rowBytes = new byte[1 + 3 * width];
+        this.row = new int[width];
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(ihdr);
+        d.writeInt(width);
+        d.writeInt(height);
+        d.writeByte(8); // bit depth
+        d.writeByte(2); // colour type: RGB
+        d.writeByte(0); // deflate
+        d.writeByte(0); // adaptive filtering
+        d.writeByte(0); // no interlace
+        writeChunk("IHDR", ihdr.toByteArray(), ihdr.size());
+    }
+
+    // Append all rows of the strip, which must be as wide as the image
+    public void writeRows(BufferedImage strip) throws IOException {
+        if (strip.getWidth() != width) throw new IllegalArgumentException("Strip width " + strip.getWidth());
+        if (rowsWritten + strip.getHeight() > height) throw new IllegalStateException("More rows than the image height");
+        for (int y = 0; y < strip.getHeight(); y++) {
+            PixelIO.readRow(strip, y, row);
+            rowBytes[0] = 1; // Sub: each byte minus the same channel of the pixel to its left
+            int prev = 0;
+            for (int x = 0, i = 1; x < width; x++, i += 3) {
+                int p = row[x];
+                rowBytes[i]     = (byte) ((p >> 16) - (prev >> 16));
+                rowBytes[i + 1] = (byte) ((p >> 8) - (prev >> 8));
+                rowBytes[i + 2] = (byte) (p - prev);
+                prev = p;
+            }
+            deflater.setInput(rowBytes);
+            while (!deflater.needsInput()) drain();
+        }
+        rowsWritten += strip.getHeight();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height) {
+                throw new IOException("Only " + rowsWritten + " of " + height + " rows were written");
+            }
+            deflater.finish();
+            while (!deflater.finished()) drain();
+            if (chunkLength > 0) writeChunk("IDAT", chunk, chunkLength);
+            writeChunk("IEND", chunk, 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    private void drain() throws IOException {
+        chunkLength += deflater.deflate(chunk, chunkLength, CHUNK_SIZE - chunkLength);
+        if (chunkLength == CHUNK_SIZE) {
+            writeChunk("IDAT", chunk, chunkLength);
+            chunkLength = 0;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,141 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+// Per-channel MSE, PSNR and SSIM of a decoded image against its source, measured while the
+// decoder writes it: the decoder hands over each group of rows it has just finished (still in
+// cache), and the meter reads the same rows of the source straight from its raster. Nothing
+// is kept but running sums, so no reconstructed planes and no second pass over the image.
+// Both pipelines are measured the same way, on the R, G and B of the final pixels, so their
+// numbers can be compared directly.
+// SSIM (Wang et al., 2004) is taken over non-overlapping 8×8 windows, partial ones at the right
+// and bottom edges included, and averaged; only the window sums of the current row of windows
+// are held. All sums are integers, so the result does not depend on how rows are grouped.
+public final class QualityMeter {
+
+    public static final int WINDOW = 8;
+
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+    // window sums per channel: Σx, Σy, Σx², Σy², Σxy
+    private static final int SUMS = 5;
+
+    private final BufferedImage source;
+    private final int width, height;
+    private final int windows;          // windows across
+    private final int[] sourceRow;
+    private final long[] squaredError = new long[3];
+    private final long[] window;        // [window][channel][sum] of the current window row
+    private final double[] ssimSum = new double[3];
+    private long windowCount;
+    private int nextRow;
+
+    // Meter for a decode of source, which must be the same size
+    public QualityMeter(BufferedImage source) {
+        this.source = source;
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+        this.windows = (width + WINDOW - 1) / WINDOW;
+        this.sourceRow = new int[width];
+        this.window = new long[windows * 3 * SUMS];
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    // Rows [fromY, toY) of the decoded image, packed 0xRRGGBB with pixel (x, y) at
+    // pixels[y * width + x]; rows must arrive in order, each exactly once
+    public void rows(int[] pixels, int fromY, int toY) {
+        if (fromY != nextRow || toY > height) {
+            throw new IllegalStateException("Expected rows from " + nextRow + " of " + height + ", got " + fromY + ".." + toY);
+        }
+        for (int y = fromY; y < toY; y++) {
+            PixelIO.readRow(source, y, sourceRow);
+            int base = y * width;
+            for (int c = 0, shift = 16; c < 3; c++, shift -= 8) {
+                // one window's worth of the row at a time in locals; Σ(a - b)² = Σa² + Σb² - 2Σab
+                for (int wx = 0, x = 0; wx < windows; wx++) {
+                    int sa = 0, sb = 0, saa = 0, sbb = 0, sab = 0;
+                    for (int end = Math.min(x + WINDOW, width); x < end; x++) {
+                        int a = sourceRow[x] >> shift & 0xFF, b = pixels[base + x] >> shift & 0xFF;
+                        sa += a;
+                        sb += b;
+                        saa += a * a;
+                        sbb += b * b;
+                        sab += a * b;
+                    }
+                    int w = (wx * 3 + c) * SUMS;
+                    window[w] += sa;
+                    window[w + 1] += sb;
+                    window[w + 2] += saa;
+                    window[w + 3] += sbb;
+                    window[w + 4] += sab;
+                    squaredError[c] += saa + sbb - 2L * sab;
+                }
+            }
+            nextRow = y + 1;
+            if (nextRow % WINDOW == 0 || nextRow == height) closeWindows(y % WINDOW + 1);
+        }
+    }
+
+    // The result once every row has been seen
+    public Quality quality() {
+        if (nextRow != height) throw new IllegalStateException("Only " + nextRow + " of " + height + " rows measured");
+        double pixels = (double) width * height;
+        double[] mse = new double[3], ssim = new double[3];
+        for (int c = 0; c < 3; c++) {
+            mse[c] = squaredError[c] / pixels;
+            ssim[c] = ssimSum[c] / windowCount;
+        }
+        return new Quality(mse, ssim);
+    }
+
+    // SSIM of every window in the row just finished, rows tall
+    private void closeWindows(int rows) {
+        for (int wx = 0; wx < windows; wx++) {
+            double n = (double) rows * Math.min(WINDOW, width - wx * WINDOW);
+            for (int c = 0; c < 3; c++) {
+                int w = (wx * 3 + c) * SUMS;
+                double mx = window[w] / n, my = window[w + 1] / n;
+                double vx = window[w + 2] / n - mx * mx, vy = window[w + 3] / n - my * my;
+                double cov = window[w + 4] / n - mx * my;
+                ssimSum[c] += (2 * mx * my + C1) * (2 * cov + C2) / ((mx * mx + my * my + C1) * (vx + vy + C2));
+            }
+        }
+        windowCount += windows;
+        Arrays.fill(window, 0);
+    }
+
+    // Per channel, R, G, B; the whole-image figures average the channels' MSE and SSIM
+    public record Quality(double[] channelMse, double[] channelSsim) {
+
+        public double mse() {
+            return (channelMse[0] + channelMse[1] + channelMse[2]) / 3;
+        }
+
+        public double psnr() {
+            return psnr(mse());
+        }
+
+        public double psnr(int channel) {
+            return psnr(channelMse[channel]);
+        }
+
+        public double ssim() {
+            return (channelSsim[0] + channelSsim[1] + channelSsim[2]) / 3;
+        }
+
+        public double ssim(int channel) {
+            return channelSsim[channel];
+        }
+
+        // identical images come out as infinity
+        private static double psnr(double mse) {
+            return 10 * Math.log10(255 * 255 / mse);
+        }
+    }
+}
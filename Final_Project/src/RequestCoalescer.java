@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Feeds jobs submitted from many threads to a CPU stage in batches, one batch at a time on a
+// single dispatcher thread. A batch is whatever queued up while the previous one ran, so a lone
+// request goes straight through and a burst of small ones shares a single pass, up to maxBatch
+// jobs or maxWeight (e.g. pixels), whichever comes first; a job heavier than maxWeight runs
+// alone. lingerNanos > 0 additionally holds a batch open that long for late arrivals.
+// Because only one batch runs at a time, the stage can use every core without the callers'
+// thread count (say one virtual thread per HTTP request) ever oversubscribing them.
+public final class RequestCoalescer<T, R> implements AutoCloseable {
+
+    // Processes one batch, returning a result per job in the same order
+    public interface Stage<T, R> {
+        List<R> process(List<T> batch) throws Exception;
+    }
+
+    private record Job<T, R>(T item, long weight, CompletableFuture<R> result) {}
+
+    private final Stage<T, R> stage;
+    private final int maxBatch;
+    private final long maxWeight;
+    private final long lingerNanos;
+    private final BlockingQueue<Job<T, R>> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private final MetricsRegistry metrics = MetricsRegistry.global();
+    private final String name;
+    private volatile boolean closed;
+    private Job<T, R> carried;      // taken from the queue but too heavy for the last batch
+
+    // name prefixes the metrics: <name>.batch timer, <name>.batches and <name>.jobs counters
+    public RequestCoalescer(String name, Stage<T, R> stage, int maxBatch, long maxWeight, long lingerNanos) {
+        this.name = name;
+        this.stage = stage;
+        this.maxBatch = maxBatch;
+        this.maxWeight = maxWeight;
+        this.lingerNanos = lingerNanos;
+        this.dispatcher = Thread.ofPlatform().name(name + "-dispatcher").daemon().start(this::dispatch);
+    }
+
+    public CompletableFuture<R> submit(T item, long weight) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        if (closed) {
+            result.completeExceptionally(new IllegalStateException(name + " is shut down"));
+            return result;
+        }
+        queue.add(new Job<>(item, weight, result));
+        return result;
+    }
+
+    // Jobs still queued fail; the batch in progress completes
+    @Override
+    public void close() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    private void dispatch() {
+        List<Job<T, R>> batch = new ArrayList<>(maxBatch);
+        try {
+            while (!closed) {
+                collect(batch);
+                run(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+        IllegalStateException gone = new IllegalStateException(name + " is shut down");
+        for (Job<T, R> job : batch) job.result.completeExceptionally(gone);
+        if (carried != null) carried.result.completeExceptionally(gone);
+        for (Job<T, R> job; (job = queue.poll()) != null; ) job.result.completeExceptionally(gone);
+    }
+
+    private void collect(List<Job<T, R>> batch) throws InterruptedException {
+        Job<T, R> first = carried != null ? carried : queue.take();
+        carried = null;
+        batch.add(first);
+        long weight = first.weight;
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatch && weight < maxWeight) {
+            Job<T, R> job = lingerNanos > 0
+                    ? queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : queue.poll();
+            if (job == null) break;
+            if (weight + job.weight > maxWeight) {
+                carried = job;
+                break;
+            }
+            batch.add(job);
+            weight += job.weight;
+        }
+    }
+
+    private void run(List<Job<T, R>> batch) {
+        List<T> items = new ArrayList<>(batch.size());
+        for (Job<T, R> job : batch) items.add(job.item);
+        List<R> results;
+        MetricsRegistry.Span s = metrics.timer(name + ".batch").start();
+        try {
+            results = stage.process(items);
+        } catch (Exception | Error e) {
+            for (Job<T, R> job : batch) job.result.completeExceptionally(e);
+            return;
+        } finally {
+            s.close();
+            metrics.counter(name + ".batches").increment();
+            metrics.counter(name + ".jobs").add(batch.size());
+        }
+        for (int i = 0; i < batch.size(); i++) batch.get(i).result.complete(results.get(i));
+    }
+}
@@ -0,0 +1,41 @@
+import java.util.List;
+import java.util.Random;
+
+// Blocks/sec of the exhaustive codebook scan against CodebookIndex for 64, 256 and 1024 entries,
+// checking that both return the same index for every block.
+// Run from the project folder: java SearchBenchmark [trainingDir] [testDir]
+public class SearchBenchmark {
+    public static void main(String[] args) throws Exception {
+        String trainingDir = args.length > 0 ? args[0] : "training";
+        String testDir = args.length > 1 ? args[1] : "test";
+
+        List<double[]> training = CodebookGeneratorYUV.collectBlocks(trainingDir, 'Y');
+        float[] trainSample = FastKMeans.flatten(training.subList(0, Math.min(training.size(), 200_000)));
+        List<double[]> blocks = CodebookGeneratorYUV.collectBlocks(testDir, 'Y');
+
+        for (int k : new int[]{64, 256, 1024}) {
+            List<double[]> codebook = FastKMeans.toList(
+                    FastKMeans.cluster(trainSample, 4, k, 10, new Random(42)), 4);
+            CodebookIndex index = new CodebookIndex(codebook);
+            int[] expected = new int[blocks.size()];
+
+            long t0 = System.nanoTime();
+            for (int i = 0; i < blocks.size(); i++) {
+                expected[i] = CodebookIndex.bruteForceNearest(blocks.get(i), codebook);
+            }
+            long brute = System.nanoTime() - t0;
+
+            t0 = System.nanoTime();
+            for (int i = 0; i < blocks.size(); i++) {
+                if (index.nearest(blocks.get(i)) != expected[i]) {
+                    throw new IllegalStateException("Index disagrees with exhaustive search at block " + i);
+                }
+            }
+            long fast = System.nanoTime() - t0;
+
+            System.out.printf("k=%-5d %,d blocks  exhaustive: %,.0f blocks/s  index: %,.0f blocks/s  (%.1fx)%n",
+                    k, blocks.size(), blocks.size() / (brute / 1e9), blocks.size() / (fast / 1e9),
+                    (double) brute / fast);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Seeding methods compared on the training set with a fixed seed: time to seed, Lloyd passes
+// until FastKMeans converges, and the final distortion (mean squared error per value).
+// Run from the project folder: java SeedingBenchmark [trainingDir] [maxBlocks] [seed]
+public class SeedingBenchmark {
+    public static void main(String[] args) throws Exception {
+        String trainingDir = args.length > 0 ? args[0] : "training";
+        int maxBlocks = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+
+        TrainingSet set = TrainingSet.load(trainingDir);
+        run(set, 'R', CodebookTrainer.RGB_SIZE, maxBlocks, seed);
+        run(set, 'Y', CodebookTrainer.Y_SIZE, maxBlocks, seed);
+        run(set, 'U', CodebookTrainer.UV_SIZE, maxBlocks, seed);
+    }
+
+    private static void run(TrainingSet set, char channel, int k, int maxBlocks, long seed) {
+        int dim = set.dim();
+        float[] data = set.data(channel);
+        if (data.length / dim > maxBlocks) data = Arrays.copyOf(data, maxBlocks * dim);
+        System.out.printf("%c (k=%d), %,d blocks%n", channel, k, data.length / dim);
+
+        for (KMeansSeeding.Method method : KMeansSeeding.Method.values()) {
+            long t0 = System.nanoTime();
+            double[] centroids = KMeansSeeding.seed(method, data, dim, k, new Random(seed));
+            long seeding = System.nanoTime() - t0;
+            double seeded = distortion(data, dim, centroids, k);
+            int passes = FastKMeans.lloyd(data, dim, centroids, k, FastKMeans.DEFAULT_MAX_ITERATIONS);
+            long total = System.nanoTime() - t0;
+            System.out.printf("  %-16s seeded in %,6d ms (MSE %7.2f)  then %2d passes, %,6d ms total, MSE %.2f%n",
+                    method, seeding / 1_000_000, seeded, passes, total / 1_000_000,
+                    distortion(data, dim, centroids, k));
+        }
+    }
+
+    private static double distortion(float[] data, int dim, double[] centroids, int k) {
+        double sum = 0;
+        for (int off = 0; off < data.length; off += dim) {
+            int j = FastKMeans.nearest(data, off, centroids, k, dim);
+            for (int d = 0; d < dim; d++) {
+                double diff = data[off + d] - centroids[j * dim + d];
+                sum += diff * diff;
+            }
+        }
+        return sum / data.length;
+    }
+}
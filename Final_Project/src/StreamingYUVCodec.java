@@ -0,0 +1,177 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// YUV 4:2:0 encode and decode a horizontal strip at a time, for images too large to hold
+// as whole planes. The encoder pulls each strip from the ImageReader with a source region,
+// converts, sub-samples and quantises it in one pass (FusedYUVEncoder), and appends its indices to a FLAG_STRIPED .vq file;
+// the decoder turns each strip back into pixels and appends them to a PNG. Memory is bounded
+// by the strip, not the image. Strips are a multiple of twice the block height, so no block of
+// Y or of the sub-sampled U/V ever spans two strips and the indices equal those of
+// YUVCompressor.compress; only the last strip can end in a padded block row.
+// The JPEG and PNG readers decode from the top of the file on every region read, so taller
+// strips trade memory for fewer passes over the source.
+// The header ends in a table of strip offsets, filled in once the strips are written, so
+// decodeStrip reads any one strip without decoding the ones above it.
+// Each strip's indices are a segment of their own, so with RANS every strip carries the
+// frequencies of its own indices; HUFFMAN needs the trained EntropyModel, the strips being
+// gone by the time the image's counts would be known.
+// Run from the project folder:
+//   java StreamingYUVCodec encode <image> <file.vq> [stripRows] [raw|huffman|rans[+dpcm]]
+//   java StreamingYUVCodec decode <file.vq> <image.png>
+public class StreamingYUVCodec {
+
+    public static final int DEFAULT_STRIP_ROWS = 256;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("usage: StreamingYUVCodec encode <image> <file.vq> [stripRows] [raw|huffman|rans[+dpcm]]");
+            System.out.println("       StreamingYUVCodec decode <file.vq> <image.png>");
+            return;
+        }
+        List<double[]> yCB = CodebookIO.getCodebook("codebooks", 'Y');
+        List<double[]> uCB = CodebookIO.getCodebook("codebooks", 'U');
+        List<double[]> vCB = CodebookIO.getCodebook("codebooks", 'V');
+        BlockGeometry block = CodebookIO.loadGeometry("codebooks/yCB.txt");
+
+        long t0 = System.nanoTime();
+        if (args[0].equals("encode")) {
+            int stripRows = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_STRIP_ROWS;
+            IndexCoding coding = args.length > 4 ? IndexCoding.parse(args[4]) : IndexCoding.NONE;
+            EntropyModel model = coding.method() == IndexCoding.HUFFMAN ? EntropyModel.load("codebooks", Map.of('Y', yCB, 'U', uCB, 'V', vCB)) : null;
+            File vqFile = new File(args[2]);
+            long bytes = encode(new File(args[1]), vqFile, block, yCB, uCB, vCB, stripRows, false, coding, model);
+            long nanos = System.nanoTime() - t0;
+            try (BitReader in = new BitReader(FileChannel.open(vqFile.toPath(), StandardOpenOption.READ))) {
+                VQFile.Header h = VQFile.readHeader(in, vqFile, List.of(yCB, uCB, vCB));
+                System.out.printf("Wrote %s: %,d bytes, %.3f bits/pixel in %.1f ms%n", args[2], bytes,
+                        CodebookIO.bitsPerPixel(h.width, h.height, vqFile), nanos / 1e6);
+            }
+        } else {
+            decode(new File(args[1]), new File(args[2]), List.of(yCB, uCB, vCB));
+            System.out.printf("Wrote %s in %.1f ms%n", args[2], (System.nanoTime() - t0) / 1e6);
+        }
+    }
+
+    // Encode an image strip by strip with 2×2 blocks; returns the file size in bytes
+    public static long encode(File imgFile, File vqFile,
+                              List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                              int stripRows, boolean embedCodebooks) throws IOException {
+        return encode(imgFile, vqFile, BlockGeometry.DEFAULT, yCB, uCB, vCB, stripRows, embedCodebooks);
+    }
+
+    // As above with blocks of any size, like VQFile.encodeYUV
+    public static long encode(File imgFile, File vqFile, BlockGeometry block,
+                              List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                              int stripRows, boolean embedCodebooks) throws IOException {
+        return encode(imgFile, vqFile, block, yCB, uCB, vCB, stripRows, embedCodebooks, IndexCoding.NONE, null);
+    }
+
+    // As above with the indices entropy coded; HUFFMAN takes its codes from model
+    public static long encode(File imgFile, File vqFile, BlockGeometry block,
+                              List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                              int stripRows, boolean embedCodebooks,
+                              IndexCoding coding, EntropyModel model) throws IOException {
+        int rowStep = 2 * block.height();
+        if (stripRows <= 0 || stripRows % rowStep != 0) {
+            throw new IllegalArgumentException("Strip height must be a positive multiple of " + rowStep + ": " + stripRows);
+        }
+        List<List<double[]>> codebooks = List.of(yCB, uCB, vCB);
+        if (coding.method() == IndexCoding.HUFFMAN && model == null) {
+            throw new IllegalArgumentException("Huffman coding of a striped file needs an EntropyModel");
+        }
+        CodebookIndex[] index = {CodebookIndex.of(yCB), CodebookIndex.of(uCB), CodebookIndex.of(vCB)};
+        IndexCoder[] coders = VQFile.coders(coding, model, "YUV", null, codebooks);
+
+        try (ImageInputStream iis = ImageIO.createImageInputStream(imgFile)) {
+            Iterator<ImageReader> readers = iis != null ? ImageIO.getImageReaders(iis) : null;
+            if (readers == null || !readers.hasNext()) throw new IOException("Cannot read image: " + imgFile);
+            ImageReader reader = readers.next();
+            try (FileChannel ch = VQFile.create(vqFile)) {
+                reader.setInput(iis, false, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                int cw = (width + 1) / 2, chroma = block.rows((height + 1) / 2);
+                int flags = VQFile.FLAG_STRIPED | (embedCodebooks ? VQFile.FLAG_EMBEDDED : 0);
+
+                BitWriter out = new BitWriter(ch);
+                long table = VQFile.writeHeader(out, VQFile.MODE_YUV420, flags, block, width, height, stripRows,
+                        new int[]{block.cols(width), block.cols(cw), block.cols(cw)},
+                        new int[]{block.rows(height), chroma, chroma}, codebooks, coders);
+
+                long[] offsets = new long[(height + stripRows - 1) / stripRows];
+                ImageReadParam param = reader.getDefaultReadParam();
+                for (int s = 0; s < offsets.length; s++) {
+                    int y = s * stripRows;
+                    param.setSourceRegion(new Rectangle(0, y, width, Math.min(stripRows, height - y)));
+                    BufferedImage strip = reader.read(0, param);
+
+                    Plane[] idx = ParallelEncoder.shared().compress(
+                            new FusedYUVEncoder(strip, block, index[0], index[1], index[2]));
+                    out.alignToByte();
+                    offsets[s] = out.bytesWritten();
+                    VQFile.writeStrip(out, idx, coders);
+                }
+                out.close();
+                VQFile.writeStripOffsets(ch, table, offsets);
+                return out.bytesWritten();
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Decode a striped YUV file to PNG one strip at a time, taking Y,U,V codebooks from the
+    // list when they are not embedded
+    public static void decode(File vqFile, File pngFile, List<List<double[]>> codebooks) throws IOException {
+        try (BitReader in = new BitReader(FileChannel.open(vqFile.toPath(), StandardOpenOption.READ))) {
+            VQFile.Header h = readHeader(in, vqFile, codebooks);
+            try (PngStripWriter png = new PngStripWriter(pngFile, h.width, h.height)) {
+                for (int s = 0; s < h.strips(); s++) png.writeRows(readStrip(in, h, s));
+            }
+        }
+    }
+
+    // Strip s of a striped YUV file as an image stripRows high (less for the last strip); only
+    // that strip's indices are read
+    public static BufferedImage decodeStrip(File vqFile, int s, List<List<double[]>> codebooks) throws IOException {
+        try (BitReader in = new BitReader(FileChannel.open(vqFile.toPath(), StandardOpenOption.READ))) {
+            VQFile.Header h = readHeader(in, vqFile, codebooks);
+            if (s < 0 || s >= h.strips()) {
+                throw new IndexOutOfBoundsException("Strip " + s + " of " + h.strips() + " in " + vqFile);
+            }
+            return readStrip(in, h, s);
+        }
+    }
+
+    private static VQFile.Header readHeader(BitReader in, File vqFile, List<List<double[]>> codebooks) throws IOException {
+        VQFile.Header h = VQFile.readHeader(in, vqFile, codebooks);
+        if (h.mode != VQFile.MODE_YUV420) throw new IOException("Not a YUV 4:2:0 file: " + vqFile);
+        if (!h.striped()) throw new IOException("Not written in strips, use VQFile.decode: " + vqFile);
+        return h;
+    }
+
+    private static BufferedImage readStrip(BitReader in, VQFile.Header h, int s) throws IOException {
+        BlockGeometry block = h.block;
+        int rows = h.stripHeight(s);
+        int chroma = block.rows((rows + 1) / 2);
+        Plane[] idx = {
+                new Plane(h.cols[0], block.rows(rows)),
+                new Plane(h.cols[1], chroma),
+                new Plane(h.cols[2], chroma)
+        };
+        VQFile.readStrip(in, h, idx, s, false);
+        List<List<double[]>> cbs = h.codebooks;
+        return YUVCompressor.decompress(idx, block, h.width, rows, cbs.get(0), cbs.get(1), cbs.get(2));
+    }
+}
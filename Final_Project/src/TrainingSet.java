@@ -0,0 +1,212 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+// All six training sets (R, G, B, Y, U, V blocks, 2×2 unless another BlockGeometry is given)
+// gathered in a single walk over the training folder: every image is decoded once and split
+// into every channel it feeds, edge blocks padded the way the encoders pad them.
+// Blocks are kept in flat float buffers, dim() values per block, ready for FastKMeans;
+// select and forEachImage also let a caller stream the blocks without keeping them.
+// File selection matches the generators: R/G/B use the first 10 files of each category
+// (CodebookGenerator), Y/U/V use every .jpg/.jpeg/.png/.bmp in the tree (CodebookGeneratorYUV).
+public class TrainingSet {
+
+    public static final char[] CHANNELS = {'R', 'G', 'B', 'Y', 'U', 'V'};
+
+    private final BlockGeometry block;
+    private final Map<Character, Blocks> blocks = new HashMap<>();
+
+    private TrainingSet(BlockGeometry block) {
+        this.block = block;
+        for (char c : CHANNELS) blocks.put(c, new Blocks(block.dim()));
+    }
+
+    public static TrainingSet load(String trainingDir) throws IOException {
+        return load(trainingDir, BlockGeometry.DEFAULT);
+    }
+
+    public static TrainingSet load(String trainingDir, BlockGeometry block) throws IOException {
+        TrainingSet set = new TrainingSet(block);
+        forEachImage(select(trainingDir), block, set.blocks);
+        for (Blocks b : set.blocks.values()) b.trim();
+        return set;
+    }
+
+    // The training images in path order, each with the channels it trains
+    public static List<Source> select(String trainingDir) {
+        File dir = new File(trainingDir);
+        if (!dir.isDirectory()) {
+            throw new IllegalArgumentException("Not a folder: " + trainingDir);
+        }
+
+        Set<File> rgbFiles = new HashSet<>();
+        for (File category : listFiles(dir)) {
+            if (!category.isDirectory()) continue;
+            File[] imgs = listFiles(category);
+            for (int i = 0; i < imgs.length && i < 10; i++) rgbFiles.add(imgs[i]);
+        }
+
+        Set<File> yuvFiles = new HashSet<>();
+        Queue<File> queue = new LinkedList<>();
+        queue.add(dir);
+        while (!queue.isEmpty()) {
+            File f = queue.poll();
+            if (f.isDirectory()) {
+                Collections.addAll(queue, listFiles(f));
+            } else {
+                String name = f.getName().toLowerCase();
+                if (name.endsWith(".jpg") || name.endsWith(".jpeg")
+                        || name.endsWith(".png") || name.endsWith(".bmp")) {
+                    yuvFiles.add(f);
+                }
+            }
+        }
+
+        Set<File> all = new TreeSet<>(rgbFiles);
+        all.addAll(yuvFiles);
+        List<Source> sources = new ArrayList<>();
+        for (File f : all) {
+            if (f.isFile()) sources.add(new Source(f, rgbFiles.contains(f), yuvFiles.contains(f)));
+        }
+        return sources;
+    }
+
+    // Decode the images one at a time and hand every block to the sink of its channel
+    public static void forEachImage(List<Source> sources, BlockGeometry block,
+                                    Map<Character, ? extends BlockSink> sinks) throws IOException {
+        for (Source src : sources) {
+            BufferedImage img = ImageIO.read(src.file());
+            if (img == null) continue;
+            add(img, src.rgb(), src.yuv(), block, sinks);
+        }
+    }
+
+    public record Source(File file, boolean rgb, boolean yuv) {}
+
+    // Receives the blocks of one channel, dim() values each in a buffer the caller reuses
+    public interface BlockSink {
+        void add(float[] block);
+    }
+
+    public BlockGeometry geometry() {
+        return block;
+    }
+
+    // values per block
+    public int dim() {
+        return block.dim();
+    }
+
+    // Flat block data of one channel, dim() values per block. Shared, callers must not modify it.
+    public float[] data(char channel) {
+        return blocks.get(channel).data;
+    }
+
+    public int count(char channel) {
+        return blocks.get(channel).size / dim();
+    }
+
+    private static void add(BufferedImage img, boolean rgb, boolean yuv, BlockGeometry block,
+                            Map<Character, ? extends BlockSink> blocks) {
+        int w = img.getWidth(), h = img.getHeight();
+        int[] argb = PixelIO.readPacked(img);
+        int bw = block.width(), bh = block.height();
+
+        if (rgb) {
+            // row-major blocks, row-major within the block, same order as ImageUtilsQV.getBlocks
+            BlockSink r = blocks.get('R'), g = blocks.get('G'), b = blocks.get('B');
+            float[] rv = new float[block.dim()], gv = new float[block.dim()], bv = new float[block.dim()];
+            for (int by = 0; by < block.rows(h); by++) {
+                for (int bx = 0; bx < block.cols(w); bx++) {
+                    int idx = 0;
+                    for (int dy = 0; dy < bh; dy++) {
+                        int row = Math.min(by * bh + dy, h - 1) * w;
+                        for (int dx = 0; dx < bw; dx++, idx++) {
+                            int p = argb[row + Math.min(bx * bw + dx, w - 1)];
+                            rv[idx] = p >> 16 & 0xFF;
+                            gv[idx] = p >> 8 & 0xFF;
+                            bv[idx] = p & 0xFF;
+                        }
+                    }
+                    r.add(rv);
+                    g.add(gv);
+                    b.add(bv);
+                }
+            }
+        }
+
+        if (yuv) {
+            int[] Y = new int[w * h], U = new int[w * h], V = new int[w * h];
+            for (int i = 0; i < w * h; i++) {
+                int r = argb[i] >> 16 & 0xFF, g = argb[i] >> 8 & 0xFF, b = argb[i] & 0xFF;
+                Y[i] = ImageUtilsYUV.toY(r, g, b);
+                U[i] = ImageUtilsYUV.toU(r, g, b);
+                V[i] = ImageUtilsYUV.toV(r, g, b);
+            }
+            addBlocks(blocks.get('Y'), Y, w, h, block);
+            int sw = (w + 1) / 2, sh = (h + 1) / 2;
+            addBlocks(blocks.get('U'), subSample(U, w, h, sw, sh), sw, sh, block);
+            addBlocks(blocks.get('V'), subSample(V, w, h, sw, sh), sw, sh, block);
+        }
+    }
+
+    // Blocks of a row-major plane in the order of ImageUtilsYUV.getBlocks: a column of blocks
+    // at a time, x-major within the block, the last column and row repeated past the edges
+    private static void addBlocks(BlockSink out, int[] plane, int w, int h, BlockGeometry block) {
+        int bw = block.width(), bh = block.height();
+        float[] values = new float[block.dim()];
+        for (int bx = 0; bx < block.cols(w); bx++) {
+            for (int by = 0; by < block.rows(h); by++) {
+                int idx = 0;
+                for (int i = 0; i < bw; i++) {
+                    int x = Math.min(bx * bw + i, w - 1);
+                    for (int j = 0; j < bh; j++) {
+                        values[idx++] = plane[Math.min(by * bh + j, h - 1) * w + x];
+                    }
+                }
+                out.add(values);
+            }
+        }
+    }
+
+    // same averaging as ImageUtilsYUV.subSample
+    private static int[] subSample(int[] plane, int w, int h, int sw, int sh) {
+        int[] sub = new int[sw * sh];
+        for (int y = 0; y < sh; y++) {
+            int r0 = 2 * y * w, r1 = Math.min(2 * y + 1, h - 1) * w;
+            for (int x = 0; x < sw; x++) {
+                int x0 = 2 * x, x1 = Math.min(x0 + 1, w - 1);
+                sub[y * sw + x] = (plane[r0 + x0] + plane[r0 + x1] + plane[r1 + x0] + plane[r1 + x1]) / 4;
+            }
+        }
+        return sub;
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    // growable float buffer of dim-value blocks
+    private static class Blocks implements BlockSink {
+        final int dim;
+        float[] data = new float[1 << 16];
+        int size;
+
+        Blocks(int dim) {
+            this.dim = dim;
+        }
+
+        public void add(float[] block) {
+            if (size + dim > data.length) data = Arrays.copyOf(data, Math.max(data.length * 2, size + dim));
+            System.arraycopy(block, 0, data, size, dim);
+            size += dim;
+        }
+
+        void trim() {
+            data = Arrays.copyOf(data, size);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Tree-structured against flat full-search VQ on the Y channel for 256, 1024 and 4096 codewords:
+// training time, search speed (blocks/s over the test images, best of a few passes) and PSNR of
+// the reconstructed Y planes. Both are trained on the same sample of training blocks. Also checks
+// that a tree read back from a .tsvq file encodes exactly as the trained one.
+// Run from the project folder: java TreeBenchmark [trainingDir] [testDir]
+public class TreeBenchmark {
+
+    private static final int SAMPLE = 200_000;
+    private static final int PASSES = 3;
+
+    public static void main(String[] args) throws Exception {
+        String trainingDir = args.length > 0 ? args[0] : "training";
+        String testDir = args.length > 1 ? args[1] : "test";
+        BlockGeometry block = BlockGeometry.DEFAULT;
+
+        List<double[]> training = CodebookGeneratorYUV.collectBlocks(trainingDir, 'Y');
+        List<double[]> sample = new ArrayList<>(SAMPLE);
+        for (int i = 0; i < Math.min(SAMPLE, training.size()); i++) {
+            sample.add(training.get((int) ((long) i * training.size() / Math.min(SAMPLE, training.size()))));
+        }
+        float[] trainSample = FastKMeans.flatten(sample);
+        training = null;
+
+        List<Plane> planes = new ArrayList<>();
+        File[] categories = new File(testDir).listFiles();
+        if (categories == null) throw new IllegalArgumentException("Not a folder: " + testDir);
+        Arrays.sort(categories);
+        for (File category : categories) {
+            File[] files = category.listFiles();
+            if (files == null) continue;
+            Arrays.sort(files);
+            for (File f : files) {
+                BufferedImage img = ImageIO.read(f);
+                if (img != null) planes.add(ImageUtilsYUV.rgbToYuv(img)[0]);
+            }
+        }
+        long blocks = 0;
+        for (Plane p : planes) blocks += (long) block.cols(p.width) * block.rows(p.height);
+        System.out.printf("%,d training blocks sampled, %d test images, %,d Y blocks, %s%n",
+                sample.size(), planes.size(), blocks, DistanceKernel.vectorized() ? "vector kernels" : "scalar search");
+
+        for (int k : new int[]{256, 1024, 4096}) {
+            long t0 = System.nanoTime();
+            List<double[]> flat = FastKMeans.toList(FastKMeans.cluster(trainSample, block.dim(), k, 10, new Random(42)),
+                    block.dim());
+            long flatTrain = System.nanoTime() - t0;
+            t0 = System.nanoTime();
+            TreeCodebook tree = TreeCodebook.train(trainSample, sample.size(), block.dim(), k, new Random(42));
+            long treeTrain = System.nanoTime() - t0;
+
+            File saved = File.createTempFile("tree", CodebookIO.TREE_EXTENSION);
+            saved.deleteOnExit();
+            CodebookIO.saveTreeCodebook(tree, saved.getPath(), block);
+            TreeCodebook loaded = CodebookIO.loadTreeCodebook(saved.getPath());
+            for (Plane p : planes) {
+                if (!same(ImageUtilsYUV.compressChannel(p, tree, block), ImageUtilsYUV.compressChannel(p, loaded, block))) {
+                    throw new IllegalStateException("Tree read back from " + saved + " encodes differently");
+                }
+            }
+
+            CodebookIndex index = new CodebookIndex(flat);
+            long flatNanos = Long.MAX_VALUE, treeNanos = Long.MAX_VALUE;
+            List<Plane> flatIdx = new ArrayList<>(), treeIdx = new ArrayList<>();
+            for (int pass = 0; pass < PASSES; pass++) {
+                flatIdx.clear();
+                treeIdx.clear();
+                t0 = System.nanoTime();
+                for (Plane p : planes) flatIdx.add(ImageUtilsYUV.compressChannel(p, index, block));
+                flatNanos = Math.min(flatNanos, System.nanoTime() - t0);
+                t0 = System.nanoTime();
+                for (Plane p : planes) treeIdx.add(ImageUtilsYUV.compressChannel(p, tree, block));
+                treeNanos = Math.min(treeNanos, System.nanoTime() - t0);
+            }
+
+            System.out.printf("k=%-5d flat: train %6.1f s, %,11.0f blocks/s, PSNR %.2f dB%n", k, flatTrain / 1e9,
+                    blocks / (flatNanos / 1e9), psnr(planes, flatIdx, flat, block));
+            System.out.printf("        tree: train %6.1f s, %,11.0f blocks/s, PSNR %.2f dB  (%.1fx faster, depth %d)%n",
+                    treeTrain / 1e9, blocks / (treeNanos / 1e9), psnr(planes, treeIdx, tree.codebook(), block),
+                    (double) flatNanos / treeNanos, tree.depth());
+        }
+    }
+
+    private static boolean same(Plane a, Plane b) {
+        if (a.width != b.width || a.height != b.height) return false;
+        for (int y = 0; y < a.height; y++) {
+            for (int x = 0; x < a.width; x++) {
+                if (a.get(x, y) != b.get(x, y)) return false;
+            }
+        }
+        return true;
+    }
+
+    // PSNR over all the planes together
+    private static double psnr(List<Plane> planes, List<Plane> idx, List<double[]> codebook, BlockGeometry block) {
+        double sq = 0;
+        long n = 0;
+        for (int i = 0; i < planes.size(); i++) {
+            Plane orig = planes.get(i);
+            Plane recon = ImageUtilsYUV.decompressChannel(idx.get(i), codebook, block, orig.width, orig.height);
+            for (int y = 0; y < orig.height; y++) {
+                for (int x = 0; x < orig.width; x++) {
+                    double d = orig.get(x, y) - recon.get(x, y);
+                    sq += d * d;
+                }
+            }
+            n += (long) orig.width * orig.height;
+        }
+        return 10 * Math.log10(255.0 * 255.0 / (sq / n));
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Tree-structured VQ: a balanced binary tree of centroids whose 2^depth leaves are the codebook.
+// Training splits the blocks of each node in two with 2-means (FastKMeans, k = 2) and recurses
+// into both halves; encoding walks from the root to a leaf, at every node taking the child
+// whose centroid is nearer. That is depth comparisons per block instead of one per codeword,
+// but the leaf reached is not always the nearest one, so some PSNR is traded for search time
+// that grows with log k (see TreeBenchmark).
+// Nodes are numbered in heap order, the children of n at 2n+1 and 2n+2, and leaf j is node
+// 2^depth - 1 + j: leaf numbers are ordinary codebook indices, and codebook() decodes, entropy
+// codes and goes into .vq files like any flat codebook. CodebookIO saves trees as .tsvq.
+public final class TreeCodebook {
+
+    // blocks the 2-means of one node is run on at most, the rest only follow the split
+    public static final int SPLIT_SAMPLES = 1 << 15;
+    public static final int SPLIT_ITERATIONS = 20;
+    // 32,768 leaves: a 16-bit .vq entry count (VQFile.MAX_ENTRIES) cannot hold 65,536
+    public static final int MAX_DEPTH = 15;
+
+    private final int depth;
+    private final int dim;
+    private final double[] nodes;   // heap order, flat; float values so a saved tree descends the same
+    private final double[] planes;  // internal node n at n*(dim+1): cR - cL, then (|cR|² - |cL|²) / 2
+    private final List<double[]> leaves;
+
+    public TreeCodebook(double[] nodes, int depth, int dim) {
+        if (depth < 1 || depth > MAX_DEPTH || nodes.length != ((2 << depth) - 1) * dim) {
+            throw new IllegalArgumentException(nodes.length / dim + " nodes do not make a tree of depth " + depth);
+        }
+        this.depth = depth;
+        this.dim = dim;
+        this.nodes = new double[nodes.length];
+        for (int i = 0; i < nodes.length; i++) this.nodes[i] = (float) nodes[i];
+        int internal = (1 << depth) - 1;
+        planes = new double[internal * (dim + 1)];
+        for (int n = 0; n < internal; n++) plane(this.nodes, n, dim, planes);
+
+        List<double[]> words = new ArrayList<>(1 << depth);
+        for (int j = 0; j < 1 << depth; j++) {
+            double[] w = new double[dim];
+            System.arraycopy(this.nodes, (internal + j) * dim, w, 0, dim);
+            words.add(w);
+        }
+        leaves = Collections.unmodifiableList(words);
+    }
+
+    // Tree with the given number of leaves (a power of two) over n blocks of data, dim values each
+    public static TreeCodebook train(float[] data, int n, int dim, int leafCount, Random rand) {
+        if (leafCount < 2 || leafCount > 1 << MAX_DEPTH || Integer.bitCount(leafCount) != 1) {
+            throw new IllegalArgumentException("Leaves must be a power of two from 2 to " + (1 << MAX_DEPTH) + ": " + leafCount);
+        }
+        if (n < 1) throw new IllegalArgumentException("No blocks to train on");
+        int depth = Integer.numberOfTrailingZeros(leafCount);
+        int internal = leafCount - 1;
+        double[] nodes = new double[(2 * leafCount - 1) * dim];
+        double[] planes = new double[internal * (dim + 1)];
+
+        // every node owns the range [from[n], to[n]) of order, split in place like a quicksort
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) order[i] = i;
+        int[] from = new int[2 * leafCount - 1], to = new int[2 * leafCount - 1];
+        to[0] = n;
+        double[] mean = mean(data, order, 0, n, dim);
+        for (int d = 0; d < dim; d++) nodes[d] = (float) mean[d];
+
+        for (int node = 0; node < internal; node++) {
+            int lo = from[node], hi = to[node];
+            int left = 2 * node + 1, right = left + 1;
+            double[] halves = split(data, order, lo, hi, dim, rand);
+            if (halves == null) {
+                // nothing left to tell apart: both children repeat the node
+                System.arraycopy(nodes, node * dim, nodes, left * dim, dim);
+                System.arraycopy(nodes, node * dim, nodes, right * dim, dim);
+            } else {
+                for (int d = 0; d < 2 * dim; d++) nodes[left * dim + d] = (float) halves[d];
+            }
+            plane(nodes, node, dim, planes);
+
+            // blocks the descent sends left go first, so each child again owns a range
+            int mid = lo;
+            for (int i = lo; i < hi; i++) {
+                if (!goesRight(data, order[i] * dim, planes, node, dim)) {
+                    int t = order[i];
+                    order[i] = order[mid];
+                    order[mid++] = t;
+                }
+            }
+            from[left] = lo;
+            to[left] = mid;
+            from[right] = mid;
+            to[right] = hi;
+        }
+        return new TreeCodebook(nodes, depth, dim);
+    }
+
+    // Leaf the block at data[off .. off+dim) descends to
+    public int nearest(float[] data, int off) {
+        int node = 0;
+        for (int level = 0; level < depth; level++) {
+            node = 2 * node + (goesRight(data, off, planes, node, dim) ? 2 : 1);
+        }
+        return node - ((1 << depth) - 1);
+    }
+
+    // The leaves, leaf j at index j
+    public List<double[]> codebook() {
+        return leaves;
+    }
+
+    public int size() {
+        return leaves.size();
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    // values per codeword
+    public int dim() {
+        return dim;
+    }
+
+    // Every node's centroid in heap order, flat
+    public double[] nodes() {
+        return nodes.clone();
+    }
+
+    // nearer to the right child than the left: ||x - cL||² - ||x - cR||² = 2 x·(cR - cL) - (|cR|² - |cL|²);
+    // ties go left, to the lower leaf
+    private static boolean goesRight(float[] data, int off, double[] planes, int node, int dim) {
+        int p = node * (dim + 1);
+        double dot = 0;
+        for (int d = 0; d < dim; d++) dot += data[off + d] * planes[p + d];
+        return dot > planes[p + dim];
+    }
+
+    private static void plane(double[] nodes, int node, int dim, double[] planes) {
+        int l = (2 * node + 1) * dim, r = l + dim, p = node * (dim + 1);
+        double bias = 0;
+        for (int d = 0; d < dim; d++) {
+            planes[p + d] = nodes[r + d] - nodes[l + d];
+            bias += nodes[r + d] * nodes[r + d] - nodes[l + d] * nodes[l + d];
+        }
+        planes[p + dim] = bias / 2;
+    }
+
+    // 2-means centroids of the blocks in order[lo, hi), on an evenly spaced sample of at most
+    // SPLIT_SAMPLES of them; null when they are fewer than two distinct blocks
+    private static double[] split(float[] data, int[] order, int lo, int hi, int dim, Random rand) {
+        int n = hi - lo;
+        if (n < 2 || !distinct(data, order, lo, hi, dim)) return null;
+        int samples = Math.min(n, SPLIT_SAMPLES);
+        float[] sample = new float[samples * dim];
+        for (int s = 0; s < samples; s++) {
+            int i = order[lo + (int) ((long) s * n / samples)];
+            System.arraycopy(data, i * dim, sample, s * dim, dim);
+        }
+        if (!distinct(sample, null, 0, samples, dim)) return null;
+        return FastKMeans.cluster(sample, dim, 2, SPLIT_ITERATIONS, KMeansSeeding.Method.KMEANS_PLUS_PLUS, rand);
+    }
+
+    // whether the blocks (order[lo, hi), or lo..hi themselves when order is null) are not all equal
+    private static boolean distinct(float[] data, int[] order, int lo, int hi, int dim) {
+        int first = (order != null ? order[lo] : lo) * dim;
+        for (int i = lo + 1; i < hi; i++) {
+            int off = (order != null ? order[i] : i) * dim;
+            for (int d = 0; d < dim; d++) {
+                if (data[off + d] != data[first + d]) return true;
+            }
+        }
+        return false;
+    }
+
+    private static double[] mean(float[] data, int[] order, int lo, int hi, int dim) {
+        double[] sum = new double[dim];
+        for (int i = lo; i < hi; i++) {
+            int off = order[i] * dim;
+            for (int d = 0; d < dim; d++) sum[d] += data[off + d];
+        }
+        for (int d = 0; d < dim; d++) sum[d] /= hi - lo;
+        return sum;
+    }
+}
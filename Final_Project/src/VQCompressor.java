@@ -17,26 +17,22 @@ public class VQCompressor {
         }
 
         System.out.println("  [VQ] Extracting RGB channels...");
-        int[][] r = ImageUtilsQV.extractComponent(img, 'R');
-        int[][] g = ImageUtilsQV.extractComponent(img, 'G');
-        int[][] b = ImageUtilsQV.extractComponent(img, 'B');
+        Plane[] rgb = ImageUtilsQV.extractComponents(img);
+        Plane r = rgb[0];
+        Plane g = rgb[1];
+        Plane b = rgb[2];
 
         System.out.println("  [VQ] Compressing channels...");
-        int[][] cr = ImageUtilsQV.compressComponent(r, redCB);
-        int[][] cg = ImageUtilsQV.compressComponent(g, greenCB);
-        int[][] cb = ImageUtilsQV.compressComponent(b, blueCB);
+        Plane cr = ImageUtilsQV.compressComponent(r, redCB);
+        Plane cg = ImageUtilsQV.compressComponent(g, greenCB);
+        Plane cb = ImageUtilsQV.compressComponent(b, blueCB);
 
-        System.out.println("  [VQ] Decompressing channels...");
-        int[][] dr = ImageUtilsQV.decompressComponent(cr, redCB);
-        int[][] dg = ImageUtilsQV.decompressComponent(cg, greenCB);
-        int[][] db = ImageUtilsQV.decompressComponent(cb, blueCB);
-
-        System.out.println("  [VQ] Merging channels...");
-        BufferedImage out = ImageUtilsQV.mergeComponents(dr, dg, db);
-
-        System.out.println("  [VQ] Calculating PSNR...");
-        double psnr = ImageUtilsQV.computePSNR(r, dr);
-        System.out.printf("  [VQ] PSNR: %.2f dB%n", psnr);
+        System.out.println("  [VQ] Decompressing and measuring channels...");
+        QualityMeter meter = new QualityMeter(img);
+        BufferedImage out = decompress(new Plane[]{cr, cg, cb}, redCB, greenCB, blueCB, meter);
+        QualityMeter.Quality q = meter.quality();
+        System.out.printf("  [VQ] PSNR: %.2f dB (R %.2f, G %.2f, B %.2f), SSIM %.4f%n",
+                q.psnr(), q.psnr(0), q.psnr(1), q.psnr(2), q.ssim());
 
         File outDir = new File("output/decoded_rgb");
         if (!outDir.exists()) outDir.mkdirs();
@@ -45,4 +41,80 @@ public class VQCompressor {
         System.out.println("  [VQ] Saving output to " + outFile.getPath());
         ImageIO.write(out, "png", outFile);
     }
+
+    // Encode only: per-pixel codebook indices {R, G, B}
+    public static Plane[] compress(BufferedImage img,
+                                     List<double[]> redCB,
+                                     List<double[]> greenCB,
+                                     List<double[]> blueCB) {
+        return compress(img, redCB, greenCB, blueCB, ParallelEncoder.shared());
+    }
+
+    // As above, searching on the encoder's threads; the indices are the same at any parallelism
+    public static Plane[] compress(BufferedImage img,
+                                     List<double[]> redCB,
+                                     List<double[]> greenCB,
+                                     List<double[]> blueCB,
+                                     ParallelEncoder encoder) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        Plane[] rgb;
+        MetricsRegistry.Span extract = metrics.timer("rgb.extract").start()
+                .bytes(3L * img.getWidth() * img.getHeight());
+        try {
+            rgb = ImageUtilsQV.extractComponents(img);
+        } finally {
+            extract.close();
+        }
+        MetricsRegistry.Span search = metrics.timer("rgb.search").start();
+        try {
+            Plane[] idx = encoder.compressComponents(rgb, new CodebookIndex[]{
+                    CodebookIndex.of(redCB), CodebookIndex.of(greenCB), CodebookIndex.of(blueCB)});
+            metrics.counter("rgb.blocks").add(3L * img.getWidth() * img.getHeight());
+            return idx;
+        } finally {
+            search.close();
+        }
+    }
+
+    // Decode only: rebuild the image from the {R, G, B} index planes
+    public static BufferedImage decompress(Plane[] idx,
+                                           List<double[]> redCB,
+                                           List<double[]> greenCB,
+                                           List<double[]> blueCB) {
+        return decompress(idx, redCB, greenCB, blueCB, null);
+    }
+
+    // In one pass, index straight to packed pixel with no decoded channel planes; the pixels are
+    // those decompressComponent + mergeComponents give. Each finished row goes to meter unless
+    // it is null.
+    public static BufferedImage decompress(Plane[] idx,
+                                           List<double[]> redCB,
+                                           List<double[]> greenCB,
+                                           List<double[]> blueCB,
+                                           QualityMeter meter) {
+        int w = idx[0].width, h = idx[0].height;
+        if (meter != null && (meter.width() != w || meter.height() != h)) {
+            throw new IllegalArgumentException("Quality meter is for " + meter.width() + "×" + meter.height()
+                    + ", image is " + w + "×" + h);
+        }
+        int[] rt = CodebookIndex.of(redCB).decodeTable();
+        int[] gt = CodebookIndex.of(greenCB).decodeTable();
+        int[] bt = CodebookIndex.of(blueCB).decodeTable();
+        MetricsRegistry.Span s = MetricsRegistry.global().timer("rgb.decode").start();
+        try {
+            BufferedImage out = PixelIO.newRgbImage(w, h);
+            int[] data = PixelIO.rgbData(out);
+            for (int y = 0; y < h; y++) {
+                int ri = y * idx[0].stride, gi = y * idx[1].stride, bi = y * idx[2].stride;
+                for (int x = 0, o = y * w; x < w; x++, o++) {
+                    data[o] = (short) rt[idx[0].get(ri + x)] << 16 | (short) gt[idx[1].get(gi + x)] << 8
+                            | (short) bt[idx[2].get(bi + x)];
+                }
+                if (meter != null) meter.rows(data, y, y + 1);
+            }
+            return out;
+        } finally {
+            s.close();
+        }
+    }
 }
@@ -0,0 +1,447 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Compressed image container (.vq), all header fields little-endian:
+//   magic "VQIM", version, mode (RGB / YUV 4:2:0), flags, block width and height, image width,
+//   height, channel count, and the strip height in image rows when FLAG_STRIPED is set
+//   per channel: entries, vector dim, bits per index, codebook id (CRC32), index grid cols/rows,
+//                the codebook itself as doubles when FLAG_EMBEDDED is set, then the IndexCoding
+//                byte and the coder's table: a HUFFMAN code length byte per codeword
+//   with FLAG_STRIPED, the strip table: the byte offset of every strip from the start of the
+//   file, a long each
+//   per channel: the index grid in raster order, edge blocks padded (see BlockGeometry), starting
+//   on a byte boundary, as one IndexCoder segment: RAW bit-packs it MSB first, HUFFMAN and RANS
+//   prefix the coded bytes with their int length;
+//   or with FLAG_STRIPED, strip by strip: for each channel a segment of the grid rows covering
+//   the strip, each strip starting on a byte boundary (written and read by StreamingYUVCodec)
+public class VQFile {
+
+    public static final String EXTENSION = ".vq";
+    public static final int MODE_RGB = 0;
+    public static final int MODE_YUV420 = 1;
+    public static final int FLAG_EMBEDDED = 1;
+    public static final int FLAG_STRIPED = 2;
+    // codewords per codebook, stored in an unsigned short
+    public static final int MAX_ENTRIES = 0xFFFF;
+    // largest image decode accepts unless told otherwise, 16384 × 16384
+    public static final long MAX_PIXELS = 1L << 28;
+
+    private static final int MAGIC = 0x4D495156; // "VQIM"
+    private static final int VERSION = 1;
+
+    // Encode an image with the scalar RGB codebooks, returns the file size in bytes
+    public static long encodeRGB(File imgFile, File vqFile,
+                                 List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                                 boolean embedCodebooks) throws IOException {
+        BufferedImage img = read(imgFile);
+        Plane[] idx = VQCompressor.compress(img, redCB, greenCB, blueCB);
+        return writeRGB(vqFile, img.getWidth(), img.getHeight(), idx, redCB, greenCB, blueCB, embedCodebooks);
+    }
+
+    // Encode an image with the 2×2 Y/U/V codebooks, returns the file size in bytes
+    public static long encodeYUV(File imgFile, File vqFile,
+                                 List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                                 boolean embedCodebooks) throws IOException {
+        return encodeYUV(imgFile, vqFile, BlockGeometry.DEFAULT, yCB, uCB, vCB, embedCodebooks);
+    }
+
+    // Encode an image with Y/U/V codebooks trained on blocks of the given size
+    public static long encodeYUV(File imgFile, File vqFile, BlockGeometry block,
+                                 List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                                 boolean embedCodebooks) throws IOException {
+        BufferedImage img = read(imgFile);
+        Plane[] idx = YUVCompressor.compress(img, block, yCB, uCB, vCB);
+        return writeYUV(vqFile, img.getWidth(), img.getHeight(), block, idx, yCB, uCB, vCB, embedCodebooks);
+    }
+
+    // Store {R, G, B} indices from VQCompressor.compress
+    public static long writeRGB(File vqFile, int width, int height, Plane[] idx,
+                                List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                                boolean embedCodebooks) throws IOException {
+        return writeRGB(vqFile, width, height, idx, redCB, greenCB, blueCB, embedCodebooks, IndexCoding.NONE, null);
+    }
+
+    // As above with the indices entropy coded; HUFFMAN codes come from model, or from the
+    // image's own counts when model is null or has none for the channel
+    public static long writeRGB(File vqFile, int width, int height, Plane[] idx,
+                                List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                                boolean embedCodebooks, IndexCoding coding, EntropyModel model) throws IOException {
+        try (FileChannel ch = create(vqFile)) {
+            return writeRGB(ch, width, height, idx, redCB, greenCB, blueCB, embedCodebooks, coding, model);
+        }
+    }
+
+    // As above into any channel, e.g. an in-memory response body; the channel is left open
+    public static long writeRGB(WritableByteChannel ch, int width, int height, Plane[] idx,
+                                List<double[]> redCB, List<double[]> greenCB, List<double[]> blueCB,
+                                boolean embedCodebooks, IndexCoding coding, EntropyModel model) throws IOException {
+        List<List<double[]>> codebooks = List.of(redCB, greenCB, blueCB);
+        return write(ch, MODE_RGB, BlockGeometry.square(1), width, height, embedCodebooks, idx, codebooks,
+                coders(coding, model, "RGB", idx, codebooks));
+    }
+
+    // Store {Y, U, V} indices from YUVCompressor.compress
+    public static long writeYUV(File vqFile, int width, int height, BlockGeometry block, Plane[] idx,
+                                List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                                boolean embedCodebooks) throws IOException {
+        return writeYUV(vqFile, width, height, block, idx, yCB, uCB, vCB, embedCodebooks, IndexCoding.NONE, null);
+    }
+
+    // As above with the indices entropy coded, see writeRGB
+    public static long writeYUV(File vqFile, int width, int height, BlockGeometry block, Plane[] idx,
+                                List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                                boolean embedCodebooks, IndexCoding coding, EntropyModel model) throws IOException {
+        try (FileChannel ch = create(vqFile)) {
+            return writeYUV(ch, width, height, block, idx, yCB, uCB, vCB, embedCodebooks, coding, model);
+        }
+    }
+
+    public static long writeYUV(WritableByteChannel ch, int width, int height, BlockGeometry block, Plane[] idx,
+                                List<double[]> yCB, List<double[]> uCB, List<double[]> vCB,
+                                boolean embedCodebooks, IndexCoding coding, EntropyModel model) throws IOException {
+        List<List<double[]>> codebooks = List.of(yCB, uCB, vCB);
+        return write(ch, MODE_YUV420, block, width, height, embedCodebooks, idx, codebooks,
+                coders(coding, model, "YUV", idx, codebooks));
+    }
+
+    // One coder per channel; channels are the model's channel letters, idx the grids to count
+    // when a HUFFMAN code is wanted without a model (null to require the model)
+    static IndexCoder[] coders(IndexCoding coding, EntropyModel model, String channels,
+                               Plane[] idx, List<List<double[]>> codebooks) {
+        IndexCoder[] coders = new IndexCoder[codebooks.size()];
+        for (int c = 0; c < coders.length; c++) {
+            List<double[]> cb = codebooks.get(c);
+            long[] counts = null;
+            if (coding.method() == IndexCoding.HUFFMAN) {
+                // a channel the model has no counts for codes with the image's own
+                if (model != null) counts = model.counts(channels.charAt(c), coding.dpcm());
+                if (counts == null && idx != null) counts = IndexCoder.count(idx[c], coding, cb);
+            }
+            coders[c] = IndexCoder.of(coding, cb, counts);
+        }
+        return coders;
+    }
+
+    // Decode a file that carries its own codebooks
+    public static BufferedImage decode(File vqFile) throws IOException {
+        return decode(vqFile, null);
+    }
+
+    // Decode a file, taking codebooks from the list (R,G,B or Y,U,V) when they are not embedded
+    public static BufferedImage decode(File vqFile, List<List<double[]>> codebooks) throws IOException {
+        try (FileChannel ch = FileChannel.open(vqFile.toPath(), StandardOpenOption.READ)) {
+            return decode(ch, vqFile.toString(), codebooks, codebooks);
+        }
+    }
+
+    // Decode from any channel, left open; name labels errors. Codebooks not embedded come from
+    // rgbCodebooks or yuvCodebooks by the file's mode, either may be null.
+    public static BufferedImage decode(ReadableByteChannel ch, String name, List<List<double[]>> rgbCodebooks,
+                                       List<List<double[]>> yuvCodebooks) throws IOException {
+        return decode(ch, name, rgbCodebooks, yuvCodebooks, MAX_PIXELS);
+    }
+
+    // As above, refusing images of more than maxPixels before allocating anything for them;
+    // a corrupt or hostile stream fails with an IOException
+    public static BufferedImage decode(ReadableByteChannel ch, String name, List<List<double[]>> rgbCodebooks,
+                                       List<List<double[]>> yuvCodebooks, long maxPixels) throws IOException {
+        BitReader in = new BitReader(ch);
+        Header h = readHeader(in, name, rgbCodebooks, yuvCodebooks, maxPixels);
+        int channels = h.cols.length;
+
+        Plane[] idx = new Plane[channels];
+        for (int c = 0; c < channels; c++) idx[c] = new Plane(h.cols[c], h.rows[c]);
+        if (h.striped()) {
+            for (int s = 0; s < h.strips(); s++) readStrip(in, h, idx, s, true);
+        } else {
+            for (int c = 0; c < channels; c++) {
+                in.alignToByte();
+                h.coders[c].read(in, idx[c], 0, h.rows[c]);
+            }
+        }
+
+        List<List<double[]>> cbs = h.codebooks;
+        if (h.mode == MODE_RGB) return VQCompressor.decompress(idx, cbs.get(0), cbs.get(1), cbs.get(2));
+        return YUVCompressor.decompress(idx, h.block, h.width, h.height, cbs.get(0), cbs.get(1), cbs.get(2));
+    }
+
+    // Identifies a codebook in files that reference it instead of embedding it
+    public static int codebookId(List<double[]> codebook) {
+        CRC32 crc = new CRC32();
+        for (double[] vec : codebook) {
+            for (double v : vec) {
+                long bits = Double.doubleToLongBits(v);
+                for (int i = 0; i < 8; i++) crc.update((int) (bits >>> (8 * i)));
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    // Smallest bit width that can address every entry: 8 bits for 256, 6 bits for 64
+    public static int bitsPerIndex(int entries) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(entries - 1));
+    }
+
+    private static long write(WritableByteChannel ch, int mode, BlockGeometry block, int width, int height,
+                              boolean embed, Plane[] idx, List<List<double[]>> codebooks,
+                              IndexCoder[] coders) throws IOException {
+        int[] cols = new int[idx.length], rows = new int[idx.length];
+        for (int c = 0; c < idx.length; c++) {
+            cols[c] = idx[c].width;
+            rows[c] = idx[c].height;
+        }
+        BitWriter out = new BitWriter(ch);
+        writeHeader(out, mode, embed ? FLAG_EMBEDDED : 0, block, width, height, 0, cols, rows, codebooks, coders);
+        for (int c = 0; c < idx.length; c++) {
+            out.alignToByte();
+            coders[c].write(out, idx[c]);
+        }
+        out.close();
+        return out.bytesWritten();
+    }
+
+    // Parsed header; codebooks are the embedded ones or the caller's after their ids were checked
+    static final class Header {
+        int mode, flags, width, height, stripRows;
+        BlockGeometry block;
+        int[] bits, cols, rows;
+        List<List<double[]>> codebooks;
+        IndexCoder[] coders;
+        long[] stripOffsets;    // null unless striped
+
+        boolean striped() {
+            return (flags & FLAG_STRIPED) != 0;
+        }
+
+        int strips() {
+            return (height + stripRows - 1) / stripRows;
+        }
+
+        // image rows in strip s, fewer in the last one
+        int stripHeight(int s) {
+            return Math.min(stripRows, height - s * stripRows);
+        }
+
+        // samples across and down channel c before it is cut into blocks
+        int planeWidth(int c) {
+            return mode == MODE_YUV420 && c > 0 ? (width + 1) / 2 : width;
+        }
+
+        int planeHeight(int c) {
+            return mode == MODE_YUV420 && c > 0 ? (height + 1) / 2 : height;
+        }
+
+        // image rows covered by one row of channel c's index grid
+        int rowsPerGridRow(int c) {
+            return mode == MODE_YUV420 && c > 0 ? 2 * block.height() : block.height();
+        }
+    }
+
+    static FileChannel create(File vqFile) throws IOException {
+        File dir = vqFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) dir.mkdirs();
+        return FileChannel.open(vqFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    // Returns where the strip table starts, for writeStripOffsets, or -1 when not striped
+    static long writeHeader(BitWriter out, int mode, int flags, BlockGeometry block, int width, int height,
+                            int stripRows, int[] cols, int[] rows,
+                            List<List<double[]>> codebooks, IndexCoder[] coders) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(mode);
+        out.writeByte(flags);
+        out.writeByte(block.width());
+        out.writeByte(block.height());
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeByte(cols.length);
+        if ((flags & FLAG_STRIPED) != 0) out.writeInt(stripRows);
+
+        for (int c = 0; c < cols.length; c++) {
+            List<double[]> cb = codebooks.get(c);
+            if (cb.size() > MAX_ENTRIES) {
+                throw new IllegalArgumentException(cb.size() + " codewords, a .vq file holds at most " + MAX_ENTRIES);
+            }
+            // the dim byte holds 1 to 255 values, the same for every codeword
+            int dim = cb.isEmpty() ? 0 : cb.get(0).length;
+            for (double[] vec : cb) {
+                if (vec.length != dim || dim < 1 || dim > 0xFF) {
+                    throw new IllegalArgumentException("Channel " + c + " codebook has " + vec.length
+                            + "-value codewords, a .vq file needs 1 to 255 values, the same in each");
+                }
+            }
+            if (dim == 0) throw new IllegalArgumentException("Channel " + c + " codebook is empty");
+            out.writeShort(cb.size());
+            out.writeByte(dim);
+            out.writeByte(bitsPerIndex(cb.size()));
+            out.writeInt(codebookId(cb));
+            out.writeInt(cols[c]);
+            out.writeInt(rows[c]);
+            if ((flags & FLAG_EMBEDDED) != 0) {
+                for (double[] vec : cb) for (double v : vec) out.writeDouble(v);
+            }
+            out.writeByte(coders[c].coding().toByte());
+            coders[c].writeTable(out);
+        }
+        if ((flags & FLAG_STRIPED) == 0) return -1;
+        // zeros until the strips are written and their offsets known
+        long table = out.bytesWritten();
+        for (int s = 0; s < (height + stripRows - 1) / stripRows; s++) out.writeLong(0);
+        return table;
+    }
+
+    // Fill in the strip table writeHeader left at table, once the BitWriter is flushed
+    static void writeStripOffsets(FileChannel ch, long table, long[] offsets) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8 * offsets.length).order(ByteOrder.LITTLE_ENDIAN);
+        for (long offset : offsets) buf.putLong(offset);
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf, table + buf.position());
+    }
+
+    static Header readHeader(BitReader in, File vqFile, List<List<double[]>> codebooks) throws IOException {
+        return readHeader(in, vqFile.toString(), codebooks, codebooks);
+    }
+
+    static Header readHeader(BitReader in, String vqFile, List<List<double[]>> rgbCodebooks,
+                             List<List<double[]>> yuvCodebooks) throws IOException {
+        return readHeader(in, vqFile, rgbCodebooks, yuvCodebooks, MAX_PIXELS);
+    }
+
+    static Header readHeader(BitReader in, String vqFile, List<List<double[]>> rgbCodebooks,
+                             List<List<double[]>> yuvCodebooks, long maxPixels) throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a .vq file: " + vqFile);
+        int version = in.readByte();
+        if (version != VERSION) throw new IOException("Unsupported .vq version " + version);
+        Header h = new Header();
+        h.mode = in.readByte();
+        if (h.mode != MODE_RGB && h.mode != MODE_YUV420) throw new IOException("Unknown .vq mode " + h.mode);
+        h.flags = in.readByte();
+        int blockWidth = in.readByte();
+        int blockHeight = in.readByte();
+        try {
+            h.block = new BlockGeometry(blockWidth, blockHeight);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad block size in " + vqFile + ": " + e.getMessage());
+        }
+        h.width = in.readInt();
+        h.height = in.readInt();
+        if (h.width < 1 || h.height < 1) {
+            throw new IOException("Bad image size " + h.width + "x" + h.height + " in " + vqFile);
+        }
+        if ((long) h.width * h.height > maxPixels) {
+            throw new IOException(h.width + "x" + h.height + " image in " + vqFile + ", over the "
+                    + maxPixels + " pixel limit");
+        }
+        // R, G, B or Y, U, V, each with its codebook
+        int channels = in.readByte();
+        if (channels != 3) throw new IOException(channels + " channels in " + vqFile);
+        if (h.striped()) {
+            h.stripRows = in.readInt();
+            int rowStep = h.mode == MODE_YUV420 ? 2 * h.block.height() : h.block.height();
+            if (h.stripRows < 1 || h.stripRows % rowStep != 0) {
+                throw new IOException("Bad strip height " + h.stripRows + " in " + vqFile);
+            }
+        }
+        List<List<double[]>> codebooks = h.mode == MODE_RGB ? rgbCodebooks : yuvCodebooks;
+
+        h.bits = new int[channels];
+        h.cols = new int[channels];
+        h.rows = new int[channels];
+        h.coders = new IndexCoder[channels];
+        List<List<double[]>> cbs = new ArrayList<>(channels);
+        for (int c = 0; c < channels; c++) {
+            int entries = in.readShort();
+            int dim = in.readByte();
+            h.bits[c] = in.readByte();
+            int id = in.readInt();
+            h.cols[c] = in.readInt();
+            h.rows[c] = in.readInt();
+            if (entries < 1 || dim < 1) {
+                throw new IOException("Channel " + c + " codebook of " + entries + " " + dim
+                        + "-value codewords in " + vqFile);
+            }
+            if (h.bits[c] != bitsPerIndex(entries)) {
+                throw new IOException(h.bits[c] + "-bit indices for " + entries + " codewords in " + vqFile);
+            }
+            if (h.mode == MODE_YUV420 && dim != h.block.dim()) {
+                throw new IOException(dim + "-value codewords for " + h.block + " blocks in " + vqFile);
+            }
+            // the grids follow from the image size, a header that says otherwise is corrupt
+            if (h.cols[c] != h.block.cols(h.planeWidth(c)) || h.rows[c] != h.block.rows(h.planeHeight(c))) {
+                throw new IOException("Channel " + c + " grid " + h.cols[c] + "x" + h.rows[c] + " does not fit a "
+                        + h.width + "x" + h.height + " image of " + h.block + " blocks in " + vqFile);
+            }
+            List<double[]> cb;
+            if ((h.flags & FLAG_EMBEDDED) != 0) {
+                cb = new ArrayList<>(entries);
+                for (int e = 0; e < entries; e++) {
+                    double[] vec = new double[dim];
+                    for (int d = 0; d < dim; d++) vec[d] = in.readDouble();
+                    cb.add(vec);
+                }
+            } else {
+                if (codebooks == null) throw new IOException("Codebooks are not embedded in " + vqFile);
+                cb = codebooks.get(c);
+                if (codebookId(cb) != id) {
+                    throw new IOException("Codebook " + c + " does not match the one used to encode " + vqFile);
+                }
+            }
+            cbs.add(cb);
+            int codingByte = in.readByte();
+            try {
+                h.coders[c] = IndexCoder.readTable(in, IndexCoding.fromByte(codingByte), cb);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad index coding table in " + vqFile + ": " + e.getMessage());
+            }
+        }
+        h.codebooks = cbs;
+        if (h.striped()) {
+            h.stripOffsets = new long[h.strips()];
+            long last = in.position() + 8L * h.strips();
+            for (int s = 0; s < h.stripOffsets.length; s++) {
+                h.stripOffsets[s] = in.readLong();
+                if (h.stripOffsets[s] < last) throw new IOException("Bad strip table in " + vqFile);
+                last = h.stripOffsets[s];
+            }
+        }
+        return h;
+    }
+
+    // One strip of a FLAG_STRIPED file, the grids holding just the strip's rows
+    static void writeStrip(BitWriter out, Plane[] idx, IndexCoder[] coders) throws IOException {
+        out.alignToByte();
+        for (int c = 0; c < idx.length; c++) coders[c].write(out, idx[c]);
+    }
+
+    // Strip s of a FLAG_STRIPED file, into whole-image grids at the strip's rows when whole is
+    // set, or else into grids the size of one strip; read from the strip's offset, in any order
+    static void readStrip(BitReader in, Header h, Plane[] idx, int s, boolean whole) throws IOException {
+        in.seek(h.stripOffsets[s]);
+        int fromY = s * h.stripRows;
+        for (int c = 0; c < idx.length; c++) {
+            int scale = h.rowsPerGridRow(c);
+            int n = (h.stripHeight(s) + scale - 1) / scale; // the last strip may end in a padded row
+            int row0 = whole ? fromY / scale : 0;
+            h.coders[c].read(in, idx[c], row0, row0 + n);
+        }
+    }
+
+    private static BufferedImage read(File imgFile) throws IOException {
+        BufferedImage img = ImageIO.read(imgFile);
+        if (img == null) throw new IOException("Cannot read image: " + imgFile);
+        return img;
+    }
+}
@@ -0,0 +1,137 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// DistanceKernel on the JDK Vector API. The codewords are transposed into float lanes,
+// component d of codeword j at lanes[d * padded + j], so one pass of the widest float
+// register holds the distances from a block to 8 (AVX2) or 16 (AVX-512) codewords.
+// Float distances are only a filter: every codeword whose float distance is within the
+// worst-case float rounding error of the minimum is measured again in double precision, so
+// the result is the exact scan's. Outside DistanceKernel.of() this class is never touched,
+// which keeps JVMs without jdk.incubator.vector from loading it.
+final class VectorDistanceKernel extends DistanceKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final float PADDING = 1e18f;         // component of the unused lanes' codewords
+    private static final double ULP = Math.scalb(1.0, -22); // float rounding with some headroom
+
+    private final int padded;
+    private final float[] lanes;
+    private final double range;     // largest |component| of any codeword
+
+    VectorDistanceKernel(double[] codewords, int k, int dim) {
+        super(codewords, k, dim);
+        padded = (k + LANES - 1) / LANES * LANES;
+        lanes = new float[dim * padded];
+        java.util.Arrays.fill(lanes, PADDING);
+        double r = 0;
+        for (int j = 0; j < k; j++) {
+            for (int d = 0; d < dim; d++) {
+                double c = codewords[j * dim + d];
+                lanes[d * padded + j] = (float) c;
+                r = Math.max(r, Math.abs(c));
+            }
+        }
+        range = r;
+    }
+
+    // Below 8 float lanes the API runs in software and the scalar loop is faster
+    static boolean usable() {
+        return LANES >= 8;
+    }
+
+    @Override
+    public float[] scratch() {
+        return new float[padded];
+    }
+
+    @Override
+    public int nearest(float[] data, int off, float[] scratch) {
+        float best = distances(data, off, scratch);
+        return recheck(data, off, scratch, best + margin(data, off, best), null);
+    }
+
+    @Override
+    public int nearest2(float[] data, int off, float[] scratch, double[] two) {
+        float best = distances(data, off, scratch);
+        int idx = recheck(data, off, scratch, best + margin(data, off, best), two);
+
+        // every other codeword is at least as far as the smallest remaining float distance,
+        // less what rounding could have taken off it
+        float saved = scratch[idx];
+        scratch[idx] = Float.POSITIVE_INFINITY;
+        FloatVector min = FloatVector.broadcast(SPECIES, Float.POSITIVE_INFINITY);
+        for (int j = 0; j < padded; j += LANES) min = min.min(FloatVector.fromArray(SPECIES, scratch, j));
+        scratch[idx] = saved;
+        double second = min.reduceLanes(VectorOperators.MIN);
+        two[1] = k > 1 ? Math.max(0, second - margin(data, off, second)) : Double.MAX_VALUE;
+        return idx;
+    }
+
+    // float squared distances to every codeword into scratch, returns the smallest
+    private float distances(float[] data, int off, float[] scratch) {
+        FloatVector min = FloatVector.broadcast(SPECIES, Float.POSITIVE_INFINITY);
+        if (dim == 4) {
+            // broadcast once, the JIT does not hoist it out of the loop
+            FloatVector x0 = FloatVector.broadcast(SPECIES, data[off]);
+            FloatVector x1 = FloatVector.broadcast(SPECIES, data[off + 1]);
+            FloatVector x2 = FloatVector.broadcast(SPECIES, data[off + 2]);
+            FloatVector x3 = FloatVector.broadcast(SPECIES, data[off + 3]);
+            int p1 = padded, p2 = 2 * padded, p3 = 3 * padded;
+            for (int j = 0; j < padded; j += LANES) {
+                FloatVector d0 = FloatVector.fromArray(SPECIES, lanes, j).sub(x0);
+                FloatVector d1 = FloatVector.fromArray(SPECIES, lanes, p1 + j).sub(x1);
+                FloatVector d2 = FloatVector.fromArray(SPECIES, lanes, p2 + j).sub(x2);
+                FloatVector d3 = FloatVector.fromArray(SPECIES, lanes, p3 + j).sub(x3);
+                FloatVector acc = d0.mul(d0).add(d1.mul(d1)).add(d2.mul(d2)).add(d3.mul(d3));
+                acc.intoArray(scratch, j);
+                min = min.min(acc);
+            }
+        } else {
+            for (int j = 0; j < padded; j += LANES) {
+                FloatVector acc = FloatVector.zero(SPECIES);
+                for (int d = 0; d < dim; d++) {
+                    FloatVector diff = FloatVector.fromArray(SPECIES, lanes, d * padded + j).sub(data[off + d]);
+                    acc = acc.add(diff.mul(diff));
+                }
+                acc.intoArray(scratch, j);
+                min = min.min(acc);
+            }
+        }
+        return min.reduceLanes(VectorOperators.MIN);
+    }
+
+    // exact double scan of the codewords whose float distance is at most limit, in index order
+    private int recheck(float[] data, int off, float[] scratch, double limit, double[] two) {
+        FloatVector bound = FloatVector.broadcast(SPECIES, Math.nextUp((float) limit));
+        double bestD = Double.MAX_VALUE;
+        int bestK = 0;
+        for (int j = 0; j < padded; j += LANES) {
+            VectorMask<Float> near = FloatVector.fromArray(SPECIES, scratch, j).compare(VectorOperators.LE, bound);
+            if (!near.anyTrue()) continue; // usually a single codeword is near, skip the rest cheaply
+            for (long bits = near.toLong(); bits != 0; bits &= bits - 1) {
+                int c = j + Long.numberOfTrailingZeros(bits);
+                if (c >= k) break;
+                double dd = distance(data, off, c);
+                if (dd < bestD) {
+                    bestD = dd;
+                    bestK = c;
+                }
+            }
+        }
+        if (two != null) two[0] = bestD;
+        return bestK;
+    }
+
+    // Twice the largest gap between a float distance near dist and the exact one: the codeword
+    // rounded to float, the difference, its square and the running sum each lose at most an ulp
+    // (ULP has a factor 4 of headroom, which also covers the error in this estimate)
+    private double margin(float[] data, int off, double dist) {
+        float x = 0;
+        for (int d = 0; d < dim; d++) x = Math.max(x, Math.abs(data[off + d]));
+        double diff = range + x;                 // largest |component difference|
+        return 2 * dim * ULP * (diff * (2 * diff + 1) + dist + 1);
+    }
+}
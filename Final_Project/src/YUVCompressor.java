@@ -18,70 +18,197 @@ public class YUVCompressor {
             return;
         }
 
-        // Ensure width and height are divisible by 4 for proper subsampling and block processing
+        System.out.println("[YUV] Converting RGB → YUV, sub-sampling and compressing Y, U, V channels...");
+        Plane[] idx = compress(image, yCodebook, uCodebook, vCodebook);
+
+        System.out.println("[YUV] Decompressing, upsampling and converting YUV → RGB...");
+        QualityMeter meter = new QualityMeter(image);
+        BufferedImage outputImage = decompress(idx, BlockGeometry.DEFAULT, image.getWidth(), image.getHeight(),
+                yCodebook, uCodebook, vCodebook, meter);
+        QualityMeter.Quality q = meter.quality();
+        System.out.printf("[YUV] PSNR: %.2f dB, SSIM %.4f%n", q.psnr(), q.ssim());
+
+        File outDir = new File("output/yuv_decoded");
+        if (!outDir.exists()) outDir.mkdirs();
+        File outFile = new File(outDir, imgFile.getName().replaceAll("\\.[^.]+$", ".jpg"));
+
+        System.out.println("[YUV] Saving output to " + outFile.getPath());
+        ImageIO.write(outputImage, "jpg", outFile);
+    }
+
+    // No longer needed: compress pads the edge blocks (see BlockGeometry) and the decoders
+    // crop back to the image size. Cuts width and height down to multiples of 4.
+    @Deprecated
+    public static BufferedImage cropToMultipleOf4(BufferedImage image) {
         int w0 = image.getWidth();
         int h0 = image.getHeight();
         int w = w0 - (w0 % 4);
         int h = h0 - (h0 % 4);
-        if (w != w0 || h != h0) {
-            image = image.getSubimage(0, 0, w, h);
-            System.out.println("[YUV] Cropped to dimensions divisible by 4: " + w + "×" + h);
-        }
+        return (w != w0 || h != h0) ? image.getSubimage(0, 0, w, h) : image;
+    }
 
-        int blockSize = 2;
+    // Encode only: 2×2 block indices {Y, U, V}, U and V taken from the sub-sampled planes
+    public static Plane[] compress(BufferedImage image,
+                                     List<double[]> yCodebook,
+                                     List<double[]> uCodebook,
+                                     List<double[]> vCodebook) {
+        return compress(image, BlockGeometry.DEFAULT, yCodebook, uCodebook, vCodebook);
+    }
 
-        System.out.println("[YUV] Converting RGB → YUV...");
-        int[][][] yuv = ImageUtilsYUV.rgbToYuv(image);
-        int[][] Y = yuv[0];
-        int[][] U = yuv[1];
-        int[][] V = yuv[2];
+    // As above with blocks of any size; edge blocks are padded, see BlockGeometry
+    public static Plane[] compress(BufferedImage image,
+                                     BlockGeometry block,
+                                     List<double[]> yCodebook,
+                                     List<double[]> uCodebook,
+                                     List<double[]> vCodebook) {
+        return compress(image, block, yCodebook, uCodebook, vCodebook, ParallelEncoder.shared());
+    }
 
-        System.out.println("[YUV] Sub-sampling U and V channels...");
-        U = subSample(U);
-        V = subSample(V);
+    // As above, searching on the encoder's threads; the indices are the same at any parallelism.
+    // Conversion, sub-sampling and search run in one pass, see FusedYUVEncoder
+    public static Plane[] compress(BufferedImage image,
+                                     BlockGeometry block,
+                                     List<double[]> yCodebook,
+                                     List<double[]> uCodebook,
+                                     List<double[]> vCodebook,
+                                     ParallelEncoder encoder) {
+        return compress(new FusedYUVEncoder(image, block,
+                CodebookIndex.of(yCodebook), CodebookIndex.of(uCodebook), CodebookIndex.of(vCodebook)), encoder);
+    }
 
-        System.out.println("[YUV] Compressing Y, U, V channels...");
-        int[][] cY = ImageUtilsYUV.compressChannel(Y, yCodebook, blockSize);
-        int[][] cU = ImageUtilsYUV.compressChannel(U, uCodebook, blockSize);
-        int[][] cV = ImageUtilsYUV.compressChannel(V, vCodebook, blockSize);
+    // As above with tree codebooks; the indices address each tree's codebook() and decode the same way
+    public static Plane[] compress(BufferedImage image,
+                                     BlockGeometry block,
+                                     TreeCodebook yCodebook,
+                                     TreeCodebook uCodebook,
+                                     TreeCodebook vCodebook,
+                                     ParallelEncoder encoder) {
+        return compress(new FusedYUVEncoder(image, block, yCodebook, uCodebook, vCodebook), encoder);
+    }
 
-        System.out.println("[YUV] Decompressing Y, U, V channels...");
-        int[][] rY = ImageUtilsYUV.decompressChannel(cY, yCodebook, blockSize);
-        int[][] rU = ImageUtilsYUV.decompressChannel(cU, uCodebook, blockSize);
-        int[][] rV = ImageUtilsYUV.decompressChannel(cV, vCodebook, blockSize);
+    private static Plane[] compress(FusedYUVEncoder image, ParallelEncoder encoder) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        MetricsRegistry.Span s = metrics.timer("yuv.encode").start();
+        try {
+            Plane[] idx = encoder.compress(image);
+            for (Plane p : idx) metrics.counter("yuv.blocks").add((long) p.width * p.height);
+            return idx;
+        } finally {
+            s.close();
+        }
+    }
 
-        System.out.println("[YUV] Upsampling U and V...");
-        rU = ImageUtilsYUV.upsample(rU);
-        rV = ImageUtilsYUV.upsample(rV);
+    // Encode stage by stage: full Y, U, V planes, chroma sub-sampling, then the search of each
+    // plane; the same indices as compress
+    public static Plane[] compressStaged(BufferedImage image,
+                                         BlockGeometry block,
+                                         List<double[]> yCodebook,
+                                         List<double[]> uCodebook,
+                                         List<double[]> vCodebook,
+                                         ParallelEncoder encoder) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        Plane[] yuv;
+        MetricsRegistry.Span convert = metrics.timer("yuv.convert").start()
+                .bytes(3L * image.getWidth() * image.getHeight());
+        try {
+            yuv = ImageUtilsYUV.rgbToYuv(image);
+        } finally {
+            convert.close();
+        }
+        Plane[] channels;
+        MetricsRegistry.Span subsample = metrics.timer("yuv.subsample").start();
+        try {
+            channels = new Plane[]{yuv[0], ImageUtilsYUV.subSample(yuv[1]), ImageUtilsYUV.subSample(yuv[2])};
+        } finally {
+            subsample.close();
+        }
+        MetricsRegistry.Span search = metrics.timer("yuv.search").start();
+        try {
+            return encoder.compressChannels(channels, new CodebookIndex[]{
+                    CodebookIndex.of(yCodebook), CodebookIndex.of(uCodebook), CodebookIndex.of(vCodebook)}, block);
+        } finally {
+            search.close();
+        }
+    }
 
-        System.out.println("[YUV] Converting YUV → RGB...");
-        BufferedImage outputImage = ImageUtilsYUV.yuvToRgb(rY, rU, rV);
+    // Decode only: rebuild the RGB image from 2×2 block {Y, U, V} index planes, the image
+    // taking up every block
+    public static BufferedImage decompress(Plane[] idx,
+                                           List<double[]> yCodebook,
+                                           List<double[]> uCodebook,
+                                           List<double[]> vCodebook) {
+        BlockGeometry block = BlockGeometry.DEFAULT;
+        return decompress(idx, block, idx[0].width * block.width(), idx[0].height * block.height(),
+                yCodebook, uCodebook, vCodebook);
+    }
 
-        File outDir = new File("output/yuv_decoded");
-        if (!outDir.exists()) outDir.mkdirs();
-        File outFile = new File(outDir, imgFile.getName().replaceAll("\\.[^.]+$", ".jpg"));
+    // Decode the width × height image the index planes were encoded from, in one pass with
+    // FusedYUVDecoder whenever the planes have its 4:2:0 layout
+    public static BufferedImage decompress(Plane[] idx, BlockGeometry block, int width, int height,
+                                           List<double[]> yCodebook,
+                                           List<double[]> uCodebook,
+                                           List<double[]> vCodebook) {
+        return decompress(idx, block, width, height, yCodebook, uCodebook, vCodebook, null);
+    }
 
-        System.out.println("[YUV] Saving output to " + outFile.getPath());
-        ImageIO.write(outputImage, "jpg", outFile);
+    // As above, measuring the decoded pixels against the meter's source unless it is null
+    public static BufferedImage decompress(Plane[] idx, BlockGeometry block, int width, int height,
+                                           List<double[]> yCodebook,
+                                           List<double[]> uCodebook,
+                                           List<double[]> vCodebook,
+                                           QualityMeter meter) {
+        if (!FusedYUVDecoder.fits(idx[0], idx[1], idx[2], block, width, height)) {
+            BufferedImage out = decompressStaged(idx, block, width, height, yCodebook, uCodebook, vCodebook);
+            // the staged path has no row loop of its own to measure in
+            if (meter != null) meter.rows(PixelIO.rgbData(out), 0, height);
+            return out;
+        }
+        MetricsRegistry.Span s = MetricsRegistry.global().timer("yuv.decode").start();
+        try {
+            return FusedYUVDecoder.of(yCodebook, uCodebook, vCodebook)
+                    .decode(idx[0], idx[1], idx[2], block, width, height, meter);
+        } finally {
+            s.close();
+        }
     }
 
-    // average each non overlapping 2×2 block into one pixel
-    private static int[][] subSample(int[][] channel) {
-        int width = channel.length;
-        int height = channel[0].length;
-        int newW = width / 2;
-        int newH = height / 2;
-        int[][] sub = new int[newW][newH];
-
-        for (int x = 0; x < newW; x++) {
-            for (int y = 0; y < newH; y++) {
-                int sum = channel[2*x][2*y]
-                        + channel[2*x+1][2*y]
-                        + channel[2*x][2*y+1]
-                        + channel[2*x+1][2*y+1];
-                sub[x][y] = sum / 4;
-            }
+    public static BufferedImage decompressStaged(Plane[] idx,
+                                                 List<double[]> yCodebook,
+                                                 List<double[]> uCodebook,
+                                                 List<double[]> vCodebook) {
+        BlockGeometry block = BlockGeometry.DEFAULT;
+        return decompressStaged(idx, block, idx[0].width * block.width(), idx[0].height * block.height(),
+                yCodebook, uCodebook, vCodebook);
+    }
+
+    // Decode stage by stage: full Y, U, V planes, chroma upsampling, then colour conversion
+    public static BufferedImage decompressStaged(Plane[] idx, BlockGeometry block, int width, int height,
+                                                 List<double[]> yCodebook,
+                                                 List<double[]> uCodebook,
+                                                 List<double[]> vCodebook) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        int cw = (width + 1) / 2, ch = (height + 1) / 2;
+        Plane rY, rU, rV;
+        MetricsRegistry.Span reconstruct = metrics.timer("yuv.reconstruct").start();
+        try {
+            rY = ImageUtilsYUV.decompressChannel(idx[0], yCodebook, block, width, height);
+            rU = ImageUtilsYUV.decompressChannel(idx[1], uCodebook, block, cw, ch);
+            rV = ImageUtilsYUV.decompressChannel(idx[2], vCodebook, block, cw, ch);
+        } finally {
+            reconstruct.close();
+        }
+        MetricsRegistry.Span upsample = metrics.timer("yuv.upsample").start();
+        try {
+            rU = ImageUtilsYUV.upsample(rU, width, height);
+            rV = ImageUtilsYUV.upsample(rV, width, height);
+        } finally {
+            upsample.close();
+        }
+        MetricsRegistry.Span convertBack = metrics.timer("yuv.convert_back").start();
+        try {
+            return ImageUtilsYUV.yuvToRgb(rY, rU, rV);
+        } finally {
+            convertBack.close();
         }
-        return sub;
     }
-}
\ No newline at end of file
+}